@@ -0,0 +1,34 @@
+package math.bench;
+import math.wfc.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark of a whole run of WFC_Handler.wfc() on an empty grid with a fixed seed,
+ * so every call makes the same choices and does the same backtracking.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SolveBenchmark {
+	private WFC_Handler handler;
+
+	@Setup(Level.Invocation)
+	public void createHandler(Workload w){
+		handler = new WFC_Handler(w.size, w.size, w.tileset);
+		handler.setSeed(Workload.SEED);
+	}
+
+	/**
+	 * Fills the grid.
+	 */
+	@Benchmark
+	public boolean wfc(){
+		if(!handler.wfc())
+			throw new IllegalStateException("The grid couldn't be filled");
+		return true;
+	}
+}
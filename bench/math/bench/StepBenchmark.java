@@ -0,0 +1,76 @@
+package math.bench;
+import math.wfc.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the single steps of the algorithm on a grid that already has a few random
+ * choices made on it. Steps that change the grid work on a copy from Copies, which is made
+ * again before every call and isn't measured. Steps that only read the grid use the grid
+ * of the Workload directly, so they don't pay for the per-call setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StepBenchmark {
+	//position collapsePossibilities() is called for, walks through the grid
+	private int position;
+
+	/**
+	 * Fresh copies of the grid of the Workload for the benchmarks that change it.
+	 * Level.Invocation adds a timestamp and some synchronisation around every call,
+	 * which is small but not free next to steps of a few microseconds.
+	 */
+	@State(Scope.Thread)
+	public static class Copies {
+		Gridstate copy;
+		//copy with one random choice made on it that hasn't been propagated
+		Gridstate chosen;
+		Random rand;
+
+		@Setup(Level.Invocation)
+		public void copyGrid(Workload w){
+			copy = (Gridstate) w.grid.clone();
+			rand = new Random(Workload.SEED);
+			chosen = ((Gridstate) w.grid.clone()).makeRandomChoice(new Random(Workload.SEED));
+		}
+	}
+
+	/**
+	 * Propagates a single random choice through the grid.
+	 */
+	@Benchmark
+	public boolean collapse(Copies c){
+		return c.chosen == null || c.chosen.collapse();
+	}
+
+	/**
+	 * Evaluates the rules of every tile at one position. The grid is already
+	 * propagated, so nothing is removed and the same grid can be used every time.
+	 */
+	@Benchmark
+	public boolean collapsePossibilities(Workload w){
+		position = (position + 1) % (w.size * w.size);
+		return w.grid.getPosition(position % w.size, position / w.size).collapsePossibilities(w.grid);
+	}
+
+	/**
+	 * Chooses a random tile at a random position.
+	 */
+	@Benchmark
+	public Gridstate makeRandomChoice(Copies c){
+		return c.copy.makeRandomChoice(c.rand);
+	}
+
+	/**
+	 * Copies the grid.
+	 */
+	@Benchmark
+	public Object cloneGrid(Workload w){
+		return w.grid.clone();
+	}
+}
@@ -0,0 +1,87 @@
+package math.bench;
+import math.wfc.*;
+import math.wfc.rules.*;
+import java.util.Random;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The grid every benchmark works on. A benchmark run is described by the size of the
+ * square grid, the count of tiles and the rule they use, every random choice is made
+ * with a fixed seed, so two runs with the same parameters do the same work.
+ */
+@State(Scope.Thread)
+public class Workload {
+	final static long SEED = 37;
+	//tiles that differ by at most BAND may be neighbours
+	private final static int BAND = 2;
+	//count of random choices made on the grid before it's measured
+	private final static int CHOICES = 8;
+
+	/**
+	 * The rules of the tileset.
+	 */
+	public enum RuleType {
+		//AdjacencyRule with its three propagations
+		MASKS, SUPPORT, STATE,
+		//FixedAmountPerRow with every tile size / tiles times in each row
+		ROWS
+	}
+
+	@Param({"16", "32", "64"})
+	public int size;
+
+	@Param({"4", "16"})
+	public int tiles;
+
+	@Param({"MASKS", "SUPPORT", "STATE", "ROWS"})
+	public RuleType rule;
+
+	Tile[] tileset;
+	//propagated grid with a few random choices made on it
+	Gridstate grid;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		tileset = tileset(tiles, rule, size);
+		grid = new Gridstate(size, size, tileset);
+		if(grid.collapse())
+			throw new IllegalStateException("The empty grid has no solution");
+		Random rand = new Random(SEED);
+		for(int i = 0; i < CHOICES; i++){
+			Gridstate next = grid.makeRandomChoice(rand);
+			if(next == null || next.collapse())
+				break;
+			grid = next;
+		}
+	}
+
+	/**
+	 * Creates a tileset.
+	 * @param  tiles count of tiles
+	 * @param  rule  rule of the tiles
+	 * @param  size  width of the grid, the ROWS rule needs it to be a multiple of tiles
+	 * @return       the tileset
+	 */
+	static Tile[] tileset(int tiles, RuleType rule, int size){
+		Tile[] tileset = new Tile[tiles];
+		if(rule == RuleType.ROWS){
+			if(size % tiles != 0)
+				throw new IllegalArgumentException("A row of " + size + " can't hold every one of " + tiles + " tiles equally often");
+			Rule[] rules = {new FixedAmountPerRow(size / tiles)};
+			for(int i = 0; i < tiles; i++)
+				tileset[i] = new Tile(i, rules);
+			return tileset;
+		}
+
+		AdjacencyRule adjacency = new AdjacencyRule().setPropagation(AdjacencyRule.Propagation.valueOf(rule.name()));
+		Rule[] rules = {adjacency};
+		for(int i = 0; i < tiles; i++)
+			tileset[i] = new Tile(i, rules);
+		for(int a = 0; a < tiles; a++)
+			for(int b = a; b <= a + BAND && b < tiles; b++){
+				adjacency.allow(tileset[a], Direction.RIGHT, tileset[b]);
+				adjacency.allow(tileset[a], Direction.DOWN, tileset[b]);
+			}
+		return tileset;
+	}
+}
@@ -0,0 +1,136 @@
+package math.testing;
+import math.wfc.*;
+import math.wfc.rules.*;
+import java.util.Random;
+
+/**
+ * Compares the propagations of AdjacencyRule on tilesets of growing size.
+ * Tile a may be placed next to tile b if they differ by at most BAND. All
+ * propagations are first checked to leave the same possibilities after the
+ * same choices, then whole grids are generated with each of them.
+ * Which of MASKS and SUPPORT is faster depends on the size of the tileset and
+ * changes between runs, the differences are within the noise of single runs.
+ * Both are clearly faster than STATE on every size.
+ */
+public class AdjacencyBenchmark {
+	private final static int[] TILES = {16, 64, 256, 512};
+	private final static int SIZE = 24;
+	private final static int BAND = 2;
+	private final static int CHOICES = 20;
+	private final static int WARMUP = 2;
+	private final static int RUNS = 5;
+
+	/**
+	 * Runs the benchmark for every tileset size.
+	 * @param args arguments (the first one can be used as the seed)
+	 */
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 37;
+		for(int tiles:TILES){
+			AdjacencyRule.Propagation[] propagations = AdjacencyRule.Propagation.values();
+			Tile[][] tilesets = new Tile[propagations.length][];
+			for(int p = 0; p < propagations.length; p++){
+				tilesets[p] = bandTileset(tiles, propagations[p]);
+				if(p > 0)
+					compare(tilesets[0], tilesets[p], new Random(seed));
+			}
+
+			long[] time = new long[propagations.length];
+			for(int run = 0; run < WARMUP + RUNS; run++){
+				for(int p = 0; p < propagations.length; p++){
+					long runTime = generate(tilesets[p]);
+					if(run >= WARMUP)
+						time[p] += runTime;
+				}
+			}
+			System.out.printf("%d tiles:", tiles);
+			for(int p = 0; p < propagations.length; p++)
+				System.out.printf(" %s %.2f ms", propagations[p], time[p] / 1e6 / RUNS);
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Creates a tileset where tiles that differ by at most BAND may be neighbours.
+	 * @param  tiles       count of tiles
+	 * @param  propagation the propagation of the AdjacencyRule
+	 * @return             the tileset
+	 */
+	static Tile[] bandTileset(int tiles, AdjacencyRule.Propagation propagation){
+		AdjacencyRule adjacency = new AdjacencyRule().setPropagation(propagation);
+		Rule[] rules = {adjacency};
+		Tile[] tileset = new Tile[tiles];
+		for(int i = 0; i < tiles; i++)
+			tileset[i] = new Tile(i, rules);
+		for(int a = 0; a < tiles; a++)
+			for(int b = a; b <= a + BAND && b < tiles; b++){
+				adjacency.allow(tileset[a], Direction.RIGHT, tileset[b]);
+				adjacency.allow(tileset[a], Direction.DOWN, tileset[b]);
+			}
+		return tileset;
+	}
+
+	/**
+	 * Makes the same random choices on two grids and checks that both propagations
+	 * leave the same possibilities after every choice.
+	 * @param a    tileset using the first propagation
+	 * @param b    tileset using the second propagation
+	 * @param rand random generator choosing positions and tiles
+	 */
+	private static void compare(Tile[] a, Tile[] b, Random rand){
+		Gridstate gridA = new Gridstate(SIZE, SIZE, a);
+		Gridstate gridB = new Gridstate(SIZE, SIZE, b);
+		boolean failedA = gridA.collapse(), failedB = gridB.collapse();
+		for(int i = 0; i < CHOICES && !failedA && !failedB; i++){
+			if(!sameState(gridA, a, gridB, b))
+				throw new IllegalStateException("Propagations differ for " + a.length + " tiles");
+			int x = rand.nextInt(SIZE), y = rand.nextInt(SIZE);
+			Superposition s = gridA.getPosition(x, y);
+			if(s.isCollapsed())
+				continue;
+			int tile = gridA.getPossibleTile(gridA.getCell(x, y), rand.nextInt(s.getPossibilityCount()));
+			gridA.getPosition(x, y).collapseTo(tile);
+			gridB.getPosition(x, y).collapseTo(tile);
+			failedA = gridA.collapse();
+			failedB = gridB.collapse();
+		}
+		if(failedA != failedB || (!failedA && !sameState(gridA, a, gridB, b)))
+			throw new IllegalStateException("Propagations differ for " + a.length + " tiles");
+	}
+
+	/**
+	 * Tests if two grids with different tilesets of the same size have the same tiles left.
+	 * @param  a        the first grid
+	 * @param  tilesetA the tileset of the first grid
+	 * @param  b        the second grid
+	 * @param  tilesetB the tileset of the second grid
+	 * @return          true if they are the same
+	 */
+	private static boolean sameState(Gridstate a, Tile[] tilesetA, Gridstate b, Tile[] tilesetB){
+		for(int cell = 0; cell < SIZE * SIZE; cell++)
+			for(int t = 0; t < tilesetA.length; t++)
+				if(a.tilePossible(cell, tilesetA[t]) != b.tilePossible(cell, tilesetB[t]))
+					return false;
+		return true;
+	}
+
+	/**
+	 * Generates a grid and checks that every pair of neighbours is allowed.
+	 * @param  tileset the tileset to generate the grid with
+	 * @return         time the generation took in nanoseconds
+	 */
+	private static long generate(Tile[] tileset){
+		WFC_Handler generator = new WFC_Handler(SIZE, SIZE, tileset);
+		long start = System.nanoTime();
+		if(!generator.wfc())
+			throw new IllegalStateException("Grid couldn't be generated with " + tileset.length + " tiles");
+		long time = System.nanoTime() - start;
+		Tile[][] grid = generator.getGrid();
+		for(int x = 0; x < SIZE; x++)
+			for(int y = 0; y < SIZE; y++)
+				if((x + 1 < SIZE && Math.abs(grid[x][y].getId() - grid[x + 1][y].getId()) > BAND)
+						|| (y + 1 < SIZE && Math.abs(grid[x][y].getId() - grid[x][y + 1].getId()) > BAND))
+					throw new IllegalStateException("Invalid neighbours at " + x + ", " + y);
+		return time;
+	}
+}
@@ -0,0 +1,226 @@
+package math.testing;
+import math.wfc.*;
+import math.wfc.rules.*;
+import java.util.Random;
+
+/**
+ * Compares Sudokus built from FixedAmountRules with an amount of 1 to Sudokus built
+ * from AllDifferentRules on the hard 9x9 Sudokus and on 16x16 Sudokus with few givens.
+ * Prints the decisions, backtracks and time per solve and checks that every solution
+ * is valid. A search that needs more than DECISION_LIMIT random choices is cancelled
+ * and counted as unsolved.
+ */
+public class AllDifferentBenchmark {
+	private final static int SEEDS = 5;
+	private final static int PUZZLES_16 = 5;
+	private final static double GIVEN_RATIO_16 = 0.4;
+	private final static int DECISION_LIMIT = 100000;
+	private final static int WARMUP = 2;
+	private final static int RUNS = 3;
+
+	/**
+	 * Runs the benchmark.
+	 * @param args arguments (the first one can be used as the seed of the 16x16 Sudokus)
+	 */
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 37;
+		int[][][] hard = new int[BacktrackingBenchmark.HARD_PUZZLES.length][][];
+		for(int p = 0; p < hard.length; p++)
+			hard[p] = givens(3, BacktrackingBenchmark.HARD_PUZZLES[p]);
+		int[][][] large = new int[PUZZLES_16][][];
+		Random rand = new Random(seed);
+		for(int p = 0; p < large.length; p++)
+			large[p] = givens(4, GIVEN_RATIO_16, rand);
+
+		run("9x9 hard", 3, hard);
+		run("16x16", 4, large);
+	}
+
+	/**
+	 * Solves every Sudoku with every seed using both tilesets and prints the results.
+	 * @param name    name of the Sudokus
+	 * @param size    the size of a block
+	 * @param puzzles the givens of the Sudokus
+	 */
+	private static void run(String name, int size, int[][][] puzzles){
+		Tile[][] tilesets = {PropagationBenchmark.sudokuTileset(size), allDifferentTileset(size)};
+		String[] names = {"FixedAmount", "AllDifferent"};
+		for(int t = 0; t < tilesets.length; t++){
+			long decisions = 0, backtracks = 0, maxBacktracks = 0, time = 0;
+			int unsolved = 0;
+			//the first run counts the decisions and backtracks, the others are timed without metrics
+			for(int run = 0; run < WARMUP + RUNS; run++){
+				long start = System.nanoTime();
+				for(int[][] puzzle:puzzles){
+					for(int seed = 0; seed < SEEDS; seed++){
+						SolverMetrics metrics = run == 0 ? new SolverMetrics() : null;
+						if(!solve(size, tilesets[t], puzzle, seed, metrics) && run == 0)
+							unsolved++;
+						if(metrics != null){
+							decisions += metrics.getDecisions();
+							backtracks += metrics.getBacktracks();
+							maxBacktracks = Math.max(maxBacktracks, metrics.getBacktracks());
+						}
+					}
+				}
+				if(run >= WARMUP)
+					time += System.nanoTime() - start;
+			}
+			int solves = puzzles.length * SEEDS;
+			System.out.printf("%s %s: %.1f decisions, %.1f backtracks (at most %d), %d unsolved, %.3f ms per solve%n",
+				name, names[t], (double) decisions / solves, (double) backtracks / solves, maxBacktracks, unsolved,
+				time / 1e6 / RUNS / solves);
+		}
+	}
+
+	/**
+	 * Solves a Sudoku and checks the solution.
+	 * @param  size    the size of a block
+	 * @param  tileset the tileset of the Sudoku
+	 * @param  givens  the givens of the Sudoku
+	 * @param  seed    seed of the random choices
+	 * @param  metrics metrics to add the run to or null
+	 * @return         false if the search was cancelled after DECISION_LIMIT choices
+	 */
+	private static boolean solve(int size, Tile[] tileset, int[][] givens, long seed, SolverMetrics metrics){
+		Gridstate grid = PropagationBenchmark.puzzle(size, tileset, givens);
+		WFC_Handler solver = new WFC_Handler(grid, seed);
+		solver.setMetrics(metrics);
+		solver.setCellSelector(new LimitedSelector(solver, DECISION_LIMIT));
+		if(solver.wfc()){
+			if(!valid(size, grid, givens))
+				throw new IllegalStateException("Sudoku wasn't solved correctly");
+			return true;
+		}
+		if(!solver.isCancelled())
+			throw new IllegalStateException("Sudoku couldn't be solved");
+		return false;
+	}
+
+	/**
+	 * Creates the tileset of a Sudoku with blocks of size x size from AllDifferentRules.
+	 * @param  size the size of a block
+	 * @return      the tileset
+	 */
+	static Tile[] allDifferentTileset(int size){
+		Rule[] rules = {new AllDifferentPerRow(), new AllDifferentPerColumn(), new AllDifferentPerBlock(size, size)};
+		Tile[] tileset = new Tile[size * size];
+		for(int i = 0; i < size * size; i++)
+			tileset[i] = new Tile(i+1, rules);
+		return tileset;
+	}
+
+	/**
+	 * Reads the givens of a Sudoku from a String with one character per position, read row by row.
+	 * @param  size   the size of a block
+	 * @param  puzzle the String representation of the Sudoku
+	 * @return        index of the tile at each position or -1 if it isn't given
+	 */
+	static int[][] givens(int size, String puzzle){
+		int n = size * size;
+		int[][] givens = new int[n][n];
+		for(int i = 0; i < n * n; i++)
+			givens[i % n][i / n] = Character.digit(puzzle.charAt(i), n + 1) - 1;
+		return givens;
+	}
+
+	/**
+	 * Creates the givens of a solvable Sudoku by shuffling the digits, the rows inside
+	 * each band and the columns inside each stack of a valid solution and keeping
+	 * random positions of it.
+	 * @param  size  the size of a block
+	 * @param  ratio the probability of a position to be given
+	 * @param  rand  random generator
+	 * @return       index of the tile at each position or -1 if it isn't given
+	 */
+	static int[][] givens(int size, double ratio, Random rand){
+		int n = size * size;
+		int[] digits = shuffled(n, rand);
+		int[] rows = new int[n], columns = new int[n];
+		for(int band = 0; band < size; band++){
+			int[] r = shuffled(size, rand), c = shuffled(size, rand);
+			for(int i = 0; i < size; i++){
+				rows[band * size + i] = band * size + r[i];
+				columns[band * size + i] = band * size + c[i];
+			}
+		}
+		int[][] givens = new int[n][n];
+		for(int x = 0; x < n; x++){
+			for(int y = 0; y < n; y++){
+				int row = rows[y], column = columns[x];
+				givens[x][y] = rand.nextDouble() < ratio ? digits[(size * (row % size) + row / size + column) % n] : -1;
+			}
+		}
+		return givens;
+	}
+
+	/**
+	 * Creates a random permutation.
+	 * @param  n    count of elements
+	 * @param  rand random generator
+	 * @return      the numbers from 0 to n - 1 in random order
+	 */
+	private static int[] shuffled(int n, Random rand){
+		int[] p = new int[n];
+		for(int i = 0; i < n; i++){
+			int j = rand.nextInt(i + 1);
+			p[i] = p[j];
+			p[j] = i;
+		}
+		return p;
+	}
+
+	/**
+	 * Tests if a solved Sudoku keeps its givens and has every tile once in each row, column and block.
+	 * @param  size   the size of a block
+	 * @param  grid   the solved Sudoku
+	 * @param  givens the givens of the Sudoku
+	 * @return        true if the solution is valid
+	 */
+	static boolean valid(int size, Gridstate grid, int[][] givens){
+		int n = size * size;
+		boolean[][][] seen = new boolean[3][n][n];
+		for(int x = 0; x < n; x++){
+			for(int y = 0; y < n; y++){
+				int cell = grid.getCell(x, y);
+				if(!grid.isCollapsed(cell))
+					return false;
+				int tile = grid.getPossibleTile(cell, 0);
+				int block = x / size + y / size * size;
+				if(givens[x][y] >= 0 && givens[x][y] != tile || seen[0][y][tile] || seen[1][x][tile] || seen[2][block][tile])
+					return false;
+				seen[0][y][tile] = seen[1][x][tile] = seen[2][block][tile] = true;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Selects positions like the MinimumEntropySelector, which is used for the Sudokus
+	 * by default, and cancels the search after a count of choices.
+	 */
+	static class LimitedSelector implements CellSelector {
+		private final CellSelector selector = new MinimumEntropySelector();
+		private final WFC_Handler handler;
+		private int choicesLeft;
+
+		LimitedSelector(WFC_Handler handler, int choices){
+			this.handler = handler;
+			choicesLeft = choices;
+		}
+
+		public void init(Gridstate grid, Random rand){
+			selector.init(grid, rand);
+		}
+
+		public void domainChanged(Gridstate grid, int cell, int word, long before, long after){
+			selector.domainChanged(grid, cell, word, before, after);
+		}
+
+		public int selectCell(Random rand){
+			if(--choicesLeft == 0)
+				handler.cancel();
+			return selector.selectCell(rand);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package math.testing;
+import math.wfc.*;
+import java.util.Random;
+
+/**
+ * Compares the trail mode going back to the last choice with the trail mode jumping
+ * back to the culprit of a contradiction and learning nogoods, for a few capacities of
+ * the nogood store. Sudokus built from FixedAmountRules are used, on the 16x16 Sudokus
+ * with few givens some seeds need a lot of backtracks without learning. Prints the
+ * decisions, backtracks, skipped levels and time per solve and checks every solution.
+ * A search that needs more than DECISION_LIMIT random choices is cancelled and counted
+ * as unsolved.
+ */
+public class BackjumpBenchmark {
+	private final static int[] CAPACITIES = {0, 100, 10000};
+	private final static int SEEDS = 5;
+	private final static int PUZZLES_16 = 5;
+	private final static double GIVEN_RATIO_16 = 0.4;
+	private final static int DECISION_LIMIT = 100000;
+	private final static int WARMUP = 2;
+	private final static int RUNS = 2;
+
+	/**
+	 * Runs the benchmark.
+	 * @param args arguments (the first one can be used as the seed of the 16x16 Sudokus)
+	 */
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 37;
+		int[][][] hard = new int[BacktrackingBenchmark.HARD_PUZZLES.length][][];
+		for(int p = 0; p < hard.length; p++)
+			hard[p] = AllDifferentBenchmark.givens(3, BacktrackingBenchmark.HARD_PUZZLES[p]);
+		int[][][] large = new int[PUZZLES_16][][];
+		Random rand = new Random(seed);
+		for(int p = 0; p < large.length; p++)
+			large[p] = AllDifferentBenchmark.givens(4, GIVEN_RATIO_16, rand);
+
+		run("9x9 hard", 3, hard);
+		run("16x16", 4, large);
+	}
+
+	/**
+	 * Solves every Sudoku with every seed and every capacity and prints the results.
+	 * @param name    name of the Sudokus
+	 * @param size    the size of a block
+	 * @param puzzles the givens of the Sudokus
+	 */
+	private static void run(String name, int size, int[][][] puzzles){
+		Tile[] tileset = PropagationBenchmark.sudokuTileset(size);
+		for(int capacity:CAPACITIES){
+			long decisions = 0, backtracks = 0, maxBacktracks = 0, skipped = 0, nogoods = 0, time = 0;
+			int unsolved = 0;
+			//the first run counts, the others are timed without metrics
+			for(int run = 0; run < WARMUP + RUNS; run++){
+				long start = System.nanoTime();
+				for(int[][] puzzle:puzzles){
+					for(int seed = 0; seed < SEEDS; seed++){
+						SolverMetrics metrics = run == 0 ? new SolverMetrics() : null;
+						if(!solve(size, tileset, puzzle, seed, capacity, metrics) && run == 0)
+							unsolved++;
+						if(metrics != null){
+							decisions += metrics.getDecisions();
+							backtracks += metrics.getBacktracks();
+							maxBacktracks = Math.max(maxBacktracks, metrics.getBacktracks());
+							skipped += metrics.getSkippedLevels();
+							nogoods += metrics.getLearnedNogoods();
+						}
+					}
+				}
+				if(run >= WARMUP)
+					time += System.nanoTime() - start;
+			}
+			int solves = puzzles.length * SEEDS;
+			System.out.printf("%s capacity %d: %.1f decisions, %.1f backtracks (at most %d), %.1f skipped levels,"
+				+ " %.1f nogoods, %d unsolved, %.3f ms per solve%n",
+				name, capacity, (double) decisions / solves, (double) backtracks / solves, maxBacktracks,
+				(double) skipped / solves, (double) nogoods / solves, unsolved, time / 1e6 / RUNS / solves);
+		}
+	}
+
+	/**
+	 * Solves a Sudoku and checks the solution.
+	 * @param  size     the size of a block
+	 * @param  tileset  the tileset of the Sudoku
+	 * @param  givens   the givens of the Sudoku
+	 * @param  seed     seed of the random choices
+	 * @param  capacity capacity of the nogood store, 0 to search without learning
+	 * @param  metrics  metrics to add the run to or null
+	 * @return          false if the search was cancelled after DECISION_LIMIT choices
+	 */
+	private static boolean solve(int size, Tile[] tileset, int[][] givens, long seed, int capacity, SolverMetrics metrics){
+		Gridstate grid = PropagationBenchmark.puzzle(size, tileset, givens);
+		WFC_Handler solver = new WFC_Handler(grid, seed);
+		solver.setMetrics(metrics);
+		solver.setNogoodCapacity(capacity);
+		solver.setCellSelector(new AllDifferentBenchmark.LimitedSelector(solver, DECISION_LIMIT));
+		if(solver.wfc()){
+			if(!AllDifferentBenchmark.valid(size, grid, givens))
+				throw new IllegalStateException("Sudoku wasn't solved correctly");
+			return true;
+		}
+		if(!solver.isCancelled())
+			throw new IllegalStateException("Sudoku couldn't be solved");
+		return false;
+	}
+}
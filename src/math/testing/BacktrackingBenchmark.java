@@ -0,0 +1,127 @@
+package math.testing;
+import math.wfc.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares backtracking with a history of cloned grids to backtracking with
+ * a trail on 9x9 Sudokus. Reports time, allocated memory and garbage collections.
+ * The hard Sudokus are only solved with the trail, the clone history doesn't
+ * finish them in a reasonable time. Every Sudoku is solved with the seeds 0 to
+ * SEEDS - 1, so the results can be repeated.
+ */
+public class BacktrackingBenchmark {
+	final static String[] PUZZLES = {
+		"53..7....6..195....98....6.8...6...34..8.3..17...2...6.6....28....419..5....8..79",
+		"..3.2.6..9..3.5..1..18.64....81.29..7.......8..67.82....26.95..8..2.3..9..5.1.3..",
+		"2...8.3...6..7..84.3.5..2.9...1.54.8.........4.27.6...3.1..7.4.72..4..6...4.1...3",
+	};
+	final static String[] HARD_PUZZLES = {
+		//"AI Escargot"
+		"1....7.9..3..2...8..96..5....53..9...1..8...26....4...3......1..4......7..7...3..",
+		//Arto Inkala 2012
+		"8..........36......7..9.2...5...7.......457.....1...3...1....68..85...1..9....4..",
+		"4.....8.5.3..........7......2.....6.....8.4......1.......6.3.7.5..2.....1.4......",
+		".....6....59.....82....8....45........3........6..3.54...325..6..................",
+		"..9748...7.........2.1.9.....7...24..64.1.59..98...3.....8.3.2.........6...2759..",
+	};
+	private final static int SEEDS = 5;
+	private final static int WARMUP = 3;
+	private final static int RUNS = 10;
+
+	/**
+	 * Runs the benchmark for both backtracking modes.
+	 * @param args arguments (not used)
+	 */
+	public static void main(String[] args){
+		Tile[] tileset = PropagationBenchmark.sudokuTileset(3);
+		for(WFC_Handler.Backtracking mode:WFC_Handler.Backtracking.values())
+			run(mode, tileset, PUZZLES, "puzzles");
+		run(WFC_Handler.Backtracking.TRAIL, tileset, HARD_PUZZLES, "hard puzzles");
+	}
+
+	/**
+	 * Solves a set of Sudokus several times and prints the averages.
+	 * @param mode    the backtracking mode to use
+	 * @param tileset the tileset of the Sudokus
+	 * @param puzzles the Sudokus to solve
+	 * @param name    name of the set of Sudokus
+	 */
+	private static void run(WFC_Handler.Backtracking mode, Tile[] tileset, String[] puzzles, String name){
+		long time = 0, allocated = 0, gcCount = 0, gcTime = 0;
+		for(int run = 0; run < WARMUP + RUNS; run++){
+			for(String puzzle:puzzles){
+				for(int seed = 0; seed < SEEDS; seed++){
+					WFC_Handler solver = new WFC_Handler(parse(3, tileset, puzzle), seed);
+					solver.setBacktracking(mode);
+					long gcCountBefore = gcCount(), gcTimeBefore = gcTime();
+					long allocatedBefore = allocatedBytes();
+					long start = System.nanoTime();
+					if(!solver.wfc())
+						throw new IllegalStateException("Sudoku couldn't be solved: " + puzzle);
+					if(run >= WARMUP){
+						time += System.nanoTime() - start;
+						allocated += allocatedBytes() - allocatedBefore;
+						gcCount += gcCount() - gcCountBefore;
+						gcTime += gcTime() - gcTimeBefore;
+					}
+				}
+			}
+		}
+		int solves = RUNS * SEEDS * puzzles.length;
+		System.out.printf("%s, %s: %.2f ms/solve, %.2f MB allocated/solve, %d collections (%d ms)%n", mode, name,
+			time / 1e6 / solves, allocated / 1e6 / solves, gcCount, gcTime);
+	}
+
+	/**
+	 * Creates a Sudoku from a String with one character per position, read row by row.
+	 * Digits 1-9 are givens, every other character is an empty position.
+	 * @param  size    the size of a block
+	 * @param  tileset the tileset of the Sudoku
+	 * @param  puzzle  the String representation of the Sudoku
+	 * @return         the Gridstate with the givens collapsed
+	 */
+	static Gridstate parse(int size, Tile[] tileset, String puzzle){
+		int n = size * size;
+		Gridstate g = new Gridstate(n, n, tileset);
+		for(int i = 0; i < n * n; i++){
+			int digit = Character.digit(puzzle.charAt(i), n + 1);
+			if(digit >= 1)
+				g.getPosition(i % n, i / n).collapseTo(digit - 1);
+		}
+		return g;
+	}
+
+	/**
+	 * Gets the bytes allocated by the current thread if the JVM supports measuring it.
+	 * @return allocated bytes or 0
+	 */
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+
+	/**
+	 * Gets the total count of garbage collections.
+	 * @return count of collections
+	 */
+	private static long gcCount(){
+		long count = 0;
+		for(GarbageCollectorMXBean gc:ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	/**
+	 * Gets the total time spent in garbage collections.
+	 * @return time in milliseconds
+	 */
+	private static long gcTime(){
+		long time = 0;
+		for(GarbageCollectorMXBean gc:ManagementFactory.getGarbageCollectorMXBeans())
+			time += Math.max(0, gc.getCollectionTime());
+		return time;
+	}
+}
@@ -0,0 +1,86 @@
+package math.testing;
+import math.wfc.*;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Compares generating many small grids with a new WFC_Handler and Gridstate for
+ * every grid to the BatchGenerator reusing them, for small terrain maps and
+ * empty Sudokus. Checks that every seed gives the same grid in both cases and
+ * with any count of threads.
+ */
+public class BatchBenchmark {
+	private final static int GRIDS = 2000;
+	private final static int WARMUP = 2;
+	private final static int RUNS = 5;
+
+	/**
+	 * Runs the benchmark.
+	 * @param args arguments (the first one can be used as the seed)
+	 * @throws InterruptedException if waiting for the generator is interrupted
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 37;
+		run("16x16 terrain", 16, 16, Terrain.tileset(), seed);
+		run("9x9 sudoku", 9, 9, PropagationBenchmark.sudokuTileset(3), seed);
+	}
+
+	/**
+	 * Generates the grids in every way and prints the throughput.
+	 * @param name    name of the grids
+	 * @param w       width of the grids
+	 * @param h       height of the grids
+	 * @param tileset tileset of the grids
+	 * @param seed    seed of the first grid
+	 * @throws InterruptedException if waiting for the generator is interrupted
+	 */
+	private static void run(String name, int w, int h, Tile[] tileset, long seed) throws InterruptedException {
+		int[][] expected = new int[GRIDS][];
+		long time = 0;
+		for(int run = 0; run < WARMUP + RUNS; run++){
+			long start = System.nanoTime();
+			for(int i = 0; i < GRIDS; i++)
+				expected[i] = single(w, h, tileset, seed + i);
+			if(run >= WARMUP)
+				time += System.nanoTime() - start;
+		}
+		System.out.printf("%s: new handler per grid %.0f grids/s%n", name, GRIDS * 1e9 * RUNS / time);
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		for(int threads:IntStream.of(1, processors, 4 * processors).distinct().toArray()){
+			try(BatchGenerator batch = new BatchGenerator(w, h, tileset, threads)) {
+				double throughput = 0;
+				for(int run = 0; run < WARMUP + RUNS; run++){
+					int[][] result = batch.generate(seed, GRIDS);
+					for(int i = 0; i < GRIDS; i++)
+						if(!Arrays.equals(result[i], expected[i]))
+							throw new IllegalStateException(name + " differs for seed " + (seed + i));
+					if(run >= WARMUP)
+						throughput += batch.getThroughput() / RUNS;
+				}
+				System.out.printf("%s: batch with %d threads %.0f grids/s, %d failed%n", name, threads, throughput,
+					batch.getFailures());
+			}
+		}
+	}
+
+	/**
+	 * Generates a single grid without reusing anything. The grid is propagated before
+	 * the handler starts like the grids of the BatchGenerator, so both choose the same.
+	 * @param  w       width of the grid
+	 * @param  h       height of the grid
+	 * @param  tileset tileset of the grid
+	 * @param  seed    seed of the grid
+	 * @return         ids of the tiles or null if the grid couldn't be filled
+	 */
+	private static int[] single(int w, int h, Tile[] tileset, long seed){
+		Gridstate grid = new Gridstate(w, h, tileset);
+		grid.collapse();
+		if(!new WFC_Handler(grid, seed).wfc())
+			return null;
+		int[] result = new int[w * h];
+		for(int cell = 0; cell < result.length; cell++)
+			result[cell] = grid.getTileset().get(grid.getPossibleTile(cell, 0)).getId();
+		return result;
+	}
+}
@@ -0,0 +1,132 @@
+package math.testing;
+import math.wfc.*;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Checks that a search stopped in the middle and continued from its last snapshot
+ * ends with the same grid as a search that ran through. The searches write a snapshot
+ * every few choices and are stopped after a growing count of choices, then a new
+ * handler reads the snapshot from the file like after a restart and finishes the grid.
+ */
+public class Checkpointing {
+	private final static int INTERVAL = 5;
+	private final static int[] STOP_AFTER = {1, 4, 12, 40, 100};
+	private final static int TERRAIN_SIZE = 64;
+
+	/**
+	 * Runs the checks on a hard Sudoku and a terrain.
+	 * @param args arguments (the first one can be used as the seed)
+	 * @throws IOException if the snapshot can't be written or read
+	 */
+	public static void main(String[] args) throws IOException {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 37;
+		Tile[] sudoku = PropagationBenchmark.sudokuTileset(3);
+		Tile[] terrain = Terrain.tileset();
+		Path file = Files.createTempFile("wfc", ".snapshot");
+		try {
+			check("sudoku", () -> BacktrackingBenchmark.parse(3, sudoku, BacktrackingBenchmark.HARD_PUZZLES[0]),
+				MinimumEntropySelector::new, seed, file);
+			check("terrain", () -> new Gridstate(TERRAIN_SIZE, TERRAIN_SIZE, terrain),
+				WeightedEntropySelector::new, seed, file);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Stops and continues the search of a grid after every count of STOP_AFTER.
+	 * @param name      name of the grid
+	 * @param grids     creates the grid
+	 * @param selectors creates the selector the handler uses by default for the grid
+	 * @param seed      seed of the searches
+	 * @param file      file for the snapshots
+	 * @throws IOException if the snapshot can't be written or read
+	 */
+	private static void check(String name, Supplier<Gridstate> grids, Supplier<CellSelector> selectors,
+			long seed, Path file) throws IOException {
+		Gridstate expected = grids.get();
+		WFC_Handler full = new WFC_Handler(expected, seed);
+		full.setCheckpoint(file, INTERVAL);
+		if(!full.wfc())
+			throw new IllegalStateException(name + " couldn't be generated");
+
+		for(int stop:STOP_AFTER){
+			Files.delete(file);
+			WFC_Handler stopped = new WFC_Handler(grids.get(), seed);
+			stopped.setCheckpoint(file, INTERVAL);
+			stopped.setCellSelector(new StoppingSelector(selectors.get(), stopped, stop));
+			if(stopped.wfc()){
+				System.out.printf("%s: finished before %d choices%n", name, stop);
+				continue;
+			}
+
+			Gridstate grid = grids.get();
+			WFC_Handler resumed = new WFC_Handler(grid, seed);
+			long size = Files.size(file);
+			long start = System.nanoTime();
+			try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				resumed.readSnapshot(channel);
+			}
+			long readTime = System.nanoTime() - start;
+			resumed.setCheckpoint(file, INTERVAL);
+			if(!resumed.wfc() || !sameDomains(expected, grid))
+				throw new IllegalStateException(name + " continued after " + stop + " choices differs");
+			System.out.printf("%s: stopped after %d choices, continued from a %d byte snapshot read in %.2f ms: same grid%n",
+				name, stop, size, readTime / 1e6);
+		}
+	}
+
+	/**
+	 * Tests if two grids have the same possibilities at every position.
+	 * @param  a the first grid
+	 * @param  b the second grid
+	 * @return   true if they are the same
+	 */
+	private static boolean sameDomains(Gridstate a, Gridstate b){
+		long[] domainA = new long[a.getWords()], domainB = new long[b.getWords()];
+		for(int cell = 0; cell < a.getWidth() * a.getHeight(); cell++){
+			a.getDomain(cell, domainA);
+			b.getDomain(cell, domainB);
+			if(!Arrays.equals(domainA, domainB))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A CellSelector that stops the search after a count of choices, like a server
+	 * that is shut down in the middle of a generation.
+	 */
+	private static class StoppingSelector implements CellSelector {
+		private final CellSelector selector;
+		private final WFC_Handler handler;
+		private int choicesLeft;
+
+		StoppingSelector(CellSelector selector, WFC_Handler handler, int choices){
+			this.selector = selector;
+			this.handler = handler;
+			choicesLeft = choices;
+		}
+
+		public void init(Gridstate grid, Random rand){
+			selector.init(grid, rand);
+		}
+
+		public void domainChanged(Gridstate grid, int cell, int word, long before, long after){
+			selector.domainChanged(grid, cell, word, before, after);
+		}
+
+		public int selectCell(Random rand){
+			if(--choicesLeft == 0)
+				handler.cancel();
+			return selector.selectCell(rand);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package math.testing;
+import math.wfc.*;
+
+/**
+ * Solves the hard Sudokus with different seeds and prints the metrics of every
+ * run, which shows why some seeds take much longer than others. Afterwards the
+ * time of all runs with and without metrics is compared to show what counting costs.
+ * Running it with -XX:StartFlightRecording also writes a math.wfc.Solve event per run.
+ */
+public class MetricsReport {
+	private final static int SEEDS = 5;
+	private final static int WARMUP = 3;
+	private final static int RUNS = 10;
+
+	/**
+	 * Runs the report.
+	 * @param args arguments (not used)
+	 */
+	public static void main(String[] args){
+		Tile[] tileset = PropagationBenchmark.sudokuTileset(3);
+		SolverMetrics total = new SolverMetrics();
+		for(int p = 0; p < BacktrackingBenchmark.HARD_PUZZLES.length; p++){
+			for(int seed = 0; seed < SEEDS; seed++){
+				SolverMetrics metrics = new SolverMetrics();
+				solve(tileset, BacktrackingBenchmark.HARD_PUZZLES[p], seed, metrics);
+				solve(tileset, BacktrackingBenchmark.HARD_PUZZLES[p], seed, total);
+				System.out.printf("puzzle %d seed %d: %s%n", p, seed, metrics);
+			}
+		}
+		System.out.println("total: " + total);
+
+		long[] time = new long[2];
+		for(int run = 0; run < WARMUP + RUNS; run++){
+			for(int m = 0; m < 2; m++){
+				SolverMetrics metrics = m == 0 ? null : new SolverMetrics();
+				long start = System.nanoTime();
+				for(String puzzle:BacktrackingBenchmark.HARD_PUZZLES)
+					for(int seed = 0; seed < SEEDS; seed++)
+						solve(tileset, puzzle, seed, metrics);
+				if(run >= WARMUP)
+					time[m] += System.nanoTime() - start;
+			}
+		}
+		System.out.printf("without metrics %.2f ms, with metrics %.2f ms%n", time[0] / 1e6 / RUNS, time[1] / 1e6 / RUNS);
+	}
+
+	/**
+	 * Solves a Sudoku.
+	 * @param tileset the tileset of the Sudoku
+	 * @param puzzle  the Sudoku
+	 * @param seed    seed of the random choices
+	 * @param metrics metrics to add the run to or null
+	 */
+	private static void solve(Tile[] tileset, String puzzle, long seed, SolverMetrics metrics){
+		WFC_Handler solver = new WFC_Handler(BacktrackingBenchmark.parse(3, tileset, puzzle));
+		solver.setSeed(seed);
+		solver.setMetrics(metrics);
+		if(!solver.wfc())
+			throw new IllegalStateException("Sudoku couldn't be solved: " + puzzle);
+	}
+}
@@ -0,0 +1,88 @@
+package math.testing;
+import math.wfc.*;
+import java.util.Random;
+
+/**
+ * Measures the pattern extraction of the OverlappingModel on a 256x256 sample with 3x3
+ * patterns and all 8 rotations and reflections, then generates a small map from a
+ * sample of walls and rooms and prints it.
+ */
+public class OverlappingBenchmark {
+	private final static int SAMPLE_SIZE = 256;
+	private final static int COLORS = 5;
+	private final static int WARMUP = 3;
+	private final static int RUNS = 10;
+
+	/**
+	 * Runs the benchmark.
+	 * @param args arguments (the first one can be used as the seed)
+	 */
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 37;
+		int[] sample = noise(SAMPLE_SIZE, new Random(seed));
+
+		long time = 0;
+		OverlappingModel model = null;
+		for(int run = 0; run < WARMUP + RUNS; run++){
+			long start = System.nanoTime();
+			model = new OverlappingModel(sample, SAMPLE_SIZE, SAMPLE_SIZE, 3, 8, false);
+			if(run >= WARMUP)
+				time += System.nanoTime() - start;
+		}
+		System.out.printf("%dx%d sample, N=3, 8 variants: %d patterns in %.1f ms%n", SAMPLE_SIZE, SAMPLE_SIZE,
+			model.getPatternCount(), time / 1e6 / RUNS);
+
+		//walls (#) around rooms (.) with doors in the middle of every wall
+		String[] rooms = {
+			"#######",
+			"#.....#",
+			"#.....#",
+			"#......",
+			"#.....#",
+			"#.....#",
+			"###.###",
+		};
+		int[] pixels = new int[49];
+		for(int i = 0; i < 49; i++)
+			pixels[i] = rooms[i / 7].charAt(i % 7) == '#' ? 0xFF000000 : 0xFFFFFFFF;
+		OverlappingModel roomModel = new OverlappingModel(pixels, 7, 7, 3, 8, true);
+		WFC_Handler generator = new WFC_Handler(48, 24, roomModel.getTiles());
+		generator.setSeed(seed);
+		if(!generator.wfc())
+			throw new IllegalStateException("Rooms couldn't be generated");
+		Tile[][] grid = generator.getGrid();
+		System.out.println(roomModel.getPatternCount() + " room patterns:");
+		for(int y = 0; y < grid[0].length; y++){
+			StringBuilder line = new StringBuilder();
+			for(int x = 0; x < grid.length; x++)
+				line.append(roomModel.getColor(grid[x][y].getId()) == 0xFF000000 ? '#' : '.');
+			System.out.println(line);
+		}
+	}
+
+	/**
+	 * Creates a sample of smooth noise with a few colors.
+	 * @param  size width and height of the sample
+	 * @param  rand random generator
+	 * @return      the ARGB colors of the sample
+	 */
+	private static int[] noise(int size, Random rand){
+		int cells = size / 16 + 2;
+		double[] values = new double[cells * cells];
+		for(int i = 0; i < values.length; i++)
+			values[i] = rand.nextDouble();
+		int[] pixels = new int[size * size];
+		for(int y = 0; y < size; y++){
+			for(int x = 0; x < size; x++){
+				//bilinear interpolation of a coarse random grid
+				double fx = x / 16.0, fy = y / 16.0;
+				int ix = (int) fx, iy = (int) fy;
+				double tx = fx - ix, ty = fy - iy;
+				double v = values[ix + iy * cells] * (1 - tx) * (1 - ty) + values[ix + 1 + iy * cells] * tx * (1 - ty)
+					+ values[ix + (iy + 1) * cells] * (1 - tx) * ty + values[ix + 1 + (iy + 1) * cells] * tx * ty;
+				pixels[x + y * size] = 0xFF000000 | (int) (v * COLORS) * 0x333333;
+			}
+		}
+		return pixels;
+	}
+}
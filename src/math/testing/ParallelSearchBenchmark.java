@@ -0,0 +1,97 @@
+package math.testing;
+import math.wfc.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how the exhaustive ParallelSearch scales with the count of threads. It counts
+ * all solutions of a hard Sudoku with some givens removed and proves that the Sudoku has
+ * no solution after adding a given that contradicts its only solution. Before that it checks
+ * that the hard Sudoku has exactly one solution that keeps its givens.
+ */
+public class ParallelSearchBenchmark {
+	private final static int REMOVED_GIVENS = 3;
+	private final static int WARMUP = 2;
+	private final static int RUNS = 5;
+
+	/**
+	 * Runs the benchmark with 1 thread and with one thread per processor.
+	 * @param args arguments (the first one can be used as the count of threads)
+	 */
+	public static void main(String[] args){
+		int parallel = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		Tile[] tileset = PropagationBenchmark.sudokuTileset(3);
+		String puzzle = BacktrackingBenchmark.HARD_PUZZLES[0];
+
+		StringBuilder open = new StringBuilder(puzzle);
+		for(int i = 0, removed = 0; removed < REMOVED_GIVENS; i++){
+			if(open.charAt(i) != '.'){
+				open.setCharAt(i, '.');
+				removed++;
+			}
+		}
+
+		//the hard Sudoku has a single solution, any other digit at an empty position makes it
+		//unsolvable, the one taking the longest to prove is used
+		ParallelSearch search = new ParallelSearch(BacktrackingBenchmark.parse(3, tileset, puzzle));
+		long count = search.countSolutions();
+		Gridstate solution = search.getSolution();
+		if(count != 1 || !AllDifferentBenchmark.valid(3, solution, AllDifferentBenchmark.givens(3, puzzle)))
+			throw new IllegalStateException("The hard Sudoku has " + count + " solutions instead of its single one");
+		String unsolvable = null;
+		long longest = -1;
+		ForkJoinPool single = new ForkJoinPool(1);
+		for(int i = 0; i < 81; i++){
+			if(puzzle.charAt(i) != '.')
+				continue;
+			for(int digit = 1; digit <= 9; digit++){
+				if(solution.getPosition(i % 9, i / 9).getTile().getId() == digit)
+					continue;
+				StringBuilder s = new StringBuilder(puzzle);
+				s.setCharAt(i, Character.forDigit(digit, 10));
+				search = new ParallelSearch(BacktrackingBenchmark.parse(3, tileset, s.toString()));
+				search.setPool(single);
+				long start = System.nanoTime();
+				search.countSolutions();
+				if(System.nanoTime() - start > longest){
+					longest = System.nanoTime() - start;
+					unsolvable = s.toString();
+				}
+			}
+		}
+		single.shutdown();
+
+		int[] threads = parallel > 1 ? new int[] {1, parallel} : new int[] {1};
+		for(int n:threads){
+			ForkJoinPool pool = new ForkJoinPool(n);
+			run("count " + REMOVED_GIVENS + " removed givens", pool, n, BacktrackingBenchmark.parse(3, tileset, open.toString()));
+			run("prove unsolvable", pool, n, BacktrackingBenchmark.parse(3, tileset, unsolvable));
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Counts the solutions of a grid several times and prints the average time.
+	 * @param name    name of the measurement
+	 * @param pool    the pool to search with
+	 * @param threads count of threads of the pool
+	 * @param grid    the grid to count the solutions of
+	 */
+	private static void run(String name, ForkJoinPool pool, int threads, Gridstate grid){
+		long time = 0, tasks = 0, count = -1;
+		for(int run = 0; run < WARMUP + RUNS; run++){
+			ParallelSearch search = new ParallelSearch(grid);
+			search.setPool(pool);
+			long start = System.nanoTime();
+			long solutions = search.countSolutions();
+			if(count >= 0 && solutions != count)
+				throw new IllegalStateException("Counts of solutions differ: " + count + ", " + solutions);
+			count = solutions;
+			if(run >= WARMUP){
+				time += System.nanoTime() - start;
+				tasks += search.getTaskCount();
+			}
+		}
+		System.out.printf("%s, %d threads: %d solutions, %.1f ms, %d tasks%n", name, threads, count,
+			time / 1e6 / RUNS, tasks / RUNS);
+	}
+}
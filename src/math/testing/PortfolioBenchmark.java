@@ -0,0 +1,66 @@
+package math.testing;
+import math.wfc.*;
+import java.util.Arrays;
+
+/**
+ * Compares the wall-clock time of single searches on the hard Sudokus with a
+ * PortfolioSolver racing one search per processor. Reports mean, median and
+ * 99th percentile over many seeds.
+ */
+public class PortfolioBenchmark {
+	private final static int WARMUP = 20;
+	private final static int RUNS = 200;
+
+	/**
+	 * Runs the benchmark.
+	 * @param args arguments (the first one can be used as the count of parallel runs)
+	 * @throws InterruptedException if the benchmark is interrupted
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int parallel = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		Tile[] tileset = PropagationBenchmark.sudokuTileset(3);
+		String[] puzzles = BacktrackingBenchmark.HARD_PUZZLES;
+
+		long[] single = new long[RUNS];
+		long[] portfolio = new long[RUNS];
+		for(int run = 0; run < WARMUP + RUNS; run++){
+			Gridstate puzzle = BacktrackingBenchmark.parse(3, tileset, puzzles[run % puzzles.length]);
+
+			WFC_Handler handler = new WFC_Handler((Gridstate) puzzle.clone());
+			handler.setSeed(run);
+			long start = System.nanoTime();
+			if(!handler.wfc())
+				throw new IllegalStateException("Sudoku couldn't be solved");
+			long singleTime = System.nanoTime() - start;
+
+			PortfolioSolver solver = new PortfolioSolver(puzzle);
+			solver.setRuns(parallel);
+			start = System.nanoTime();
+			if(!solver.solve((long) run * parallel))
+				throw new IllegalStateException("Sudoku couldn't be solved");
+			long portfolioTime = System.nanoTime() - start;
+
+			if(run >= WARMUP){
+				single[run - WARMUP] = singleTime;
+				portfolio[run - WARMUP] = portfolioTime;
+			}
+		}
+		print("single search", single);
+		print(parallel + " parallel searches", portfolio);
+	}
+
+	/**
+	 * Prints mean, median and 99th percentile of a set of times.
+	 * @param name  name of the measurement
+	 * @param times times in nanoseconds
+	 */
+	private static void print(String name, long[] times){
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		long total = 0;
+		for(long t:sorted)
+			total += t;
+		System.out.printf("%s: mean %.2f ms, p50 %.2f ms, p99 %.2f ms%n", name, total / 1e6 / sorted.length,
+			sorted[sorted.length / 2] / 1e6, sorted[(int) Math.ceil(sorted.length * 0.99) - 1] / 1e6);
+	}
+}
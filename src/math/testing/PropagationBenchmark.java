@@ -0,0 +1,149 @@
+package math.testing;
+import math.wfc.*;
+import math.wfc.rules.*;
+import java.util.Random;
+
+/**
+ * Compares the full grid sweep (Gridstate.collapseSweep()) with the worklist
+ * propagation (Gridstate.collapse()) on partially filled Sudokus. Both the
+ * initial propagation of the givens and the propagation after a single
+ * random choice are measured.
+ */
+public class PropagationBenchmark {
+	private final static int[] SIZES = {3, 4, 5};
+	private final static double GIVEN_RATIO = 0.4;
+	private final static int WARMUP = 5;
+	private final static int RUNS = 20;
+
+	/**
+	 * Runs the benchmark for 9x9, 16x16 and 25x25 Sudokus.
+	 * @param args arguments (the first one can be used as the seed)
+	 */
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 37;
+		for(int size:SIZES){
+			Tile[] tileset = sudokuTileset(size);
+			int[][] givens = givens(size, new Random(seed));
+
+			long sweepTime = 0, worklistTime = 0;
+			long sweepStepTime = 0, worklistStepTime = 0;
+			for(int run = 0; run < WARMUP + RUNS; run++){
+				Gridstate sweep = puzzle(size, tileset, givens);
+				long start = System.nanoTime();
+				boolean sweepFailed = sweep.collapseSweep();
+				long sweepEnd = System.nanoTime();
+
+				Gridstate worklist = puzzle(size, tileset, givens);
+				long worklistStart = System.nanoTime();
+				boolean worklistFailed = worklist.collapse();
+				long end = System.nanoTime();
+
+				if(!sameResult(sweep, sweepFailed, worklist, worklistFailed, tileset))
+					throw new IllegalStateException("Propagation results differ for size " + size);
+
+				//same seed on identical grids leads to the same choice
+				sweep = sweep.makeRandomChoice(new Random(seed + run));
+				worklist = worklist.makeRandomChoice(new Random(seed + run));
+				long stepStart = System.nanoTime();
+				sweepFailed = sweep.collapseSweep();
+				long stepMiddle = System.nanoTime();
+				worklistFailed = worklist.collapse();
+				long stepEnd = System.nanoTime();
+
+				if(!sameResult(sweep, sweepFailed, worklist, worklistFailed, tileset))
+					throw new IllegalStateException("Propagation results differ for size " + size);
+				if(run >= WARMUP){
+					sweepTime += sweepEnd - start;
+					worklistTime += end - worklistStart;
+					sweepStepTime += stepMiddle - stepStart;
+					worklistStepTime += stepEnd - stepMiddle;
+				}
+			}
+			int n = size * size;
+			System.out.printf("%dx%d initial: sweep %.3f ms, worklist %.3f ms (%.1fx)%n", n, n,
+				sweepTime / 1e6 / RUNS, worklistTime / 1e6 / RUNS, (double) sweepTime / worklistTime);
+			System.out.printf("%dx%d choice:  sweep %.3f ms, worklist %.3f ms (%.1fx)%n", n, n,
+				sweepStepTime / 1e6 / RUNS, worklistStepTime / 1e6 / RUNS, (double) sweepStepTime / worklistStepTime);
+		}
+	}
+
+	/**
+	 * Creates the tileset of a Sudoku with blocks of size x size.
+	 * @param  size the size of a block
+	 * @return      the tileset
+	 */
+	static Tile[] sudokuTileset(int size){
+		Rule[] rules = new Rule[3];
+		rules[0] = new FixedAmountPerRow(1);
+		rules[1] = new FixedAmountPerColumn(1);
+		rules[2] = new FixedAmountPerBlock(1, size, size);
+		Tile[] tileset = new Tile[size * size];
+		for(int i = 0; i < size * size; i++)
+			tileset[i] = new Tile(i+1, rules);
+		return tileset;
+	}
+
+	/**
+	 * Creates the givens of a solvable Sudoku by removing random positions of a valid solution.
+	 * @param  size the size of a block
+	 * @param  rand random generator choosing the given positions
+	 * @return      index of the tile at each position or -1 if it isn't given
+	 */
+	static int[][] givens(int size, Random rand){
+		int n = size * size;
+		int[][] givens = new int[n][n];
+		for(int x = 0; x < n; x++)
+			for(int y = 0; y < n; y++)
+				givens[x][y] = rand.nextDouble() < GIVEN_RATIO ? (size * (y % size) + y / size + x) % n : -1;
+		return givens;
+	}
+
+	/**
+	 * Creates a Gridstate with the givens collapsed.
+	 * @param  size    the size of a block
+	 * @param  tileset the tileset of the Sudoku
+	 * @param  givens  the givens
+	 * @return         the Gridstate
+	 */
+	static Gridstate puzzle(int size, Tile[] tileset, int[][] givens){
+		int n = size * size;
+		Gridstate g = new Gridstate(n, n, tileset);
+		for(int x = 0; x < n; x++)
+			for(int y = 0; y < n; y++)
+				if(givens[x][y] >= 0)
+					g.getPosition(x, y).collapseTo(givens[x][y]);
+		return g;
+	}
+
+	/**
+	 * Tests if two propagations came to the same result. If both found a contradiction
+	 * the rest of the grid isn't compared, since it depends on where it was found.
+	 * @param  a       the first Gridstate
+	 * @param  aFailed whether the first propagation found a contradiction
+	 * @param  b       the second Gridstate
+	 * @param  bFailed whether the second propagation found a contradiction
+	 * @param  tileset the tileset of both Gridstates
+	 * @return         true if the results are the same
+	 */
+	static boolean sameResult(Gridstate a, boolean aFailed, Gridstate b, boolean bFailed, Tile[] tileset){
+		if(aFailed || bFailed)
+			return aFailed == bFailed;
+		return sameState(a, b, tileset);
+	}
+
+	/**
+	 * Tests if two Gridstates have the same possibilities left at every position.
+	 * @param  a       the first Gridstate
+	 * @param  b       the second Gridstate
+	 * @param  tileset the tileset of both Gridstates
+	 * @return         true if they are the same
+	 */
+	static boolean sameState(Gridstate a, Gridstate b, Tile[] tileset){
+		for(int x = 0; x < a.getWidth(); x++)
+			for(int y = 0; y < a.getHeight(); y++)
+				for(Tile t:tileset)
+					if(a.getPosition(x, y).tilePossible(t) != b.getPosition(x, y).tilePossible(t))
+						return false;
+		return true;
+	}
+}
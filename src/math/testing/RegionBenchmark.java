@@ -0,0 +1,50 @@
+package math.testing;
+import math.wfc.*;
+
+/**
+ * Measures how the generation of a large terrain with a RegionGenerator scales with the
+ * count of threads, compared to a single WFC_Handler on the whole grid.
+ */
+public class RegionBenchmark {
+	private final static int REGION_SIZE = 64;
+	private final static int RUNS = 3;
+
+	/**
+	 * Runs the benchmark.
+	 * @param args arguments (the first one can be used as the size of the grid,
+	 *             the second one as the highest count of threads)
+	 * @throws InterruptedException if the benchmark is interrupted
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		Tile[] tileset = Terrain.tileset();
+
+		long start = System.nanoTime();
+		WFC_Handler handler = new WFC_Handler(size, size, tileset);
+		if(!handler.wfc())
+			throw new IllegalStateException("Terrain couldn't be generated");
+		double single = (System.nanoTime() - start) / 1e6;
+		System.out.printf("%dx%d single WFC_Handler: %.0f ms%n", size, size, single);
+
+		for(int threads = 1; threads <= maxThreads; threads *= 2){
+			RegionGenerator generator = new RegionGenerator(size, size, tileset);
+			generator.setRegionSize(REGION_SIZE);
+			generator.setThreads(threads);
+			long time = 0, repairs = 0;
+			for(int run = 0; run <= RUNS; run++){
+				start = System.nanoTime();
+				int[] result = generator.generate(run);
+				//the first run is a warmup
+				if(run > 0){
+					time += System.nanoTime() - start;
+					repairs += generator.getRepairs();
+				}
+				if(!generator.isValid(result))
+					throw new IllegalStateException("Generated terrain breaks a rule");
+			}
+			System.out.printf("%dx%d regions, %d threads: %.0f ms (%.1fx), %.1f repairs%n", size, size, threads,
+				time / 1e6 / RUNS, single / (time / 1e6 / RUNS), (double) repairs / RUNS);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package math.testing;
+import math.wfc.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares searches without restarts to searches restarting on a Luby or geometric
+ * schedule, with and without learning nogoods, on 16x16 Sudokus built from
+ * FixedAmountRules with few givens. Most seeds solve them with a few backtracks, some
+ * go down a bad early choice and need thousands. Prints the mean, median, 99th
+ * percentile and largest time per solve and checks every solution. A search that needs
+ * more than DECISION_LIMIT random choices is cancelled and counted as unsolved.
+ */
+public class RestartBenchmark {
+	private final static int SEEDS = 20;
+	private final static int PUZZLES = 5;
+	private final static double GIVEN_RATIO = 0.4;
+	private final static int DECISION_LIMIT = 100000;
+	private final static int NOGOODS = 100;
+
+	private final static String[] NAMES = {"no restarts", "Luby 32", "geometric 100 x1.5",
+		"nogoods, no restarts", "nogoods, Luby 32", "nogoods, Luby 32, forgotten on restart"};
+	private final static RestartPolicy[] POLICIES = {null, RestartPolicy.luby(32), RestartPolicy.geometric(100, 1.5),
+		null, RestartPolicy.luby(32), new RestartPolicy(RestartPolicy.Schedule.LUBY, 32, 2, false)};
+	private final static int[] CAPACITIES = {0, 0, 0, NOGOODS, NOGOODS, NOGOODS};
+
+	/**
+	 * Runs the benchmark.
+	 * @param args arguments (the first one can be used as the seed of the Sudokus)
+	 */
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 37;
+		int[][][] puzzles = new int[PUZZLES][][];
+		Random rand = new Random(seed);
+		for(int p = 0; p < puzzles.length; p++)
+			puzzles[p] = AllDifferentBenchmark.givens(4, GIVEN_RATIO, rand);
+		Tile[] tileset = PropagationBenchmark.sudokuTileset(4);
+
+		//warmup
+		for(int c = 0; c < NAMES.length; c++)
+			for(int[][] puzzle:puzzles)
+				solve(tileset, puzzle, 0, POLICIES[c], CAPACITIES[c], null);
+
+		for(int c = 0; c < NAMES.length; c++){
+			SolverMetrics metrics = new SolverMetrics();
+			double[] times = new double[PUZZLES * SEEDS];
+			int unsolved = 0;
+			for(int p = 0; p < PUZZLES; p++){
+				for(int s = 0; s < SEEDS; s++){
+					long start = System.nanoTime();
+					if(!solve(tileset, puzzles[p], s, POLICIES[c], CAPACITIES[c], metrics))
+						unsolved++;
+					times[p * SEEDS + s] = (System.nanoTime() - start) / 1e6;
+				}
+			}
+			Arrays.sort(times);
+			double sum = 0;
+			for(double t:times)
+				sum += t;
+			System.out.printf("%s: %.1f backtracks, %.1f restarts, %d unsolved, ms per solve mean %.2f"
+				+ " median %.2f p99 %.2f max %.2f%n",
+				NAMES[c], (double) metrics.getBacktracks() / times.length, (double) metrics.getRestarts() / times.length,
+				unsolved, sum / times.length, times[times.length / 2], times[(int) Math.ceil(0.99 * times.length) - 1],
+				times[times.length - 1]);
+		}
+	}
+
+	/**
+	 * Solves a Sudoku and checks the solution.
+	 * @param  tileset  the tileset of the Sudoku
+	 * @param  givens   the givens of the Sudoku
+	 * @param  seed     seed of the random choices
+	 * @param  policy   the restart policy or null to never restart
+	 * @param  capacity capacity of the nogood store, 0 to search without learning
+	 * @param  metrics  metrics to add the run to or null
+	 * @return          false if the search was cancelled after DECISION_LIMIT choices
+	 */
+	private static boolean solve(Tile[] tileset, int[][] givens, long seed, RestartPolicy policy, int capacity,
+			SolverMetrics metrics){
+		Gridstate grid = PropagationBenchmark.puzzle(4, tileset, givens);
+		WFC_Handler solver = new WFC_Handler(grid, seed);
+		solver.setMetrics(metrics);
+		solver.setNogoodCapacity(capacity);
+		solver.setRestartPolicy(policy);
+		solver.setCellSelector(new AllDifferentBenchmark.LimitedSelector(solver, DECISION_LIMIT));
+		if(solver.wfc()){
+			if(!AllDifferentBenchmark.valid(4, grid, givens))
+				throw new IllegalStateException("Sudoku wasn't solved correctly");
+			return true;
+		}
+		if(!solver.isCancelled())
+			throw new IllegalStateException("Sudoku couldn't be solved");
+		return false;
+	}
+}
@@ -0,0 +1,43 @@
+package math.testing;
+import math.wfc.*;
+
+/**
+ * Compares the uniform choice over all possibilities with the minimum entropy
+ * choice of positions on hard 9x9 Sudokus. Reports time and backtracks per solve.
+ * Every Sudoku is solved with the seeds 0 to SEEDS - 1, so the results can be repeated.
+ */
+public class SelectionBenchmark {
+	private final static int SEEDS = 20;
+	private final static int WARMUP = 3;
+	private final static int RUNS = 10;
+
+	/**
+	 * Runs the benchmark for both selectors.
+	 * @param args arguments (not used)
+	 */
+	public static void main(String[] args){
+		Tile[] tileset = PropagationBenchmark.sudokuTileset(3);
+		CellSelector[] selectors = {new UniformSelector(), new MinimumEntropySelector()};
+		for(CellSelector selector:selectors){
+			long time = 0, backtracks = 0;
+			for(int run = 0; run < WARMUP + RUNS; run++){
+				for(String puzzle:BacktrackingBenchmark.HARD_PUZZLES){
+					for(int seed = 0; seed < SEEDS; seed++){
+						WFC_Handler solver = new WFC_Handler(BacktrackingBenchmark.parse(3, tileset, puzzle), seed);
+						solver.setCellSelector(selector);
+						long start = System.nanoTime();
+						if(!solver.wfc())
+							throw new IllegalStateException("Sudoku couldn't be solved: " + puzzle);
+						if(run >= WARMUP){
+							time += System.nanoTime() - start;
+							backtracks += solver.getBacktracks();
+						}
+					}
+				}
+			}
+			int solves = RUNS * SEEDS * BacktrackingBenchmark.HARD_PUZZLES.length;
+			System.out.printf("%s: %.2f ms/solve, %.1f backtracks/solve%n", selector.getClass().getSimpleName(),
+				time / 1e6 / solves, (double) backtracks / solves);
+		}
+	}
+}
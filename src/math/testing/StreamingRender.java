@@ -0,0 +1,166 @@
+package math.testing;
+import math.wfc.*;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+
+/**
+ * Follows the generation of a grid through a CollapseFeed like a renderer would.
+ * The subscriber rebuilds the grid from the events and checks that it ends up with
+ * the generated grid. It draws the rows as soon as they have collapsed and takes them
+ * back when the search undoes them, the times of the first collapsed and the first
+ * final row are printed with the time of the whole search. Afterwards the time of the String representation of a large
+ * grid is compared with the repeated String concatenation it replaced.
+ */
+public class StreamingRender {
+	private final static int BUFFER = 1024;
+	private final static int TEXT_SIZE = 200;
+
+	/**
+	 * Runs the check on a hard Sudoku with a lot of backtracking and on a terrain.
+	 * @param args arguments (the first one can be used as the seed)
+	 * @throws Exception if the subscriber is interrupted
+	 */
+	public static void main(String[] args) throws Exception {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 37;
+		Tile[] sudoku = PropagationBenchmark.sudokuTileset(3);
+		follow("sudoku", BacktrackingBenchmark.parse(3, sudoku, BacktrackingBenchmark.HARD_PUZZLES[0]), seed);
+		follow("terrain", new Gridstate(96, 96, Terrain.tileset()), seed);
+
+		Gridstate grid = new Gridstate(TEXT_SIZE, TEXT_SIZE, Terrain.tileset());
+		WFC_Handler handler = new WFC_Handler(grid, seed);
+		handler.wfc();
+		long start = System.nanoTime();
+		String concatenated = concatenate(grid);
+		long middle = System.nanoTime();
+		StringWriter writer = new StringWriter();
+		grid.write(writer);
+		long end = System.nanoTime();
+		if(!concatenated.equals(writer.toString()) || !concatenated.equals(grid.toString()))
+			throw new IllegalStateException("The String representations differ");
+		System.out.printf("%dx%d grid as text: concatenation %.1f ms, writer %.1f ms%n", TEXT_SIZE, TEXT_SIZE,
+			(middle - start) / 1e6, (end - middle) / 1e6);
+	}
+
+	/**
+	 * Generates a grid while a subscriber rebuilds it from the published events.
+	 * @param name name of the grid
+	 * @param grid the grid
+	 * @param seed seed of the search
+	 * @throws InterruptedException if waiting for the subscriber is interrupted
+	 */
+	private static void follow(String name, Gridstate grid, long seed) throws InterruptedException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Renderer renderer = new Renderer(grid.getWidth(), grid.getHeight());
+		long start = System.nanoTime();
+		try(CollapseFeed feed = new CollapseFeed(executor, BUFFER)) {
+			feed.subscribe(renderer);
+			WFC_Handler handler = new WFC_Handler(grid, seed);
+			handler.setCollapseFeed(feed);
+			if(!handler.wfc())
+				throw new IllegalStateException(name + " couldn't be generated");
+		}
+		long solved = System.nanoTime();
+		renderer.done.await();
+		executor.shutdown();
+
+		for(int cell = 0; cell < grid.getWidth() * grid.getHeight(); cell++)
+			if(renderer.tiles[cell] != grid.getPossibleTile(cell, 0) || renderer.rows[cell] != renderer.tiles[cell])
+				throw new IllegalStateException(name + " was rebuilt wrong at " + cell);
+		System.out.printf("%s: %d collapsed, %d undone, %d rows collapsed, %d undone, %d final; first row after %.2f ms,"
+			+ " first final row after %.2f ms, solved after %.2f ms%n",
+			name, renderer.collapsed, renderer.undone, renderer.rowsCollapsed, renderer.rowsUndone, renderer.rowCount,
+			(renderer.firstRow - start) / 1e6, (renderer.firstFinalRow - start) / 1e6, (solved - start) / 1e6);
+	}
+
+	/**
+	 * Turns a grid into text like Gridstate.toString() did before it used a StringBuilder.
+	 * @param  grid the grid
+	 * @return      String representation
+	 */
+	private static String concatenate(Gridstate grid){
+		String total = "";
+		for(int y = 0; y < grid.getHeight(); y++){
+			for(int x = 0; x < grid.getWidth(); x++){
+				Superposition s = grid.getPosition(x, y);
+				if(s.isCollapsed()){
+					total += s.getTile().getId() + " ";
+				} else {
+					total += "~ ";
+				}
+			}
+			total += '\n';
+		}
+		return total.substring(0, total.length() - 1);
+	}
+
+	/**
+	 * A subscriber keeping the tile of every position that collapsed and the collapsed rows.
+	 */
+	private static class Renderer implements Flow.Subscriber<CollapseEvent> {
+		private final int width;
+		private final int[] tiles, rows;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private long collapsed, undone, rowsCollapsed, rowsUndone, rowCount, firstRow, firstFinalRow;
+
+		Renderer(int width, int height){
+			this.width = width;
+			tiles = new int[width * height];
+			rows = new int[width * height];
+			Arrays.fill(tiles, -1);
+			Arrays.fill(rows, -1);
+		}
+
+		public void onSubscribe(Flow.Subscription subscription){
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		public void onNext(CollapseEvent e){
+			int cell = e.getX() + e.getY() * width;
+			switch(e.getType()){
+			case COLLAPSED:
+				tiles[cell] = e.getTile();
+				collapsed++;
+				break;
+			case UNDONE:
+				tiles[cell] = -1;
+				undone++;
+				break;
+			case ROW_COLLAPSED:
+				if(rowsCollapsed++ == 0 && rowCount == 0)
+					firstRow = System.nanoTime();
+				System.arraycopy(e.getRow(), 0, rows, e.getY() * width, width);
+				break;
+			case ROW_UNDONE:
+				Arrays.fill(rows, e.getY() * width, (e.getY() + 1) * width, -1);
+				rowsUndone++;
+				break;
+			case ROW:
+				if(rowCount++ == 0){
+					firstFinalRow = System.nanoTime();
+					if(rowsCollapsed == 0)
+						firstRow = firstFinalRow;
+				}
+				//a collapsed row that wasn't undone has to be final already
+				for(int x = 0; x < width; x++)
+					if(rows[cell + x] >= 0 && rows[cell + x] != e.getRow()[x])
+						throw new IllegalStateException("Row " + e.getY() + " changed without being undone");
+				System.arraycopy(e.getRow(), 0, rows, e.getY() * width, width);
+				break;
+			}
+		}
+
+		public void onError(Throwable t){
+			t.printStackTrace();
+			done.countDown();
+		}
+
+		public void onComplete(){
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package math.testing;
+import math.wfc.*;
+import math.wfc.rules.*;
+
+/**
+ * A terrain generator using an AdjacencyRule. Water (0) may only border sand (1),
+ * sand may border grass (2) and grass may border forest (3).
+ */
+public class Terrain {
+	private final static int WIDTH = 40;
+	private final static int HEIGHT = 20;
+
+	/**
+	 * Main function that generates and prints a terrain map.
+	 * @param args arguments (not used)
+	 */
+	public static void main(String[] args){
+		WFC_Handler generator = new WFC_Handler(WIDTH, HEIGHT, tileset());
+		generator.wfc();
+		System.out.println("Terrain:");
+		generator.printGrid();
+	}
+
+	/**
+	 * Creates the tileset of the terrain.
+	 * @return water, sand, grass and forest
+	 */
+	static Tile[] tileset(){
+		AdjacencyRule adjacency = new AdjacencyRule();
+		Rule[] rules = {adjacency};
+		Tile water = new Tile(0, rules, 4);
+		Tile sand = new Tile(1, rules, 1);
+		Tile grass = new Tile(2, rules, 4);
+		Tile forest = new Tile(3, rules, 2);
+
+		//each placement is only given once, addSymmetry() adds all other directions
+		Tile[][] neighbours = {{water, water}, {water, sand}, {sand, sand}, {sand, grass},
+			{grass, grass}, {grass, forest}, {forest, forest}};
+		for(Tile[] pair:neighbours)
+			adjacency.allow(pair[0], Direction.RIGHT, pair[1]);
+		adjacency.addSymmetry();
+		return new Tile[] {water, sand, grass, forest};
+	}
+}
@@ -0,0 +1,80 @@
+package math.testing;
+import math.wfc.*;
+import math.wfc.rules.*;
+
+/**
+ * Generates cubes of voxels with an AdjacencyRule over all six neighbours instead
+ * of stacking 2D grids. Stone (0) lies below dirt (1), dirt below grass (2) or water (4)
+ * and air (3) on top. Prints the time, the heap used by the grid and the search and
+ * a vertical slice through the middle of a small cube.
+ */
+public class Voxels {
+	private final static int[] SIZES = {16, 32, 64, 128};
+	private final static int SLICE_SIZE = 32;
+
+	/**
+	 * Runs the generation for every size.
+	 * @param args arguments (the first one can be used as the seed)
+	 */
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 37;
+		Tile[] tileset = tileset();
+		Runtime runtime = Runtime.getRuntime();
+		for(int size:SIZES){
+			System.gc();
+			long before = runtime.totalMemory() - runtime.freeMemory();
+			long start = System.nanoTime();
+			Gridstate grid = new Gridstate(size, size, size, tileset);
+			WFC_Handler handler = new WFC_Handler(grid, seed);
+			boolean solved = handler.wfc();
+			long time = System.nanoTime() - start;
+			System.gc();
+			long used = runtime.totalMemory() - runtime.freeMemory() - before;
+			System.out.printf("%d^3 = %d cells: %s in %.0f ms, %.0f MB%n", size, grid.getCellCount(),
+				solved ? "generated" : "failed", time / 1e6, used / 1e6);
+			if(size == SLICE_SIZE && solved)
+				printSlice(grid, size / 2);
+		}
+	}
+
+	/**
+	 * Prints the x-z plane at a y-coordinate, the top layer first.
+	 * @param grid the generated grid
+	 * @param y    the y-coordinate of the slice
+	 */
+	private static void printSlice(Gridstate grid, int y){
+		char[] symbols = {'#', '%', '"', ' ', '~'};
+		for(int z = grid.getDepth() - 1; z >= 0; z--){
+			StringBuilder line = new StringBuilder(grid.getWidth());
+			for(int x = 0; x < grid.getWidth(); x++)
+				line.append(symbols[grid.getPosition(x, y, z).getTile().getId()]);
+			System.out.println(line);
+		}
+	}
+
+	/**
+	 * Creates the tileset of the voxels.
+	 * @return stone, dirt, grass, air and water
+	 */
+	static Tile[] tileset(){
+		AdjacencyRule adjacency = new AdjacencyRule();
+		Rule[] rules = {adjacency};
+		Tile stone = new Tile(0, rules, 4);
+		Tile dirt = new Tile(1, rules, 2);
+		Tile grass = new Tile(2, rules, 1);
+		Tile air = new Tile(3, rules, 6);
+		Tile water = new Tile(4, rules, 1);
+
+		Tile[][] beside = {{stone, stone}, {stone, dirt}, {dirt, dirt}, {dirt, grass}, {dirt, water},
+			{grass, grass}, {grass, air}, {grass, water}, {air, air}, {air, water}, {water, water}};
+		for(Tile[] pair:beside)
+			adjacency.allow(pair[0], Direction.RIGHT, pair[1]);
+		adjacency.addSymmetry();
+		//the second tile may lie on top of the first one
+		Tile[][] onTop = {{stone, stone}, {stone, dirt}, {dirt, dirt}, {dirt, grass}, {dirt, water},
+			{grass, air}, {water, water}, {water, air}, {air, air}};
+		for(Tile[] pair:onTop)
+			adjacency.allow(pair[0], Direction.ABOVE, pair[1]);
+		return new Tile[] {stone, dirt, grass, air, water};
+	}
+}
@@ -0,0 +1,79 @@
+package math.testing;
+import math.wfc.*;
+import java.io.IOException;
+import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Streams a terrain world like a game server following a player. The player walks
+ * far in one direction and back, only a few chunks are kept in memory and the rest
+ * is spilled to a temporary directory. Checks that the world is the same on the way
+ * back and that neighbouring positions fit across the borders of the chunks.
+ */
+public class WorldStreaming {
+	private final static int CHUNK_SIZE = 32;
+	private final static int MAX_CHUNKS = 16;
+	//the player sees this many chunks to every side
+	private final static int VIEW = 1;
+	private final static int DISTANCE = 200;
+
+	/**
+	 * Main function that runs the walk and prints the metrics of the world.
+	 * @param args arguments (the first one can be used as the seed)
+	 * @throws IOException if the temporary directory can't be created
+	 */
+	public static void main(String[] args) throws IOException {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 37;
+		Path spill = Files.createTempDirectory("wfc-chunks");
+		ChunkedWorld world = new ChunkedWorld(CHUNK_SIZE, CHUNK_SIZE, Terrain.tileset(), seed, MAX_CHUNKS);
+		world.setSpillDirectory(spill);
+
+		int[][] firstPass = new int[DISTANCE][];
+		long start = System.nanoTime();
+		for(int cx = 0; cx < DISTANCE; cx++){
+			view(world, cx);
+			firstPass[cx] = world.getChunk(cx, 0).clone();
+		}
+		for(int cx = DISTANCE - 1; cx >= 0; cx--){
+			view(world, cx);
+			if(!Arrays.equals(firstPass[cx], world.getChunk(cx, 0)))
+				throw new IllegalStateException("Chunk " + cx + " changed");
+		}
+		long time = System.nanoTime() - start;
+
+		//every position next to a chunk border has to fit to the other side
+		int tiles = Terrain.tileset().length;
+		for(int x = -CHUNK_SIZE; x < DISTANCE * CHUNK_SIZE; x++)
+			for(int y = -CHUNK_SIZE; y < CHUNK_SIZE; y++)
+				if(Math.abs(world.getTileIndex(x, y) - world.getTileIndex(x + 1, y)) > 1
+						|| Math.abs(world.getTileIndex(x, y) - world.getTileIndex(x, y + 1)) > 1)
+					throw new IllegalStateException("Invalid neighbours at " + x + ", " + y + " of " + tiles + " tiles");
+
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		System.out.printf("walked %d chunks there and back in %.1f ms%n", DISTANCE, time / 1e6);
+		System.out.printf("chunks: %d generated, %d spilled, %d loaded, %d in memory (max %d)%n", world.getGeneratedChunks(),
+			world.getSpilledChunks(), world.getLoadedChunks(), world.getChunksInMemory(), MAX_CHUNKS);
+		System.out.printf("generation latency: average %.2f ms, max %.2f ms%n",
+			world.getAverageGenerationTime() / 1e6, world.getMaxGenerationTime() / 1e6);
+		System.out.printf("heap used: %.1f MB%n", (rt.totalMemory() - rt.freeMemory()) / 1e6);
+
+		try(java.util.stream.Stream<Path> files = Files.list(spill)) {
+			for(Path p:(Iterable<Path>) files::iterator)
+				Files.delete(p);
+		}
+		Files.delete(spill);
+	}
+
+	/**
+	 * Requests every chunk the player sees when standing in a chunk.
+	 * @param world the world
+	 * @param cx    x-Coordinate of the chunk of the player
+	 */
+	private static void view(ChunkedWorld world, int cx){
+		for(int dx = -VIEW; dx <= VIEW; dx++)
+			for(int dy = -VIEW; dy <= VIEW; dy++)
+				world.getChunk(cx + dx, dy);
+	}
+}
@@ -0,0 +1,207 @@
+package math.wfc;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates many independent grids of the same size and tileset, one for every seed.
+ * The grids are generated on a thread pool that is kept between calls. Every thread
+ * works with a grid and a handler of its own that are reused for all its grids: the
+ * grid is reset to a copy of the propagated empty grid instead of being created and
+ * propagated again, and the handler keeps its decision stack and trail. The result of
+ * a seed doesn't depend on the thread or the grids generated before it.
+ */
+public class BatchGenerator implements AutoCloseable {
+    private final int width, height;
+    private final Tileset tileset;
+    private final int[] ids;
+    //domains of the empty grid after the first propagation, null if it has no solution
+    private final long[] fixpoint;
+    private final ExecutorService executor;
+    private final int threads;
+    //grids and handlers of finished tasks, taken again by the next call
+    private final ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<Worker>();
+
+    private long lastTime;
+    private int lastCount, lastFailures;
+
+    /**
+     * Constructor for a BatchGenerator with one thread per processor.
+     * @param  w       width of the grids
+     * @param  h       height of the grids
+     * @param  tileset tileset to fill the grids with
+     */
+    public BatchGenerator(int w, int h, Tile[] tileset) {
+        this(w, h, tileset, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor for a BatchGenerator.
+     * @param  w       width of the grids
+     * @param  h       height of the grids
+     * @param  tileset tileset to fill the grids with
+     * @param  threads count of threads generating grids
+     */
+    public BatchGenerator(int w, int h, Tile[] tileset, int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("At least one thread is needed");
+        width = w;
+        height = h;
+        this.tileset = new Tileset(tileset);
+        ids = new int[tileset.length];
+        for(int i = 0; i < ids.length; i++)
+            ids[i] = this.tileset.get(i).getId();
+
+        Worker first = new Worker();
+        fixpoint = first.grid.collapse() ? null : first.grid.getDomains().clone();
+        workers.add(first);
+        this.threads = threads;
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Generates a grid for every seed.
+     * @param  seeds the seeds
+     * @return       for every seed the id of the tile at (x, y) at [x + y * width],
+     *               null if the grid couldn't be filled
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public int[][] generate(long... seeds) throws InterruptedException {
+        int[][] results = new int[seeds.length][];
+        long start = System.nanoTime();
+        if(fixpoint != null){
+            AtomicInteger next = new AtomicInteger();
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for(int t = 0; t < Math.min(threads, seeds.length); t++)
+                futures.add(executor.submit(new Task(seeds, results, next)));
+            try {
+                for(Future<Integer> f:futures)
+                    f.get();
+            } catch(ExecutionException e) {
+                throw new IllegalStateException("Generating a grid failed", e.getCause());
+            }
+        }
+        lastTime = System.nanoTime() - start;
+        lastCount = seeds.length;
+        lastFailures = 0;
+        for(int[] r:results)
+            if(r == null)
+                lastFailures++;
+        return results;
+    }
+
+    /**
+     * Generates a grid for each of the seeds first, first + 1, ..., first + count - 1.
+     * @param  first the first seed
+     * @param  count count of grids
+     * @return       the grids like generate(long...)
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public int[][] generate(long first, int count) throws InterruptedException {
+        long[] seeds = new long[count];
+        for(int i = 0; i < count; i++)
+            seeds[i] = first + i;
+        return generate(seeds);
+    }
+
+    /**
+     * Gets how many grids per second the last call of generate() filled, failed grids included.
+     * @return grids per second
+     */
+    public double getThroughput() {
+        return lastTime == 0 ? 0 : lastCount * 1e9 / lastTime;
+    }
+
+    /**
+     * Gets the time the last call of generate() took.
+     * @return time in nanoseconds
+     */
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    /**
+     * Gets how many grids of the last call of generate() couldn't be filled.
+     * @return count of grids
+     */
+    public int getFailures() {
+        return lastFailures;
+    }
+
+    /**
+     * Stops the threads of the generator.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * A task taking the next seed until all are done.
+     */
+    private class Task implements Callable<Integer> {
+        private final long[] seeds;
+        private final int[][] results;
+        private final AtomicInteger next;
+
+        Task(long[] seeds, int[][] results, AtomicInteger next) {
+            this.seeds = seeds;
+            this.results = results;
+            this.next = next;
+        }
+
+        /**
+         * Generates grids until no seed is left.
+         * @return count of generated grids
+         */
+        public Integer call() {
+            Worker w = workers.poll();
+            if(w == null)
+                w = new Worker();
+            int count = 0;
+            try {
+                for(int i = next.getAndIncrement(); i < seeds.length; i = next.getAndIncrement()){
+                    results[i] = w.generate(seeds[i]);
+                    count++;
+                }
+            } finally {
+                workers.add(w);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * The grid and handler of a single thread.
+     */
+    private class Worker {
+        private final Gridstate grid;
+        private final WFC_Handler handler;
+
+        Worker() {
+            grid = new Gridstate(width, height, tileset);
+            handler = new WFC_Handler(grid, 0);
+        }
+
+        /**
+         * Generates a grid.
+         * @param  seed the seed of the grid
+         * @return      ids of the tiles or null if the grid couldn't be filled
+         */
+        int[] generate(long seed) {
+            grid.reset(fixpoint);
+            handler.reset(seed);
+            if(!handler.wfc())
+                return null;
+            int[] result = new int[width * height];
+            for(int cell = 0; cell < result.length; cell++)
+                result[cell] = ids[grid.getPossibleTile(cell, 0)];
+            return result;
+        }
+    }
+}
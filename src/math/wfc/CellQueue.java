@@ -0,0 +1,121 @@
+package math.wfc;
+
+/**
+ * A queue of grid positions that still have to be checked by the propagation.
+ * Every position is contained at most once, positions are stored as x + (y + z * height) * width.
+ */
+public class CellQueue {
+	private final int width, height, depth;
+	private final boolean looping;
+	private final int[] queue;
+	private final boolean[] queued;
+	private int head, size;
+
+	/**
+	 * Constructor for an empty CellQueue.
+	 * @param  width   width of the grid
+	 * @param  height  height of the grid
+	 * @param  looping whether positions outside the grid wrap around
+	 */
+	public CellQueue(int width, int height, boolean looping){
+		this(width, height, 1, looping);
+	}
+
+	/**
+	 * Constructor for an empty CellQueue of a grid with several layers.
+	 * @param  width   width of the grid
+	 * @param  height  height of the grid
+	 * @param  depth   count of layers of the grid
+	 * @param  looping whether positions outside the grid wrap around
+	 */
+	public CellQueue(int width, int height, int depth, boolean looping){
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.looping = looping;
+		queue = new int[width * height * depth];
+		queued = new boolean[width * height * depth];
+	}
+
+	/**
+	 * Adds a position of the first layer to the queue. Positions outside the grid
+	 * are wrapped around if the grid is looping and ignored otherwise.
+	 * @param x x-coordinate of the position
+	 * @param y y-coordinate of the position
+	 */
+	public void add(int x, int y){
+		add(x, y, 0);
+	}
+
+	/**
+	 * Adds a position to the queue. Positions outside the grid are wrapped
+	 * around if the grid is looping and ignored otherwise.
+	 * @param x x-coordinate of the position
+	 * @param y y-coordinate of the position
+	 * @param z layer of the position
+	 */
+	public void add(int x, int y, int z){
+		if(x < 0 || y < 0 || z < 0 || x >= width || y >= height || z >= depth){
+			if(!looping)
+				return;
+			x = Topology.wrap(x, width);
+			y = Topology.wrap(y, height);
+			z = Topology.wrap(z, depth);
+		}
+		addCell(x + (y + z * height) * width);
+	}
+
+	/**
+	 * Adds a position given by its index x + (y + z * height) * width to the queue.
+	 * @param cell index of the position
+	 */
+	public void addCell(int cell){
+		if(queued[cell])
+			return;
+		queued[cell] = true;
+		int tail = head + size;
+		if(tail >= queue.length)
+			tail -= queue.length;
+		queue[tail] = cell;
+		size++;
+	}
+
+	/**
+	 * Adds every position of the grid to the queue.
+	 */
+	public void addAll(){
+		for(int i = 0; i < queue.length; i++)
+			addCell(i);
+	}
+
+	/**
+	 * Removes the next position from the queue.
+	 * @return index of the position or -1 if the queue is empty
+	 */
+	public int poll(){
+		if(size == 0)
+			return -1;
+		int cell = queue[head];
+		queued[cell] = false;
+		head++;
+		if(head == queue.length)
+			head = 0;
+		size--;
+		return cell;
+	}
+
+	/**
+	 * Removes all positions from the queue.
+	 */
+	public void clear(){
+		while(poll() >= 0);
+	}
+
+	/**
+	 * Tests if there are positions left in the queue.
+	 * @return true if the queue is empty
+	 */
+	public boolean isEmpty(){
+		return size == 0;
+	}
+}
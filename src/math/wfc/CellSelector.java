@@ -0,0 +1,24 @@
+package math.wfc;
+import java.util.Random;
+
+/**
+ * A Interface for strategies choosing the next position to make a random choice at.
+ * A CellSelector is registered as a DomainListener of the grid it selects from,
+ * so it can keep its structures up to date instead of scanning the grid.
+ */
+public interface CellSelector extends DomainListener {
+	/**
+	 * Builds the structures of the selector from the current domains of a grid.
+	 * @param grid the grid to select positions from
+	 * @param rand random generator for values that are fixed per position
+	 */
+	void init(Gridstate grid, Random rand);
+
+	/**
+	 * Chooses the next position to collapse.
+	 * @param  rand random generator for breaking ties
+	 * @return      index x + y * width of a position with more than one possibility
+	 *              or -1 if every position has collapsed
+	 */
+	int selectCell(Random rand);
+}
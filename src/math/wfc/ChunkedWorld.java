@@ -0,0 +1,338 @@
+package math.wfc;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An unbounded world generated in chunks of a fixed size on demand. A new chunk is
+ * generated on a grid one position larger on every side, the extra positions that belong
+ * to chunks that already exist are collapsed to their tiles first, so the new chunk fits
+ * to its neighbours. Only a limited count of chunks is kept in memory, the least recently
+ * used one is dropped when another one is needed. With a spill directory dropped chunks are
+ * written to disk and read back later, without one they are generated again, which can
+ * give a different chunk than before.
+ */
+public class ChunkedWorld {
+    //count of seeds tried before a chunk fails
+    private final static int ATTEMPTS = 16;
+
+    private final int chunkWidth, chunkHeight;
+    private final Tileset tileset;
+    private final long seed;
+    private final int maxChunks;
+    private final LinkedHashMap<Long, int[]> chunks;
+    private Path spillDirectory;
+
+    //metrics
+    private long generated, loaded, spilled, hits, misses;
+    private long totalGenerationTime, maxGenerationTime, lastGenerationTime;
+
+    /**
+     * Constructor for a ChunkedWorld.
+     * @param  chunkWidth  width of a chunk
+     * @param  chunkHeight height of a chunk
+     * @param  tileset     tileset to fill the world with
+     * @param  seed        seed of the world, every chunk gets its own seed derived from it
+     * @param  maxChunks   count of chunks that are kept in memory
+     */
+    public ChunkedWorld(int chunkWidth, int chunkHeight, Tile[] tileset, long seed, int maxChunks) {
+        if(maxChunks < 1)
+            throw new IllegalArgumentException("At least one chunk has to fit in memory");
+        this.chunkWidth = chunkWidth;
+        this.chunkHeight = chunkHeight;
+        this.tileset = new Tileset(tileset);
+        this.seed = seed;
+        this.maxChunks = maxChunks;
+        chunks = new LinkedHashMap<Long, int[]>(16, 0.75f, true);
+    }
+
+    /**
+     * Sets a directory chunks are written to when they are dropped from memory.
+     * @param directory the directory, null to drop chunks without writing them
+     */
+    public synchronized void setSpillDirectory(Path directory) {
+        spillDirectory = directory;
+    }
+
+    /**
+     * Gets the tile at a position of the world, generates its chunk if needed.
+     * @param  x x-Coordinate of the position
+     * @param  y y-Coordinate of the position
+     * @return   the tile at that position
+     */
+    public Tile getTile(int x, int y) {
+        return tileset.get(getTileIndex(x, y));
+    }
+
+    /**
+     * Gets the index of the tile at a position of the world inside the tileset.
+     * @param  x x-Coordinate of the position
+     * @param  y y-Coordinate of the position
+     * @return   index of the tile
+     */
+    public synchronized int getTileIndex(int x, int y) {
+        int[] chunk = getChunk(Math.floorDiv(x, chunkWidth), Math.floorDiv(y, chunkHeight));
+        return chunk[Math.floorMod(x, chunkWidth) + Math.floorMod(y, chunkHeight) * chunkWidth];
+    }
+
+    /**
+     * Gets a chunk, generates it if it doesn't exist yet. The chunk (cx, cy)
+     * covers the positions cx * chunkWidth to (cx + 1) * chunkWidth - 1 in x.
+     * @param  cx x-Coordinate of the chunk
+     * @param  cy y-Coordinate of the chunk
+     * @return    index of the tile at (x, y) of the chunk at [x + y * chunkWidth],
+     *            the array must not be changed
+     */
+    public synchronized int[] getChunk(int cx, int cy) {
+        int[] chunk = find(cx, cy);
+        if(chunk != null){
+            hits++;
+            return chunk;
+        }
+        misses++;
+        long start = System.nanoTime();
+        chunk = generate(cx, cy);
+        lastGenerationTime = System.nanoTime() - start;
+        totalGenerationTime += lastGenerationTime;
+        maxGenerationTime = Math.max(maxGenerationTime, lastGenerationTime);
+        generated++;
+        store(cx, cy, chunk);
+        return chunk;
+    }
+
+    /**
+     * Gets a chunk from memory or the spill directory.
+     * @param  cx x-Coordinate of the chunk
+     * @param  cy y-Coordinate of the chunk
+     * @return    the chunk or null if it doesn't exist yet
+     */
+    private int[] find(int cx, int cy) {
+        int[] chunk = chunks.get(key(cx, cy));
+        if(chunk == null && spillDirectory != null){
+            chunk = read(file(cx, cy));
+            if(chunk != null){
+                loaded++;
+                store(cx, cy, chunk);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Puts a chunk into memory and drops the least recently used chunks that don't fit anymore.
+     * @param cx    x-Coordinate of the chunk
+     * @param cy    y-Coordinate of the chunk
+     * @param chunk the chunk
+     */
+    private void store(int cx, int cy, int[] chunk) {
+        chunks.put(key(cx, cy), chunk);
+        Iterator<Map.Entry<Long, int[]>> it = chunks.entrySet().iterator();
+        while(chunks.size() > maxChunks){
+            Map.Entry<Long, int[]> eldest = it.next();
+            //chunks never change, so a chunk read from disk doesn't have to be written again
+            long k = eldest.getKey();
+            if(spillDirectory != null && !Files.exists(file((int) (k >> 32), (int) k))){
+                write(file((int) (k >> 32), (int) k), eldest.getValue());
+                spilled++;
+            }
+            it.remove();
+        }
+    }
+
+    /**
+     * Generates a chunk that fits to the chunks around it that exist already.
+     * @param  cx x-Coordinate of the chunk
+     * @param  cy y-Coordinate of the chunk
+     * @return    the chunk
+     */
+    private int[] generate(int cx, int cy) {
+        int w = chunkWidth + 2, h = chunkHeight + 2;
+        //the neighbours are looked up before generating, so they aren't dropped in between
+        int[][] neighbours = new int[9][];
+        for(int dy = -1; dy <= 1; dy++)
+            for(int dx = -1; dx <= 1; dx++)
+                if(dx != 0 || dy != 0)
+                    neighbours[dx + 1 + (dy + 1) * 3] = find(cx + dx, cy + dy);
+
+        for(int attempt = 0; attempt < ATTEMPTS; attempt++){
+            Gridstate grid = new Gridstate(w, h, tileset);
+            for(int y = 0; y < h; y++){
+                for(int x = 0; x < w; x++){
+                    if(x > 0 && y > 0 && x < w - 1 && y < h - 1)
+                        continue;
+                    //position of the border position inside its own chunk
+                    int nx = x == 0 ? 0 : x == w - 1 ? 2 : 1;
+                    int ny = y == 0 ? 0 : y == h - 1 ? 2 : 1;
+                    int[] neighbour = neighbours[nx + ny * 3];
+                    if(neighbour != null){
+                        int ix = Math.floorMod(x - 1, chunkWidth);
+                        int iy = Math.floorMod(y - 1, chunkHeight);
+                        grid.getPosition(x, y).collapseTo(neighbour[ix + iy * chunkWidth]);
+                    }
+                }
+            }
+
+            WFC_Handler handler = new WFC_Handler(grid);
+            handler.setSeed(chunkSeed(cx, cy, attempt));
+            if(handler.wfc()){
+                int[] chunk = new int[chunkWidth * chunkHeight];
+                for(int y = 0; y < chunkHeight; y++)
+                    for(int x = 0; x < chunkWidth; x++)
+                        chunk[x + y * chunkWidth] = grid.getPossibleTile(grid.getCell(x + 1, y + 1), 0);
+                return chunk;
+            }
+        }
+        throw new IllegalStateException("Chunk " + cx + ", " + cy + " doesn't fit to its neighbours");
+    }
+
+    /**
+     * Derives the seed of a chunk from the seed of the world.
+     * @param  cx      x-Coordinate of the chunk
+     * @param  cy      y-Coordinate of the chunk
+     * @param  attempt count of failed attempts to generate the chunk
+     * @return         the seed
+     */
+    private long chunkSeed(int cx, int cy, int attempt) {
+        long h = seed;
+        h = h * 0x9E3779B97F4A7C15L + cx;
+        h = h * 0x9E3779B97F4A7C15L + cy;
+        h = h * 0x9E3779B97F4A7C15L + attempt;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * Combines the coordinates of a chunk into a single key.
+     * @param  cx x-Coordinate of the chunk
+     * @param  cy y-Coordinate of the chunk
+     * @return    the key
+     */
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the file a chunk is spilled to.
+     * @param  cx x-Coordinate of the chunk
+     * @param  cy y-Coordinate of the chunk
+     * @return    path of the file
+     */
+    private Path file(int cx, int cy) {
+        return spillDirectory.resolve("chunk_" + cx + "_" + cy + ".bin");
+    }
+
+    /**
+     * Writes a chunk to a file.
+     * @param file  the file
+     * @param chunk the chunk
+     */
+    private void write(Path file, int[] chunk) {
+        ByteBuffer buffer = ByteBuffer.allocate(chunk.length * 4);
+        buffer.asIntBuffer().put(chunk);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+        } catch(IOException e) {
+            throw new UncheckedIOException("Chunk couldn't be written to " + file, e);
+        }
+    }
+
+    /**
+     * Reads a chunk from a file.
+     * @param  file the file
+     * @return      the chunk or null if the file doesn't exist
+     */
+    private int[] read(Path file) {
+        if(!Files.exists(file))
+            return null;
+        ByteBuffer buffer = ByteBuffer.allocate(chunkWidth * chunkHeight * 4);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while(buffer.hasRemaining() && channel.read(buffer) >= 0);
+        } catch(IOException e) {
+            throw new UncheckedIOException("Chunk couldn't be read from " + file, e);
+        }
+        buffer.flip();
+        int[] chunk = new int[chunkWidth * chunkHeight];
+        buffer.asIntBuffer().get(chunk);
+        return chunk;
+    }
+
+    /**
+     * Gets the count of chunks in memory.
+     * @return count of chunks
+     */
+    public synchronized int getChunksInMemory() {
+        return chunks.size();
+    }
+
+    /**
+     * Gets the count of chunks that were generated.
+     * @return count of chunks
+     */
+    public synchronized long getGeneratedChunks() {
+        return generated;
+    }
+
+    /**
+     * Gets the count of chunks read back from the spill directory.
+     * @return count of chunks
+     */
+    public synchronized long getLoadedChunks() {
+        return loaded;
+    }
+
+    /**
+     * Gets the count of chunks written to the spill directory.
+     * @return count of chunks
+     */
+    public synchronized long getSpilledChunks() {
+        return spilled;
+    }
+
+    /**
+     * Gets the count of requests of a chunk that was in memory or on disk.
+     * @return count of requests
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the count of requests of a chunk that had to be generated.
+     * @return count of requests
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the average time generating a chunk took.
+     * @return time in nanoseconds, 0 if no chunk was generated
+     */
+    public synchronized long getAverageGenerationTime() {
+        return generated == 0 ? 0 : totalGenerationTime / generated;
+    }
+
+    /**
+     * Gets the longest time generating a chunk took.
+     * @return time in nanoseconds
+     */
+    public synchronized long getMaxGenerationTime() {
+        return maxGenerationTime;
+    }
+
+    /**
+     * Gets the time generating the last chunk took.
+     * @return time in nanoseconds
+     */
+    public synchronized long getLastGenerationTime() {
+        return lastGenerationTime;
+    }
+}
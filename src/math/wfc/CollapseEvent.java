@@ -0,0 +1,106 @@
+package math.wfc;
+
+/**
+ * An event published by a CollapseFeed while a grid is generated.
+ */
+public final class CollapseEvent {
+    /**
+     * The kinds of events.
+     */
+    public enum Type {
+        /**
+         * A position collapsed to a single tile. The search can still go back
+         * and undo it, which is published as UNDONE.
+         */
+        COLLAPSED,
+        /**
+         * A position that had collapsed got more than one possibility back on backtracking.
+         */
+        UNDONE,
+        /**
+         * Every position of a row has collapsed and the search can't go back behind
+         * it anymore, so the row won't change. Every layer of a grid has its own rows.
+         * A row can be published as ROW_COLLAPSED before.
+         */
+        ROW,
+        /**
+         * Every position of a row has collapsed, but the search can still go back and
+         * undo it, which is published as ROW_UNDONE. Once the row is final it is
+         * published again as ROW.
+         */
+        ROW_COLLAPSED,
+        /**
+         * A position of a row that was published as ROW_COLLAPSED got more than one
+         * possibility back on backtracking.
+         */
+        ROW_UNDONE;
+    }
+
+    private final Type type;
+    private final int x, y, z, tile;
+    private final int[] row;
+
+    CollapseEvent(Type type, int x, int y, int z, int tile, int[] row) {
+        this.type = type;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.tile = tile;
+        this.row = row;
+    }
+
+    /**
+     * Gets the kind of the event.
+     * @return the type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the x-Coordinate of the position.
+     * @return the x-Coordinate, 0 for the events of rows
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Gets the y-Coordinate of the position or row.
+     * @return the y-Coordinate
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Gets the layer of the position or row.
+     * @return the z-Coordinate, 0 for a grid without layers
+     */
+    public int getZ() {
+        return z;
+    }
+
+    /**
+     * Gets the index of the tile inside the tileset a position collapsed to.
+     * @return index of the tile, -1 for UNDONE and the events of rows
+     */
+    public int getTile() {
+        return tile;
+    }
+
+    /**
+     * Gets the tiles of a collapsed row.
+     * @return index of the tile at x inside the tileset at [x] for ROW and ROW_COLLAPSED, null otherwise
+     */
+    public int[] getRow() {
+        return row;
+    }
+
+    public String toString() {
+        String layer = z == 0 ? "" : ", " + z;
+        if(type == Type.ROW || type == Type.ROW_COLLAPSED || type == Type.ROW_UNDONE)
+            return type + " " + y + layer;
+        return type + " " + x + ", " + y + layer + (type == Type.COLLAPSED ? " -> " + tile : "");
+    }
+}
@@ -0,0 +1,182 @@
+package math.wfc;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Publishes the progress of a WFC_Handler while it generates a grid, so a renderer can
+ * start before the grid is finished. In the trail mode every position that collapses
+ * or gets possibilities back on backtracking is published as soon as it happens.
+ * A row whose positions have all collapsed is published as ROW_COLLAPSED before the
+ * next choice, while the search can still go back behind it. If it does, ROW_UNDONE
+ * follows as soon as a position of the row gets possibilities back. Rows are published
+ * as ROW once no choice is left that the search could go back to, which is before the
+ * first choice, after the search went back to the first choice and when the grid is
+ * finished. Most rows of a search that makes choices are only final at the end, so a
+ * renderer that wants rows early has to draw the ROW_COLLAPSED ones and take them back
+ * on ROW_UNDONE. The clone mode only publishes the positions that have collapsed
+ * before the search and the rows of the finished grid.
+ * Every subscriber has a buffer of a fixed size, when it is full the search waits
+ * until the subscriber has taken events out of it.
+ */
+public class CollapseFeed implements Flow.Publisher<CollapseEvent>, DomainListener, AutoCloseable {
+    private final static byte NOT_PUBLISHED = 0, PUBLISHED_COLLAPSED = 1, PUBLISHED_FIXED = 2;
+
+    private final SubmissionPublisher<CollapseEvent> publisher;
+    //what was published for every row, row r is row r % height of layer r / height
+    private byte[] rowState;
+    //count of collapsed positions of every row
+    private int[] collapsedInRow;
+    //rows that have collapsed completely since the last publishRows(), each only once
+    private int[] completedRows;
+    private boolean[] completed;
+    private int completedCount;
+    private int width;
+
+    /**
+     * Constructor for a CollapseFeed delivering events on the common pool
+     * with a buffer of Flow.defaultBufferSize() events per subscriber.
+     */
+    public CollapseFeed() {
+        publisher = new SubmissionPublisher<CollapseEvent>();
+    }
+
+    /**
+     * Constructor for a CollapseFeed.
+     * @param  executor   executor delivering the events to the subscribers
+     * @param  bufferSize count of events buffered per subscriber, rounded up to a power of two
+     */
+    public CollapseFeed(Executor executor, int bufferSize) {
+        publisher = new SubmissionPublisher<CollapseEvent>(executor, bufferSize);
+    }
+
+    public void subscribe(Flow.Subscriber<? super CollapseEvent> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Tells the subscribers that no more events follow.
+     */
+    public void close() {
+        publisher.close();
+    }
+
+    /**
+     * Publishes every position of a grid that has collapsed already, called when a search starts.
+     * @param grid the grid
+     */
+    void start(Gridstate grid) {
+        int rows = grid.getHeight() * grid.getDepth();
+        width = grid.getWidth();
+        rowState = new byte[rows];
+        collapsedInRow = new int[rows];
+        completedRows = new int[rows];
+        completed = new boolean[rows];
+        completedCount = 0;
+        for(int cell = 0; cell < grid.getCellCount(); cell++){
+            if(grid.getPossibilityCount(cell) == 1){
+                publish(grid, cell, CollapseEvent.Type.COLLAPSED);
+                collapsed(cell / width);
+            }
+        }
+    }
+
+    public void domainChanged(Gridstate grid, int cell, int word, long before, long after) {
+        int count = grid.getPossibilityCount(cell);
+        int countBefore = count + Long.bitCount(before) - Long.bitCount(after);
+        if(count == 1 && countBefore > 1){
+            publish(grid, cell, CollapseEvent.Type.COLLAPSED);
+        } else if(countBefore == 1 && count > 1){
+            publish(grid, cell, CollapseEvent.Type.UNDONE);
+        }
+        //a position without possibilities is counted like one with several, it is always undone
+        int r = cell / width;
+        if(count == 1 && countBefore != 1){
+            collapsed(r);
+        } else if(countBefore == 1 && count != 1){
+            collapsedInRow[r]--;
+            if(rowState[r] == PUBLISHED_COLLAPSED){
+                rowState[r] = NOT_PUBLISHED;
+                publisher.submit(new CollapseEvent(CollapseEvent.Type.ROW_UNDONE, 0, r % grid.getHeight(),
+                    r / grid.getHeight(), -1, null));
+            }
+        }
+    }
+
+    /**
+     * Counts a collapsed position of a row and remembers the row once all its positions have collapsed.
+     * @param r index of the row
+     */
+    private void collapsed(int r) {
+        if(++collapsedInRow[r] == width && rowState[r] == NOT_PUBLISHED && !completed[r]){
+            completed[r] = true;
+            completedRows[completedCount++] = r;
+        }
+    }
+
+    /**
+     * Publishes the rows that have collapsed completely. Called by the search when the grid
+     * is propagated, so rows that only collapsed on the way to a contradiction aren't published.
+     * @param grid  the grid
+     * @param fixed true if the search can't go back anymore, every collapsed row is published
+     *              as ROW then, otherwise the rows that collapsed since the last call are
+     *              published as ROW_COLLAPSED
+     */
+    void publishRows(Gridstate grid, boolean fixed) {
+        for(int i = 0; i < completedCount; i++)
+            completed[completedRows[i]] = false;
+        if(fixed){
+            completedCount = 0;
+            for(int r = 0; r < rowState.length; r++)
+                if(rowState[r] != PUBLISHED_FIXED && rowCollapsed(grid, r))
+                    publishRow(grid, r, PUBLISHED_FIXED);
+            return;
+        }
+        for(int i = 0; i < completedCount; i++){
+            int r = completedRows[i];
+            if(rowState[r] == NOT_PUBLISHED && collapsedInRow[r] == width)
+                publishRow(grid, r, PUBLISHED_COLLAPSED);
+        }
+        completedCount = 0;
+    }
+
+    /**
+     * Tests if every position of a row has collapsed. Used instead of collapsedInRow for the
+     * rows of the clone mode, which doesn't follow the changes of its grids.
+     * @param  grid the grid
+     * @param  r    index of the row
+     * @return      true if the row has collapsed
+     */
+    private boolean rowCollapsed(Gridstate grid, int r) {
+        for(int x = 0; x < width; x++)
+            if(grid.getPossibilityCount(x + r * width) != 1)
+                return false;
+        return true;
+    }
+
+    /**
+     * Publishes the tiles of a collapsed row.
+     * @param grid  the grid
+     * @param r     index of the row
+     * @param state PUBLISHED_COLLAPSED for ROW_COLLAPSED or PUBLISHED_FIXED for ROW
+     */
+    private void publishRow(Gridstate grid, int r, byte state) {
+        int[] row = new int[width];
+        for(int x = 0; x < width; x++)
+            row[x] = grid.getPossibleTile(x + r * width, 0);
+        rowState[r] = state;
+        CollapseEvent.Type type = state == PUBLISHED_FIXED ? CollapseEvent.Type.ROW : CollapseEvent.Type.ROW_COLLAPSED;
+        publisher.submit(new CollapseEvent(type, 0, r % grid.getHeight(), r / grid.getHeight(), -1, row));
+    }
+
+    /**
+     * Publishes the change of a single position.
+     * @param grid the grid
+     * @param cell index of the position
+     * @param type COLLAPSED or UNDONE
+     */
+    private void publish(Gridstate grid, int cell, CollapseEvent.Type type) {
+        int tile = type == CollapseEvent.Type.COLLAPSED ? grid.getPossibleTile(cell, 0) : -1;
+        publisher.submit(new CollapseEvent(type, grid.getX(cell), grid.getY(cell), grid.getZ(cell), tile, null));
+    }
+}
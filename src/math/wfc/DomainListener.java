@@ -0,0 +1,17 @@
+package math.wfc;
+
+/**
+ * A Interface for objects that have to follow every change of the domains of a Gridstate,
+ * including the changes that are undone on backtracking.
+ */
+public interface DomainListener {
+	/**
+	 * Called after a word of the domain of a position changed.
+	 * @param grid   the Gridstate that changed
+	 * @param cell   index x + y * width of the position
+	 * @param word   index of the word inside the domain, bit i of word w stands for tile 64 * w + i
+	 * @param before value of the word before the change
+	 * @param after  value of the word after the change
+	 */
+	void domainChanged(Gridstate grid, int cell, int word, long before, long after);
+}
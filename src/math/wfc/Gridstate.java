@@ -1,11 +1,24 @@
 package math.wfc;
+import java.io.IOException;
 import java.util.Random;
+import math.wfc.rules.Direction;
+import math.wfc.rules.Rule;
 /**
- * A class storing the Superpositions in a grid.
+ * A class storing the Superpositions in a grid. The domains of all positions
+ * are stored in one contiguous array, the domain of position (x, y) starts at
+ * (x + y * width) * words. Superposition objects returned by the grid are views
+ * on that array.
+ * A grid can have several layers stacked along a z-axis, like a grid of voxels.
+ * Position (x, y, z) is then the cell x + (y + z * height) * width, so every layer
+ * is stored like a grid without layers and the first layer is at the same cells.
  */
 public class Gridstate {
-	private final int width, height;
-	private Superposition[][] grid;
+	private final int width, height, depth;
+	private final long[] domains;
+	private final int words;
+
+	//the neighbours, rows, columns and blocks of the positions
+	private final Topology topology;
 
 	//border behaviour
 	//loop = true  means that getPosition on the border of the grid
@@ -18,6 +31,28 @@ public class Gridstate {
 
 	private boolean[] triedChoices;
 
+	//all distinct rules of the tileset, the positions that still have to be
+	//checked by collapse() and the positions that changed since they were propagated
+	private final Tileset tileset;
+	private final Rule[] rules;
+	private final Propagator[] propagators;
+	private final Propagator[] rulePropagators;
+	private final CellQueue queue;
+	private final CellQueue changed;
+
+	//view used by collapse() to walk over the grid
+	private final Superposition cursor;
+	private final RuleEvaluator evaluator;
+
+	//undo log of all domain changes, null if changes aren't recorded
+	private Trail trail;
+
+	//objects that are notified about every domain change
+	private DomainListener[] listeners = new DomainListener[0];
+
+	//counters of the search working on the grid, null if it isn't counted
+	SolverMetrics.Counters counters;
+
 	/**
 	 * Constructor for a Gridstate object with just dimensions and tileset given.
 	 * @param  w       width of the grid
@@ -25,26 +60,90 @@ public class Gridstate {
 	 * @param  tileset the tileset to fill the grid with
 	 */
 	public Gridstate(int w, int h, Tile[] tileset){
-		width = w;
-		height = h;
-		grid = new Superposition[w][h];
-		for(int x = 0; x < w; x++)
-			for(int y = 0; y < h; y++)
-				grid[x][y] = new Superposition(x, y, tileset);
+		this(w, h, new Tileset(tileset));
+	}
+
+	/**
+	 * Constructor for a Gridstate object with dimensions and a shared Tileset given.
+	 * @param  w       width of the grid
+	 * @param  h       height of the grid
+	 * @param  tileset the tileset to fill the grid with
+	 */
+	public Gridstate(int w, int h, Tileset tileset){
+		this(w, h, 1, tileset);
+	}
+
+	/**
+	 * Constructor for a Gridstate object with several layers and a tileset given.
+	 * @param  w       width of the grid
+	 * @param  h       height of the grid
+	 * @param  d       count of layers of the grid
+	 * @param  tileset the tileset to fill the grid with
+	 */
+	public Gridstate(int w, int h, int d, Tile[] tileset){
+		this(w, h, d, new Tileset(tileset));
+	}
+
+	/**
+	 * Constructor for a Gridstate object with several layers and a shared Tileset given.
+	 * Every rule of the tileset has to support layers if there is more than one.
+	 * @param  w       width of the grid
+	 * @param  h       height of the grid
+	 * @param  d       count of layers of the grid
+	 * @param  tileset the tileset to fill the grid with
+	 */
+	public Gridstate(int w, int h, int d, Tileset tileset){
+		this(w, h, d, filledDomains(w * h * d, tileset), false, null, tileset, null);
+		queue.addAll();
+		changed.addAll();
 	}
 
 	/**
 	 * Constructer for a Gridstate object with all possible parameters.
+	 * The possibilities of the given Superpositions are copied into the grid.
 	 * @param  grid     The grid of Superpositions
 	 * @param  looping  Whether or not positions outside the grid should be looping around
 	 * @param  borderSP If not the Superposition to return for positions outside the grid
 	 */
 	public Gridstate(Superposition[][] grid, boolean looping, Superposition borderSP){
-		width = grid.length;
-		height = grid[0].length;
-		this.grid = grid;
+		this(grid.length, grid[0].length, 1, copyDomains(grid), looping, borderSP, grid[0][0].getTileset(), null);
+		queue.addAll();
+		changed.addAll();
+	}
+
+	/**
+	 * Constructor for a Gridstate object on existing domains that starts without any positions to check.
+	 * @param  w        width of the grid
+	 * @param  h        height of the grid
+	 * @param  d        count of layers of the grid
+	 * @param  domains  The domains of all positions
+	 * @param  looping  Whether or not positions outside the grid should be looping around
+	 * @param  borderSP If not the Superposition to return for positions outside the grid
+	 * @param  tileset  The tileset of the Superpositions
+	 * @param  topology The topology of a grid of the same size and border behaviour or null to create it
+	 */
+	private Gridstate(int w, int h, int d, long[] domains, boolean looping, Superposition borderSP, Tileset tileset,
+			Topology topology){
+		width = w;
+		height = h;
+		depth = d;
+		this.domains = domains;
 		this.looping = looping;
 		this.borderSP = borderSP;
+		this.tileset = tileset;
+		words = tileset.words();
+		rules = tileset.getRules();
+		if(depth > 1)
+			for(Rule r:rules)
+				if(!r.supportsLayers())
+					throw new IllegalArgumentException(r.getClass().getName() + " doesn't support grids with layers");
+		this.topology = topology != null ? topology : new Topology(width, height, depth, looping);
+		queue = new CellQueue(width, height, depth, looping);
+		changed = new CellQueue(width, height, depth, looping);
+		cursor = new Superposition(this, 0);
+		evaluator = new RuleEvaluator(this);
+		rulePropagators = new Propagator[rules.length];
+		propagators = createPropagators();
 	}
 
 	/**
@@ -55,13 +154,169 @@ public class Gridstate {
 	 * @return   Superposition object at that coordinate
 	 */
 	public Superposition getPosition(int x, int y){
-		if(!looping && (x < 0 || y < 0 || x >= width || y >= height))
-			return borderSP;
+		return getPosition(x, y, 0);
+	}
 
-		//wraps values inside grid
-		x -= Math.floorDiv(x, width) * width;
-		y -= Math.floorDiv(y, height) * height;
-		return grid[x][y];
+	/**
+	 * Gets the Superposition object at a certain coordinate of a grid with layers
+	 * following the rules set by looping.
+	 * @param  x x-Coordinate of the Position to get
+	 * @param  y y-Coordinate of the Position to get
+	 * @param  z layer of the Position to get
+	 * @return   Superposition object at that coordinate
+	 */
+	public Superposition getPosition(int x, int y, int z){
+		int cell = getCell(x, y, z);
+		return cell < 0 ? borderSP : new Superposition(this, cell);
+	}
+
+	/**
+	 * Gets the index of the position at a certain coordinate following
+	 * the rules set by looping.
+	 * @param  x x-Coordinate of the Position
+	 * @param  y y-Coordinate of the Position
+	 * @return   x + y * width inside the grid or -1 for the border
+	 */
+	public int getCell(int x, int y){
+		return getCell(x, y, 0);
+	}
+
+	/**
+	 * Gets the index of the position at a certain coordinate of a grid with layers
+	 * following the rules set by looping.
+	 * @param  x x-Coordinate of the Position
+	 * @param  y y-Coordinate of the Position
+	 * @param  z layer of the Position
+	 * @return   x + (y + z * height) * width inside the grid or -1 for the border
+	 */
+	public int getCell(int x, int y, int z){
+		return topology.getCell(x, y, z);
+	}
+
+	/**
+	 * Gets the neighbour of a position following the rules set by looping.
+	 * @param  cell index of the position
+	 * @param  d    the direction of the neighbour
+	 * @return      index of the neighbour or -1 for the border
+	 */
+	public int getNeighbour(int cell, Direction d){
+		return topology.getNeighbour(cell, d.ordinal());
+	}
+
+	/**
+	 * Getter Function for the neighbours, rows, columns and blocks of the positions.
+	 * @return the topology of the grid
+	 */
+	public Topology getTopology(){
+		return topology;
+	}
+
+	/**
+	 * Gets the x-coordinate of a position.
+	 * @param  cell index of the position
+	 * @return      the x-coordinate
+	 */
+	public int getX(int cell){
+		return cell % width;
+	}
+
+	/**
+	 * Gets the y-coordinate of a position.
+	 * @param  cell index of the position
+	 * @return      the y-coordinate
+	 */
+	public int getY(int cell){
+		return cell / width % height;
+	}
+
+	/**
+	 * Gets the layer of a position.
+	 * @param  cell index of the position
+	 * @return      the z-coordinate, 0 for a grid without layers
+	 */
+	public int getZ(int cell){
+		return cell / width / height;
+	}
+
+	/**
+	 * Tests whether a tile is still possible at a position without creating a view.
+	 * @param  cell index of the position as returned by getCell(), -1 tests the border
+	 * @param  t    the tile to test for
+	 * @return      true if it is still possible
+	 */
+	public boolean tilePossible(int cell, Tile t){
+		if(cell < 0)
+			return borderSP != null && borderSP.tilePossible(t);
+		int i = tileset.indexOf(t);
+		return i >= 0 && (domains[cell * words + (i >>> 6)] & (1L << i)) != 0;
+	}
+
+	/**
+	 * Tests whether a tile is still possible at a position by its index inside the tileset.
+	 * @param  cell index of the position as returned by getCell()
+	 * @param  tile index of the tile inside the tileset
+	 * @return      true if it is still possible
+	 */
+	public boolean tilePossible(int cell, int tile){
+		return (domains[cell * words + (tile >>> 6)] & (1L << tile)) != 0;
+	}
+
+	/**
+	 * Gets the count of possibilities left at a position without creating a view.
+	 * @param  cell index of the position as returned by getCell(), -1 for the border
+	 * @return      count of possibilities remaining
+	 */
+	public int getPossibilityCount(int cell){
+		if(cell < 0)
+			return borderSP == null ? 0 : borderSP.getPossibilityCount();
+		int count = 0;
+		for(int w = cell * words; w < (cell + 1) * words; w++)
+			count += Long.bitCount(domains[w]);
+		return count;
+	}
+
+	/**
+	 * Gets the index of a still possible tile at a position.
+	 * @param  cell        index of the position
+	 * @param  possibility which of the possible tiles to get, counted from 0
+	 * @return             index of the tile inside the tileset or -1 if there are fewer possibilities
+	 */
+	public int getPossibleTile(int cell, int possibility){
+		for(int w = 0; w < words && possibility >= 0; w++){
+			long word = domains[cell * words + w];
+			int count = Long.bitCount(word);
+			if(possibility < count){
+				for(int i = 0; i < possibility; i++)
+					word &= word - 1;
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			}
+			possibility -= count;
+		}
+		return -1;
+	}
+
+	/**
+	 * Chooses a random tile out of the possibilities of a position with a
+	 * probability proportional to the weights of the tiles.
+	 * @param  cell index of the position
+	 * @param  rand random generator to use
+	 * @return      index of the tile inside the tileset or -1 if there are no possibilities
+	 */
+	public int sampleTile(int cell, Random rand){
+		if(tileset.hasUniformWeights()){
+			int count = getPossibilityCount(cell);
+			return count == 0 ? -1 : getPossibleTile(cell, rand.nextInt(count));
+		}
+		return tileset.sample(domains, cell * words, rand);
+	}
+
+	/**
+	 * Tests if a position is fully collapsed without creating a view.
+	 * @param  cell index of the position as returned by getCell(), -1 for the border
+	 * @return      true if exactly one possibility is left
+	 */
+	public boolean isCollapsed(int cell){
+		return getPossibilityCount(cell) == 1;
 	}
 
 	/**
@@ -80,38 +335,162 @@ public class Gridstate {
 		return height;
 	}
 
+	/**
+	 * Getter Function for the count of layers of the grid.
+	 * @return Depth of the grid, 1 for a grid without layers
+	 */
+	public int getDepth(){
+		return depth;
+	}
+
+	/**
+	 * Gets the count of dimensions of the grid, the neighbours of a position are in
+	 * the first 2 * getDimensions() directions of Direction.
+	 * @return 3 if the grid has more than one layer, 2 otherwise
+	 */
+	public int getDimensions(){
+		return depth > 1 ? 3 : 2;
+	}
+
+	/**
+	 * Gets the count of positions of the grid.
+	 * @return width * height * depth
+	 */
+	public int getCellCount(){
+		return width * height * depth;
+	}
+
+	/**
+	 * Getter Function for the tileset of the grid.
+	 * @return Tileset the grid was filled with
+	 */
+	public Tileset getTileset(){
+		return tileset;
+	}
+
 	/**
 	 * Collapses the State until a random choice is needed or the grid
-	 * can't be finished.
+	 * can't be finished. Only the positions that depend on a changed position
+	 * are checked again. Changed positions are first handed to the propagators
+	 * of the rules, then the positions depending on them are checked with Rule.getState().
 	 * @return  true if it stopped because the grid can't be finished
 	 */
 	public boolean collapse(){
+		SolverMetrics.Counters counters = this.counters;
+		if(counters != null)
+			counters.propagations++;
+		while(true){
+			int cell = changed.poll();
+			if(cell >= 0){
+				if(counters != null)
+					counters.propagatedCells++;
+				if(getPossibilityCount(cell) == 0 || !propagateChange(cell)){
+					clearQueues();
+					return true;
+				}
+				continue;
+			}
+
+			cell = queue.poll();
+			if(cell < 0)
+				return false;
+			cursor.moveTo(cell);
+			cursor.collapsePossibilities(this);
+			if(cursor.getPossibilityCount() == 0){
+				clearQueues();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Hands a changed position to all propagators and marks its dependents.
+	 * @param  cell index of the changed position
+	 * @return      false if a position has no possibilities left
+	 */
+	private boolean propagateChange(int cell){
+		markCell(cell);
+		for(Propagator p:propagators)
+			if(!p.propagate(this, cell))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Removes all positions that are left to check.
+	 */
+	private void clearQueues(){
+		queue.clear();
+		changed.clear();
+	}
+
+	/**
+	 * Collapses the State like collapse(), but checks the whole grid
+	 * until a pass over it doesn't change anything. This is the original
+	 * propagation and is kept as a reference for collapse(), it only
+	 * evaluates Rule.getState() and ignores the propagators.
+	 * @return  true if it stopped because the grid can't be finished
+	 */
+	public boolean collapseSweep(){
+		clearQueues();
 		boolean collapsedSomething = true;
 		while(collapsedSomething){
 			collapsedSomething = false;
 			
-			for(int x = 0; x < width; x++) {
-				for(int y = 0; y < height; y++) {
-					Superposition s = grid[x][y];
-					collapsedSomething |= s.collapsePossibilities(this);
+			for(int z = 0; z < depth; z++) {
+				for(int x = 0; x < width; x++) {
+					for(int y = 0; y < height; y++) {
+						cursor.moveTo(x + (y + z * height) * width);
+						collapsedSomething |= cursor.collapsePossibilities(this);
 
-					if(s.getPossibilityCount() == 0)
-						return true;
+						if(cursor.getPossibilityCount() == 0)
+							return true;
+					}
 				}
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * Marks every position that depends on the given position so the next
+	 * call of collapse() checks them again. Changes of Superpositions of the
+	 * grid are marked automatically.
+	 * @param x x-Coordinate of the changed position
+	 * @param y y-Coordinate of the changed position
+	 */
+	public void markChanged(int x, int y){
+		markChanged(x, y, 0);
+	}
+
+	/**
+	 * Marks every position that depends on the given position of a grid with layers,
+	 * like markChanged(x, y).
+	 * @param x x-Coordinate of the changed position
+	 * @param y y-Coordinate of the changed position
+	 * @param z layer of the changed position
+	 */
+	public void markChanged(int x, int y, int z){
+		markCell(x + (y + z * height) * width);
+	}
+
+	/**
+	 * Marks every position that depends on a position given by its index.
+	 * @param cell index of the changed position
+	 */
+	private void markCell(int cell){
+		for(Rule r:rules)
+			r.addDependents(this, cell, queue);
+	}
+
 	/**
 	 * Tests if the grid is fully collapsed.
 	 * @return true if every Superposition is fully collapsed
 	 */
 	public boolean isFinished(){
-		for(int x = 0; x < width; x++)
-			for(int y = 0; y < height; y++)
-				if(!grid[x][y].isCollapsed())
-					return false;
+		for(int cell = 0; cell < getCellCount(); cell++)
+			if(!isCollapsed(cell))
+				return false;
 		return true;
 	}
 
@@ -126,10 +505,13 @@ public class Gridstate {
 	public Gridstate makeRandomChoice(Random rand){
 		//count possibilities
 		int totalPossibilities = 0;
-		for(int x = 0; x < width; x++)
-			for(int y = 0; y < height; y++)
-				if(!grid[x][y].isCollapsed())
-					totalPossibilities += grid[x][y].getPossibilityCount();
+		for(int z = 0; z < depth; z++)
+			for(int x = 0; x < width; x++)
+				for(int y = 0; y < height; y++){
+					int posCount = getPossibilityCount(x + (y + z * height) * width);
+					if(posCount != 1)
+						totalPossibilities += posCount;
+				}
 
 		//makes sure that every possibility is only tried once
 		int chooseFrom = totalPossibilities;
@@ -152,26 +534,27 @@ public class Gridstate {
 				if(chosenPossibility == 0){
 					chosenPossibility = i;
 					triedChoices[i] = true;
+					break;
 				}
 				chosenPossibility--;
 			}
 		}
 
-		for(int x = 0; x < width; x++)
-			for(int y = 0; y < height; y++)
-				if(!grid[x][y].isCollapsed()){
-					int posCount = grid[x][y].getPossibilityCount();
-					if(chosenPossibility < posCount){
-						Superposition[][] cloneGrid = cloneGrid();
-						cloneGrid[x][y].collapseToFromPossible(chosenPossibility);
-						return new Gridstate(cloneGrid, looping, borderSP);
+		for(int z = 0; z < depth; z++)
+			for(int x = 0; x < width; x++)
+				for(int y = 0; y < height; y++)
+					if(!isCollapsed(x + (y + z * height) * width)){
+						int posCount = getPossibilityCount(x + (y + z * height) * width);
+						if(chosenPossibility < posCount){
+							Gridstate g = new Gridstate(width, height, depth, domains.clone(), looping, borderSP, tileset, topology);
+							g.getPosition(x, y, z).collapseToFromPossible(chosenPossibility);
+							return g;
+						}
+						chosenPossibility -= posCount;
 					}
-					chosenPossibility -= posCount;
-				}
 
-		//should not happen
-		System.out.println("Fuck");
-		return null;
+		throw new IllegalStateException("Possibility " + chosenPossibility + " is outside of the "
+			+ totalPossibilities + " possibilities of the grid");
 	}
 
 	/**
@@ -179,40 +562,365 @@ public class Gridstate {
 	 * @return Clone of the Gridstate object
 	 */
 	public Object clone(){
-		return new Gridstate(cloneGrid(), looping, borderSP);
+		Gridstate g = new Gridstate(width, height, depth, domains.clone(), looping, borderSP, tileset, topology);
+		g.queue.addAll();
+		g.changed.addAll();
+		return g;
 	}
 
 	/**
 	 * Converts the Grid to its String representation. If a Superposition has collapsed
 	 * the id of the collapsed tile will be written at that position in the grid,
-	 * otherwise a "~"-Symbol will be there.
+	 * otherwise a "~"-Symbol will be there. The layers of a grid with layers are
+	 * separated by an empty line.
 	 * @return String representation
 	 */
 	public String toString(){
-		String total = "";
-		for(int y = 0; y < height; y++){
+		StringBuilder sb = new StringBuilder(getCellCount() * 3);
+		try {
+			write(sb);
+		} catch(IOException e) {
+			//StringBuilder doesn't throw
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the String representation of toString() to a Writer or any other Appendable
+	 * one position at a time, without building the whole String first.
+	 * @param  out where to write to
+	 * @throws IOException if out throws it
+	 */
+	public void write(Appendable out) throws IOException {
+		for(int row = 0; row < height * depth; row++){
+			if(row > 0)
+				out.append(row % height == 0 ? "\n\n" : "\n");
 			for(int x = 0; x < width; x++){
-				Superposition s = grid[x][y];
-				if(s.isCollapsed()){
-					total += s.getTile().getId() + " ";
+				int cell = x + row * width;
+				if(getPossibilityCount(cell) == 1){
+					out.append(Integer.toString(tileset.get(getPossibleTile(cell, 0)).getId())).append(' ');
 				} else {
-					total += "~ ";
+					out.append("~ ");
 				}
 			}
-			total += '\n';
 		}
-		return total.substring(0, total.length() - 1);
 	}
 
 	/**
-	 * Clones the grid.
-	 * @return Clone of the 2D-Array of Superpositions
+	 * Creates the domains of a grid where every tile is possible.
+	 * @param  cells   count of positions
+	 * @param  tileset the tileset of the grid
+	 * @return         the domains
+	 */
+	private static long[] filledDomains(int cells, Tileset tileset){
+		long[] domains = new long[cells * tileset.words()];
+		for(int cell = 0; cell < cells; cell++)
+			tileset.fill(domains, cell * tileset.words());
+		return domains;
+	}
+
+	/**
+	 * Copies the domains of a grid of Superpositions into one array.
+	 * @param  grid the grid of Superpositions
+	 * @return      the domains
 	 */
-	private Superposition[][] cloneGrid(){
-		Superposition[][] cloneGrid = new Superposition[width][height];
+	private static long[] copyDomains(Superposition[][] grid){
+		int width = grid.length;
+		int words = grid[0][0].getTileset().words();
+		long[] domains = new long[width * grid[0].length * words];
 		for(int x = 0; x < width; x++)
-			for(int y = 0; y < height; y++)
-				cloneGrid[x][y] = (Superposition) grid[x][y].clone();
-		return cloneGrid;
+			for(int y = 0; y < grid[0].length; y++)
+				grid[x][y].copyTo(domains, (x + y * width) * words);
+		return domains;
+	}
+
+	/**
+	 * Creates the propagators of all rules for this grid.
+	 * @return the propagators of the rules that have one
+	 */
+	private Propagator[] createPropagators(){
+		int count = 0;
+		for(int i = 0; i < rules.length; i++){
+			rulePropagators[i] = rules[i].createPropagator(this);
+			if(rulePropagators[i] != null)
+				count++;
+		}
+		Propagator[] result = new Propagator[count];
+		count = 0;
+		for(Propagator p:rulePropagators)
+			if(p != null)
+				result[count++] = p;
+		return result;
+	}
+
+	/**
+	 * Gets the Propagator a rule created for this grid. Rules that keep
+	 * state for every grid use it to find their state in getState().
+	 * @param  r the rule
+	 * @return   the Propagator of the rule or null
+	 */
+	public Propagator getPropagator(Rule r){
+		for(int i = 0; i < rules.length; i++)
+			if(rules[i] == r)
+				return rulePropagators[i];
+		return null;
+	}
+
+	/**
+	 * Getter Function for the array holding the domains of all positions.
+	 * @return the domains
+	 */
+	long[] getDomains(){
+		return domains;
+	}
+
+	/**
+	 * Sets one word of the domain of a position. Every change of a domain
+	 * inside the grid goes through this function.
+	 * @param cell  index of the position
+	 * @param word  index of the word inside the domain
+	 * @param value new value of the word
+	 */
+	void setWord(int cell, int word, long value){
+		int i = cell * words + word;
+		long before = domains[i];
+		if(trail != null)
+			trail.record(i, before);
+		domains[i] = value;
+		changed.addCell(cell);
+		for(DomainListener l:listeners)
+			l.domainChanged(this, cell, word, before, value);
+	}
+
+	/**
+	 * Removes every tile from the domain of a position that isn't in a mask.
+	 * Used by propagators to change other positions.
+	 * @param  cell    index of the position, -1 (the border) is ignored
+	 * @param  allowed the tiles that stay possible as a bitset with the same layout as the domains
+	 * @return         false if the position has no possibilities left
+	 */
+	public boolean restrict(int cell, long[] allowed){
+		if(cell < 0)
+			return true;
+		boolean empty = true;
+		for(int w = 0; w < words; w++){
+			long before = domains[cell * words + w];
+			long after = before & allowed[w];
+			if(after != before)
+				setWord(cell, w, after);
+			empty &= after == 0;
+		}
+		return !empty;
+	}
+
+	/**
+	 * Collects the union of the masks of all tiles that are possible at a position.
+	 * Used by propagators that store a mask of compatible tiles for every tile.
+	 * @param  cell   index of the position, -1 collects the tiles possible at the border
+	 * @param  masks  the mask of every tile, the mask of tile i starts at masks[i * words]
+	 * @param  result array of length words the union is written to
+	 */
+	public void unionOfMasks(int cell, long[] masks, long[] result){
+		for(int w = 0; w < words; w++)
+			result[w] = 0;
+		for(int w = 0; w < words; w++){
+			long word = cell < 0 ? borderWord(w) : domains[cell * words + w];
+			for(; word != 0; word &= word - 1){
+				int offset = ((w << 6) + Long.numberOfTrailingZeros(word)) * words;
+				for(int r = 0; r < words; r++)
+					result[r] |= masks[offset + r];
+			}
+		}
+	}
+
+	/**
+	 * Getter Function for the evaluator of the rules of the tileset on this grid.
+	 * @return the evaluator
+	 */
+	RuleEvaluator getEvaluator(){
+		return evaluator;
+	}
+
+	/**
+	 * Copies the domain of a position.
+	 * @param cell   index of the position
+	 * @param result array of length words the domain is written to
+	 */
+	public void getDomain(int cell, long[] result){
+		System.arraycopy(domains, cell * words, result, 0, words);
+	}
+
+	/**
+	 * Tests if any tile of a mask is possible at a position.
+	 * @param  cell   index of the position, -1 tests the border
+	 * @param  mask   the tiles to test for as a bitset with the same layout as the domains
+	 * @param  offset index of the first word of the mask
+	 * @return        true if at least one of the tiles is possible
+	 */
+	public boolean intersects(int cell, long[] mask, int offset){
+		for(int w = 0; w < words; w++){
+			long word = cell < 0 ? borderWord(w) : domains[cell * words + w];
+			if((word & mask[offset + w]) != 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Gets a word of the domain of the border, every tile is possible if there is no border.
+	 * @param  w index of the word
+	 * @return   the word of the domain
+	 */
+	private long borderWord(int w){
+		long word = 0;
+		for(int b = 0; b < 64 && (w << 6) + b < tileset.size(); b++)
+			if(borderSP == null || borderSP.tilePossible(tileset.get((w << 6) + b)))
+				word |= 1L << b;
+		return word;
+	}
+
+	/**
+	 * Getter Function for the amount of long words per domain.
+	 * @return count of 64-bit words per domain
+	 */
+	public int getWords(){
+		return words;
+	}
+
+	/**
+	 * Adds an object that is notified about every change of a domain of the grid.
+	 * @param l the listener to add
+	 */
+	public void addListener(DomainListener l){
+		DomainListener[] newListeners = new DomainListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+		newListeners[listeners.length] = l;
+		listeners = newListeners;
+	}
+
+	/**
+	 * Removes an object added by addListener().
+	 * @param l the listener to remove
+	 */
+	public void removeListener(DomainListener l){
+		for(int i = 0; i < listeners.length; i++){
+			if(listeners[i] == l){
+				DomainListener[] newListeners = new DomainListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, newListeners, 0, i);
+				System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+				listeners = newListeners;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Starts recording every domain change, so they can be undone with undoTrail().
+	 */
+	void startTrail(){
+		if(trail == null)
+			trail = new Trail();
+	}
+
+	/**
+	 * Getter Function for the trail of the grid.
+	 * @return the trail or null if changes aren't recorded
+	 */
+	Trail getTrail(){
+		return trail;
+	}
+
+	/**
+	 * Gets a mark of the current state that undoTrail() can go back to.
+	 * @return the mark
+	 */
+	int trailMark(){
+		return trail.size();
+	}
+
+	/**
+	 * Undoes every domain change since a mark in reverse order.
+	 * Positions left to check by collapse() are dropped.
+	 * @param mark the mark returned by trailMark()
+	 */
+	void undoTrail(int mark){
+		clearQueues();
+		while(trail.size() > mark){
+			int i = trail.size() - 1;
+			int position = trail.getPosition(i);
+			long before = domains[position];
+			domains[position] = trail.getValue(i);
+			trail.pop();
+			for(DomainListener l:listeners)
+				l.domainChanged(this, position / words, position % words, before, domains[position]);
+		}
+	}
+
+	/**
+	 * Creates a copy of the grid as it was at a mark of the trail. The copy starts
+	 * without a trail, counters or listeners and without any positions to check, so
+	 * the state at the mark has to be propagated already.
+	 * @param  mark the mark returned by trailMark()
+	 * @return      the copy
+	 */
+	Gridstate copyAt(int mark){
+		long[] copy = domains.clone();
+		for(int i = trail.size() - 1; i >= mark; i--)
+			copy[trail.getPosition(i)] = trail.getValue(i);
+		return new Gridstate(width, height, depth, copy, looping, borderSP, tileset, topology);
+	}
+
+	/**
+	 * Sets every domain of the grid to the domains of a snapshot. Only the words that
+	 * differ are changed, so listeners and propagators follow like for any other change
+	 * and the changed positions are checked by the next collapse(). The trail is cleared.
+	 * @param snapshot a copy of the domains of a grid of the same size and tileset
+	 */
+	void restore(long[] snapshot){
+		clearQueues();
+		if(trail != null)
+			trail.clear();
+		for(int i = 0; i < domains.length; i++)
+			if(domains[i] != snapshot[i])
+				setWord(i / words, i % words, snapshot[i]);
+	}
+
+	/**
+	 * Sets every domain of the grid to a snapshot taken after collapse() finished,
+	 * like restore() but the changed positions aren't checked again, a propagated
+	 * grid can't lose any more possibilities.
+	 * @param fixpoint a copy of the domains of a propagated grid of the same size and tileset
+	 */
+	void reset(long[] fixpoint){
+		restore(fixpoint);
+		clearQueues();
+	}
+
+	/**
+	 * Collapses a position to a single tile.
+	 * @param cell index of the position
+	 * @param tile index of the tile inside the tileset
+	 */
+	void collapseCell(int cell, int tile){
+		cursor.moveTo(cell);
+		cursor.collapseTo(tile);
+	}
+
+	/**
+	 * Removes a single tile from a position. Used by propagators that
+	 * remove tiles one at a time.
+	 * @param  cell index of the position
+	 * @param  tile index of the tile inside the tileset
+	 * @return      false if the position has no possibilities left
+	 */
+	public boolean removeTile(int cell, int tile){
+		int word = tile >>> 6;
+		long before = domains[cell * words + word];
+		if((before & (1L << tile)) != 0)
+			setWord(cell, word, before & ~(1L << tile));
+		for(int w = cell * words; w < (cell + 1) * words; w++)
+			if(domains[w] != 0)
+				return true;
+		return false;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,81 @@
+package math.wfc;
+import java.util.Random;
+
+/**
+ * A CellSelector that chooses a random position out of the positions with the fewest
+ * possibilities left. With equally likely tiles this is the position with the lowest
+ * Shannon entropy. The positions are kept in a bucket queue sorted by their count of
+ * possibilities, so selecting and updating a position doesn't depend on the grid size.
+ */
+public class MinimumEntropySelector implements CellSelector {
+	//all positions sorted by their count of possibilities, the positions with
+	//count k are order[start[k]] to order[start[k+1] - 1]
+	private int[] order;
+	private int[] position;
+	private int[] count;
+	private int[] start;
+	private int maxCount;
+
+	public void init(Gridstate grid, Random rand){
+		int cells = grid.getCellCount();
+		maxCount = grid.getTileset().size();
+		order = new int[cells];
+		position = new int[cells];
+		count = new int[cells];
+		start = new int[maxCount + 2];
+
+		//counting sort of the positions
+		for(int cell = 0; cell < cells; cell++){
+			count[cell] = grid.getPossibilityCount(cell);
+			start[count[cell] + 1]++;
+		}
+		for(int k = 1; k < start.length; k++)
+			start[k] += start[k - 1];
+		int[] next = start.clone();
+		for(int cell = 0; cell < cells; cell++){
+			order[next[count[cell]]] = cell;
+			position[cell] = next[count[cell]];
+			next[count[cell]]++;
+		}
+	}
+
+	public void domainChanged(Gridstate grid, int cell, int word, long before, long after){
+		int newCount = count[cell] + Long.bitCount(after) - Long.bitCount(before);
+		//moves the position one bucket at a time by swapping it to the bucket border
+		while(count[cell] > newCount){
+			int k = count[cell];
+			swap(cell, order[start[k]]);
+			start[k]++;
+			count[cell]--;
+		}
+		while(count[cell] < newCount){
+			int k = count[cell];
+			swap(cell, order[start[k + 1] - 1]);
+			start[k + 1]--;
+			count[cell]++;
+		}
+	}
+
+	public int selectCell(Random rand){
+		for(int k = 2; k <= maxCount; k++){
+			int size = start[k + 1] - start[k];
+			if(size > 0)
+				return order[start[k] + rand.nextInt(size)];
+		}
+		return -1;
+	}
+
+	/**
+	 * Swaps two positions in the order.
+	 * @param a the first position
+	 * @param b the second position
+	 */
+	private void swap(int a, int b){
+		int posA = position[a];
+		int posB = position[b];
+		order[posA] = b;
+		order[posB] = a;
+		position[a] = posB;
+		position[b] = posA;
+	}
+}
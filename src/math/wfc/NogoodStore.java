@@ -0,0 +1,302 @@
+package math.wfc;
+
+/**
+ * A bounded store of nogoods learned by the trail mode of WFC_Handler. A nogood is a set of
+ * choices, every choice a position and the tile it was collapsed to, that can't all be made
+ * together in any solution of the grid. Nogoods are propagated on every grid that is watched
+ * by the store: once all choices of a nogood but one hold, the tile of the last choice is
+ * removed from its position, if all of them hold the grid can't be finished.
+ * <p>
+ * Every grid watches two choices of each nogood that don't hold, a nogood is only looked at
+ * when one of them starts to hold. Undoing changes never makes a watched choice hold, so the
+ * watches don't have to follow the trail. When the store is full the nogood that was learned
+ * or used the longest time ago is removed.
+ */
+class NogoodStore {
+	private final int cells;
+	private final int capacity;
+
+	//choices of the nogood in every slot as position, tile pairs, null for a free slot
+	private final int[][] nogoods;
+	//value of clock when the nogood in a slot was learned or last removed a tile
+	private final long[] lastUsed;
+	private long clock;
+	private int size;
+
+	private Watcher[] watchers = new Watcher[0];
+
+	/**
+	 * Constructor for an empty store.
+	 * @param cells    count of positions of the grids the nogoods belong to
+	 * @param capacity the most nogoods that are kept
+	 */
+	NogoodStore(int cells, int capacity){
+		this.cells = cells;
+		this.capacity = capacity;
+		nogoods = new int[capacity][];
+		lastUsed = new long[capacity];
+	}
+
+	/**
+	 * Adds a nogood, removing the least recently used one if the store is full. The
+	 * choices should be in the order they were made, the watched grids watch the last
+	 * ones that hold if not enough of them are left.
+	 * @param cells positions of the choices
+	 * @param tiles tiles of the choices
+	 * @param count count of choices
+	 */
+	void add(int[] cells, int[] tiles, int count){
+		int slot = 0;
+		if(size == capacity){
+			for(int s = 1; s < capacity; s++)
+				if(lastUsed[s] < lastUsed[slot])
+					slot = s;
+			remove(slot);
+		} else {
+			while(nogoods[slot] != null)
+				slot++;
+		}
+		int[] choices = new int[2 * count];
+		for(int i = 0; i < count; i++){
+			choices[2 * i] = cells[i];
+			choices[2 * i + 1] = tiles[i];
+		}
+		nogoods[slot] = choices;
+		lastUsed[slot] = ++clock;
+		size++;
+		for(Watcher w:watchers)
+			w.add(slot);
+	}
+
+	/**
+	 * Removes the nogood in a slot.
+	 * @param slot the slot
+	 */
+	private void remove(int slot){
+		for(Watcher w:watchers)
+			w.remove(slot);
+		nogoods[slot] = null;
+		size--;
+	}
+
+	/**
+	 * Removes every nogood.
+	 */
+	void clear(){
+		for(int slot = 0; slot < capacity; slot++)
+			if(nogoods[slot] != null)
+				remove(slot);
+	}
+
+	/**
+	 * Starts propagating the nogoods on a grid.
+	 * @param  grid the grid, it has to have the positions the nogoods were learned for
+	 * @return      the Watcher of the grid, it has to be handed to unwatch() when the
+	 *              grid isn't searched anymore
+	 */
+	Watcher watch(Gridstate grid){
+		Watcher w = new Watcher(grid);
+		Watcher[] newWatchers = new Watcher[watchers.length + 1];
+		System.arraycopy(watchers, 0, newWatchers, 0, watchers.length);
+		newWatchers[watchers.length] = w;
+		watchers = newWatchers;
+		for(int slot = 0; slot < capacity; slot++)
+			if(nogoods[slot] != null)
+				w.add(slot);
+		grid.addListener(w);
+		return w;
+	}
+
+	/**
+	 * Stops propagating the nogoods on a grid.
+	 * @param w the watcher returned by watch()
+	 */
+	void unwatch(Watcher w){
+		w.grid.removeListener(w);
+		for(int i = 0; i < watchers.length; i++){
+			if(watchers[i] == w){
+				Watcher[] newWatchers = new Watcher[watchers.length - 1];
+				System.arraycopy(watchers, 0, newWatchers, 0, i);
+				System.arraycopy(watchers, i + 1, newWatchers, i, watchers.length - i - 1);
+				watchers = newWatchers;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Watches two choices of every nogood on a grid and collects the positions that
+	 * collapsed since the nogoods were last propagated on it.
+	 */
+	class Watcher implements DomainListener {
+		private final Gridstate grid;
+		//index of the two watched choices in the nogood of every slot
+		private final int[] watched = new int[2 * capacity];
+		//watching[cell] holds the slots with a watched choice at a position
+		private final int[][] watching = new int[cells][];
+		private final int[] watchingSize = new int[cells];
+		private int[] pending = new int[16];
+		private int pendingSize;
+
+		Watcher(Gridstate grid){
+			this.grid = grid;
+		}
+
+		/**
+		 * Tests if a choice holds on the grid.
+		 * @param  choices the choices of a nogood
+		 * @param  i       index of the choice
+		 * @return         true if the position is collapsed to the tile of the choice
+		 */
+		private boolean holds(int[] choices, int i){
+			return grid.isCollapsed(choices[2 * i]) && grid.tilePossible(choices[2 * i], choices[2 * i + 1]);
+		}
+
+		/**
+		 * Chooses the watched choices of a new nogood, choices that don't hold first
+		 * and otherwise the last ones.
+		 * @param slot the slot of the nogood
+		 */
+		void add(int slot){
+			int[] choices = nogoods[slot];
+			int n = choices.length / 2;
+			int first = -1, second = -1;
+			for(int i = 0; i < n && second < 0; i++){
+				if(!holds(choices, i)){
+					if(first < 0){
+						first = i;
+					} else {
+						second = i;
+					}
+				}
+			}
+			for(int i = n - 1; i >= 0 && second < 0; i--){
+				if(first < 0){
+					first = i;
+				} else if(i != first){
+					second = i;
+				}
+			}
+			watched[2 * slot] = first;
+			startWatching(choices[2 * first], slot);
+			watched[2 * slot + 1] = second;
+			if(second >= 0)
+				startWatching(choices[2 * second], slot);
+		}
+
+		/**
+		 * Stops watching the choices of a removed nogood.
+		 * @param slot the slot of the nogood
+		 */
+		void remove(int slot){
+			int[] choices = nogoods[slot];
+			stopWatching(choices[2 * watched[2 * slot]], slot);
+			if(watched[2 * slot + 1] >= 0)
+				stopWatching(choices[2 * watched[2 * slot + 1]], slot);
+		}
+
+		private void startWatching(int cell, int slot){
+			int[] slots = watching[cell];
+			if(slots == null){
+				slots = new int[4];
+				watching[cell] = slots;
+			} else if(watchingSize[cell] == slots.length){
+				slots = new int[slots.length * 2];
+				System.arraycopy(watching[cell], 0, slots, 0, watchingSize[cell]);
+				watching[cell] = slots;
+			}
+			slots[watchingSize[cell]++] = slot;
+		}
+
+		private void stopWatching(int cell, int slot){
+			int[] slots = watching[cell];
+			for(int j = 0; j < watchingSize[cell]; j++){
+				if(slots[j] == slot){
+					slots[j] = slots[--watchingSize[cell]];
+					return;
+				}
+			}
+		}
+
+		public void domainChanged(Gridstate grid, int cell, int word, long before, long after){
+			//undoing the trail only adds tiles back
+			if((after & ~before) != 0 || before == after || watchingSize[cell] == 0)
+				return;
+			int count = grid.getPossibilityCount(cell);
+			if(count != 1 || count + Long.bitCount(before) - Long.bitCount(after) == 1)
+				return;
+			if(pendingSize == pending.length){
+				int[] newPending = new int[pending.length * 2];
+				System.arraycopy(pending, 0, newPending, 0, pending.length);
+				pending = newPending;
+			}
+			pending[pendingSize++] = cell;
+		}
+
+		/**
+		 * Tests if positions collapsed since the last propagation.
+		 * @return true if propagate() has something to do
+		 */
+		boolean hasPending(){
+			return pendingSize > 0;
+		}
+
+		/**
+		 * Forgets the collapsed positions, used after the changes were undone.
+		 */
+		void clear(){
+			pendingSize = 0;
+		}
+
+		/**
+		 * Looks at the nogoods with a watched choice at the collapsed positions and
+		 * moves the watch to another choice that doesn't hold. The removed tiles have
+		 * to be propagated by Gridstate.collapse() afterwards.
+		 * @return false if all choices of a nogood hold or a position has no possibilities left
+		 */
+		boolean propagate(){
+			while(pendingSize > 0){
+				int cell = pending[--pendingSize];
+				if(!grid.isCollapsed(cell))
+					continue;
+				int[] slots = watching[cell];
+				for(int j = 0; j < watchingSize[cell]; ){
+					int slot = slots[j];
+					int[] choices = nogoods[slot];
+					int w = choices[2 * watched[2 * slot]] == cell ? 2 * slot : 2 * slot + 1;
+					int other = watched[4 * slot + 1 - w];
+					if(!grid.tilePossible(cell, choices[2 * watched[w] + 1])){
+						j++;
+						continue;
+					}
+					int n = choices.length / 2, next = -1;
+					for(int i = 0; i < n && next < 0; i++)
+						if(i != watched[w] && i != other && !holds(choices, i))
+							next = i;
+					if(next >= 0){
+						//the slot leaves the list of the position, j now holds another slot
+						slots[j] = slots[--watchingSize[cell]];
+						watched[w] = next;
+						startWatching(choices[2 * next], slot);
+						continue;
+					}
+					j++;
+					if(other < 0 || holds(choices, other)){
+						lastUsed[slot] = ++clock;
+						pendingSize = 0;
+						return false;
+					}
+					int otherTile = choices[2 * other + 1];
+					if(grid.tilePossible(choices[2 * other], otherTile)){
+						lastUsed[slot] = ++clock;
+						if(!grid.removeTile(choices[2 * other], otherTile)){
+							pendingSize = 0;
+							return false;
+						}
+					}
+				}
+			}
+			return true;
+		}
+	}
+}
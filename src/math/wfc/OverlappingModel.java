@@ -0,0 +1,335 @@
+package math.wfc;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import math.wfc.rules.AdjacencyRule;
+import math.wfc.rules.Direction;
+import math.wfc.rules.Rule;
+
+/**
+ * The overlapping model of Wave function collapse. Every N x N area of a sample image
+ * becomes a pattern, optionally together with its rotations and reflections. Equal
+ * patterns are merged, how often a pattern occurs becomes the weight of its tile. Two
+ * patterns may be placed next to each other if they agree on the positions they overlap
+ * when shifted by one position. The tiles share one AdjacencyRule and can be used with
+ * Gridstate and WFC_Handler like any other tileset, a generated grid is turned back into
+ * an image by taking the top left color of the pattern at every position.
+ */
+public class OverlappingModel {
+    //base of the polynomial hash of the patterns
+    private final static long BASE = 0x9E3779B97F4A7C15L;
+
+    private final int n;
+    private final int[] palette;
+    //patterns[p * n * n + x + y * n] is the color index at (x, y) of pattern p
+    private int[] patterns;
+    private int[] frequencies;
+    private int patternCount;
+    private final Tile[] tiles;
+
+    /**
+     * Constructor for an OverlappingModel from a sample image.
+     * @param  sample        the sample image
+     * @param  n             width and height of the patterns
+     * @param  symmetry      count of variants of every pattern, from 1 (only the pattern itself)
+     *                       to 8 (all rotations and reflections)
+     * @param  periodicInput whether the patterns wrap around the borders of the sample
+     */
+    public OverlappingModel(BufferedImage sample, int n, int symmetry, boolean periodicInput) {
+        this(sample.getRGB(0, 0, sample.getWidth(), sample.getHeight(), null, 0, sample.getWidth()),
+            sample.getWidth(), sample.getHeight(), n, symmetry, periodicInput);
+    }
+
+    /**
+     * Constructor for an OverlappingModel from the pixels of a sample.
+     * @param  pixels        the ARGB colors of the sample row by row
+     * @param  width         width of the sample
+     * @param  height        height of the sample
+     * @param  n             width and height of the patterns
+     * @param  symmetry      count of variants of every pattern, from 1 (only the pattern itself)
+     *                       to 8 (all rotations and reflections)
+     * @param  periodicInput whether the patterns wrap around the borders of the sample
+     */
+    public OverlappingModel(int[] pixels, int width, int height, int n, int symmetry, boolean periodicInput) {
+        if(symmetry < 1 || symmetry > 8)
+            throw new IllegalArgumentException("Symmetry has to be between 1 and 8");
+        if(n < 2 || (!periodicInput && (n > width || n > height)))
+            throw new IllegalArgumentException("Patterns have to be at least 2 and at most the sample wide");
+        this.n = n;
+
+        //colors are replaced by their index in the palette
+        HashMap<Integer, Integer> colorIndex = new HashMap<Integer, Integer>();
+        int[] sample = new int[pixels.length];
+        int[] colors = new int[16];
+        for(int i = 0; i < pixels.length; i++){
+            Integer c = colorIndex.get(pixels[i]);
+            if(c == null){
+                c = colorIndex.size();
+                colorIndex.put(pixels[i], c);
+                if(c == colors.length)
+                    colors = Arrays.copyOf(colors, c * 2);
+                colors[c] = pixels[i];
+            }
+            sample[i] = c;
+        }
+        palette = Arrays.copyOf(colors, colorIndex.size());
+
+        extract(sample, width, height, symmetry, periodicInput);
+        tiles = createTiles();
+    }
+
+    /**
+     * Collects the distinct patterns of the sample and counts them.
+     * @param sample        color indices of the sample
+     * @param width         width of the sample
+     * @param height        height of the sample
+     * @param symmetry      count of variants of every pattern
+     * @param periodicInput whether the patterns wrap around the borders of the sample
+     */
+    private void extract(int[] sample, int width, int height, int symmetry, boolean periodicInput) {
+        int size = n * n;
+        int maxX = periodicInput ? width : width - n + 1;
+        int maxY = periodicInput ? height : height - n + 1;
+
+        //open addressing table from the hash of a pattern to its index
+        int capacity = Integer.highestOneBit(Math.max(16, maxX * maxY * symmetry) * 2);
+        long[] hashes = new long[capacity];
+        int[] indices = new int[capacity];
+        Arrays.fill(indices, -1);
+        patterns = new int[16 * size];
+        frequencies = new int[16];
+
+        //B^(n - 1) removes the color leaving the window, B^n moves a row hash up by one row
+        long leaving = 1;
+        for(int i = 0; i < n - 1; i++)
+            leaving *= BASE;
+        long rowShift = leaving * BASE;
+
+        //rolling hash of the n positions right of (x, y) in every row
+        long[] rowHashes = new long[height * maxX];
+        for(int y = 0; y < height; y++){
+            long h = 0;
+            for(int x = 0; x < n; x++)
+                h = h * BASE + sample[(x % width) + y * width] + 1;
+            rowHashes[y * maxX] = h;
+            for(int x = 1; x < maxX; x++){
+                h -= (sample[x - 1 + y * width] + 1) * leaving;
+                h = h * BASE + sample[(x + n - 1) % width + y * width] + 1;
+                rowHashes[x + y * maxX] = h;
+            }
+        }
+
+        int[][] variants = new int[8][size];
+        for(int y = 0; y < maxY; y++){
+            for(int x = 0; x < maxX; x++){
+                long hash = 0;
+                for(int dy = 0; dy < n; dy++)
+                    hash = hash * rowShift + rowHashes[x + ((y + dy) % height) * maxX];
+                for(int dy = 0; dy < n; dy++)
+                    for(int dx = 0; dx < n; dx++)
+                        variants[0][dx + dy * n] = sample[(x + dx) % width + ((y + dy) % height) * width];
+                for(int v = 1; v < symmetry; v++){
+                    //odd variants are reflections of the previous one, even variants its rotation
+                    if(v % 2 == 1){
+                        reflect(variants[v - 1], variants[v]);
+                    } else {
+                        rotate(variants[v - 2], variants[v]);
+                    }
+                }
+                for(int v = 0; v < symmetry; v++){
+                    long h = v == 0 ? hash : hash(variants[v]);
+                    add(variants[v], h, hashes, indices);
+                }
+            }
+        }
+        patterns = Arrays.copyOf(patterns, patternCount * size);
+        frequencies = Arrays.copyOf(frequencies, patternCount);
+    }
+
+    /**
+     * Counts a pattern, adds it if it wasn't seen before.
+     * @param pattern the pattern
+     * @param hash    hash of the pattern
+     * @param hashes  hashes of the table
+     * @param indices pattern indices of the table, -1 for empty slots
+     */
+    private void add(int[] pattern, long hash, long[] hashes, int[] indices) {
+        int size = n * n;
+        int mask = hashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while(indices[slot] >= 0){
+            int p = indices[slot];
+            //different patterns with the same hash are told apart by comparing them
+            if(hashes[slot] == hash && Arrays.equals(patterns, p * size, (p + 1) * size, pattern, 0, size)){
+                frequencies[p]++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if(patternCount == frequencies.length){
+            patterns = Arrays.copyOf(patterns, patterns.length * 2);
+            frequencies = Arrays.copyOf(frequencies, frequencies.length * 2);
+        }
+        System.arraycopy(pattern, 0, patterns, patternCount * size, size);
+        frequencies[patternCount] = 1;
+        hashes[slot] = hash;
+        indices[slot] = patternCount;
+        patternCount++;
+    }
+
+    /**
+     * Calculates the same hash of a pattern as the rolling hash.
+     * @param  pattern the pattern
+     * @return         the hash
+     */
+    private static long hash(int[] pattern) {
+        long h = 0;
+        for(int c:pattern)
+            h = h * BASE + c + 1;
+        return h;
+    }
+
+    /**
+     * Rotates a pattern clockwise.
+     * @param pattern the pattern
+     * @param result  array the rotated pattern is written to
+     */
+    private void rotate(int[] pattern, int[] result) {
+        for(int y = 0; y < n; y++)
+            for(int x = 0; x < n; x++)
+                result[x + y * n] = pattern[y + (n - 1 - x) * n];
+    }
+
+    /**
+     * Mirrors a pattern along the vertical axis.
+     * @param pattern the pattern
+     * @param result  array the mirrored pattern is written to
+     */
+    private void reflect(int[] pattern, int[] result) {
+        for(int y = 0; y < n; y++)
+            for(int x = 0; x < n; x++)
+                result[x + y * n] = pattern[n - 1 - x + y * n];
+    }
+
+    /**
+     * Creates a tile for every pattern and allows every pair of patterns that overlap.
+     * Patterns are grouped by the hash of the part that overlaps, so only patterns
+     * with the same hash are compared.
+     * @return the tiles
+     */
+    private Tile[] createTiles() {
+        AdjacencyRule adjacency = new AdjacencyRule();
+        Rule[] rules = {adjacency};
+        Tile[] tiles = new Tile[patternCount];
+        for(int p = 0; p < patternCount; p++)
+            tiles[p] = new Tile(p, rules, frequencies[p]);
+
+        Direction[] directions = {Direction.RIGHT, Direction.DOWN};
+        for(Direction d:directions){
+            int dx = d.getDx(), dy = d.getDy();
+            //patterns b grouped by the hash of the part that lies under a shifted by (dx, dy)
+            HashMap<Long, int[]> groups = new HashMap<Long, int[]>();
+            for(int b = 0; b < patternCount; b++){
+                long h = overlapHash(b, 0, 0, n - dx, n - dy);
+                int[] group = groups.get(h);
+                if(group == null){
+                    group = new int[] {0, 0, 0, 0};
+                    groups.put(h, group);
+                } else if(group[0] + 1 == group.length){
+                    group = Arrays.copyOf(group, group.length * 2);
+                    groups.put(h, group);
+                }
+                group[++group[0]] = b;
+            }
+            for(int a = 0; a < patternCount; a++){
+                int[] group = groups.get(overlapHash(a, dx, dy, n - dx, n - dy));
+                if(group == null)
+                    continue;
+                for(int i = 1; i <= group[0]; i++)
+                    if(overlaps(a, group[i], dx, dy))
+                        adjacency.allow(tiles[a], d, tiles[group[i]]);
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Hashes a rectangle of a pattern.
+     * @param  p index of the pattern
+     * @param  x x-Coordinate of the rectangle
+     * @param  y y-Coordinate of the rectangle
+     * @param  w width of the rectangle
+     * @param  h height of the rectangle
+     * @return   the hash
+     */
+    private long overlapHash(int p, int x, int y, int w, int h) {
+        long hash = 0;
+        for(int Y = y; Y < y + h; Y++)
+            for(int X = x; X < x + w; X++)
+                hash = hash * BASE + patterns[p * n * n + X + Y * n] + 1;
+        return hash;
+    }
+
+    /**
+     * Tests if pattern b placed at (dx, dy) relative to pattern a agrees with a where they overlap.
+     * @param  a  index of the first pattern
+     * @param  b  index of the second pattern
+     * @param  dx x-offset of b
+     * @param  dy y-offset of b
+     * @return    true if they agree
+     */
+    private boolean overlaps(int a, int b, int dx, int dy) {
+        for(int y = Math.max(0, dy); y < Math.min(n, n + dy); y++)
+            for(int x = Math.max(0, dx); x < Math.min(n, n + dx); x++)
+                if(patterns[a * n * n + x + y * n] != patterns[b * n * n + x - dx + (y - dy) * n])
+                    return false;
+        return true;
+    }
+
+    /**
+     * Gets the tiles of the patterns, the tile with id p belongs to pattern p.
+     * @return the tiles
+     */
+    public Tile[] getTiles() {
+        return tiles;
+    }
+
+    /**
+     * Gets the count of distinct patterns.
+     * @return count of patterns
+     */
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    /**
+     * Gets how often a pattern occurs in the sample, including its variants.
+     * @param  p index of the pattern
+     * @return   count of occurrences
+     */
+    public int getFrequency(int p) {
+        return frequencies[p];
+    }
+
+    /**
+     * Gets the color of the top left position of a pattern.
+     * @param  p index of the pattern
+     * @return   the ARGB color
+     */
+    public int getColor(int p) {
+        return palette[patterns[p * n * n]];
+    }
+
+    /**
+     * Turns a grid generated with the tiles of the model into an image.
+     * @param  grid the grid as returned by WFC_Handler.getGrid()
+     * @return      the image
+     */
+    public BufferedImage toImage(Tile[][] grid) {
+        BufferedImage image = new BufferedImage(grid.length, grid[0].length, BufferedImage.TYPE_INT_ARGB);
+        for(int x = 0; x < grid.length; x++)
+            for(int y = 0; y < grid[0].length; y++)
+                image.setRGB(x, y, getColor(grid[x][y].getId()));
+        return image;
+    }
+}
@@ -0,0 +1,238 @@
+package math.wfc;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A backtracking search that splits the tree of choices over the threads of a ForkJoinPool.
+ * Every choice of a tile t at a position branches into "the position is t" and "t is removed
+ * from the position". The thread follows the first branch itself and hands the second one
+ * to the pool as a task while other threads are running out of work, idle threads steal them.
+ * A task only carries a copy of the domain array from before the choice, every thread keeps
+ * its own Gridstate and restores the copy into it. Besides finding one solution the search can
+ * count all solutions, which also proves that there is none.
+ */
+public class ParallelSearch {
+    //a task is only forked while the pool has fewer queued tasks than this
+    private final static int SURPLUS = 3;
+
+    private final Gridstate grid;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    //state of the current run
+    private volatile boolean stop;
+    private boolean countAll;
+    private ThreadLocal<Worker> workers;
+    private final AtomicReference<long[]> solution = new AtomicReference<long[]>();
+    private final AtomicLong tasks = new AtomicLong();
+
+    /**
+     * Constructor for a ParallelSearch starting from a grid, the grid itself is not changed.
+     * @param  grid the grid to search a solution for
+     */
+    public ParallelSearch(Gridstate grid) {
+        this.grid = grid;
+    }
+
+    /**
+     * Sets the pool running the search, the common pool by default.
+     * @param pool the pool to use
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Searches for a single solution, the other threads stop as soon as one is found.
+     * @return true if a solution was found, false if there is none or the search was cancelled
+     */
+    public boolean solve() {
+        run(false);
+        return solution.get() != null;
+    }
+
+    /**
+     * Searches the whole tree and counts every solution.
+     * @return count of solutions, 0 proves that the grid can't be finished
+     */
+    public long countSolutions() {
+        return run(true);
+    }
+
+    /**
+     * Stops a running search from any thread.
+     */
+    public void cancel() {
+        stop = true;
+    }
+
+    /**
+     * Gets the solution found by solve() or the last solution found by countSolutions().
+     * @return a copy of the grid with every position collapsed or null if there is no solution
+     */
+    public Gridstate getSolution() {
+        long[] domains = solution.get();
+        if(domains == null)
+            return null;
+        Gridstate g = (Gridstate) grid.clone();
+        g.restore(domains);
+        g.collapse();
+        return g;
+    }
+
+    /**
+     * Gets how many tasks the last search was split into.
+     * @return count of tasks including the first one
+     */
+    public long getTaskCount() {
+        return tasks.get();
+    }
+
+    /**
+     * Runs a search on the pool.
+     * @param  countAll whether to search the whole tree
+     * @return          count of solutions found
+     */
+    private long run(boolean countAll) {
+        this.countAll = countAll;
+        stop = false;
+        solution.set(null);
+        tasks.set(0);
+        workers = new ThreadLocal<Worker>();
+        //the workers only propagate their own changes, so collapsed positions of the grid
+        //have to restrict their neighbours before the first branch is taken from it
+        Gridstate start = (Gridstate) grid.clone();
+        if(start.collapse())
+            return 0;
+        return pool.invoke(new Branch(start.getDomains().clone(), -1, -1));
+    }
+
+    /**
+     * Gets the Gridstate of the current thread, creates it on the first call.
+     * @return the worker of the current thread
+     */
+    private Worker worker() {
+        Worker w = workers.get();
+        if(w == null){
+            w = new Worker((Gridstate) grid.clone());
+            workers.set(w);
+        }
+        return w;
+    }
+
+    /**
+     * The Gridstate, selector and decision stack a thread searches with.
+     */
+    private static class Worker {
+        final Gridstate grid;
+        final CellSelector selector;
+        final Random random = new Random();
+        //every level stores the trail mark, the position, the tile and
+        //1 if the branch without the tile was handed to another task
+        int[] levels = new int[4 * 16];
+
+        Worker(Gridstate grid) {
+            this.grid = grid;
+            selector = new MinimumEntropySelector();
+            selector.init(grid, random);
+            grid.addListener(selector);
+            grid.startTrail();
+        }
+    }
+
+    /**
+     * A subtree of the search: the domains from before a choice with
+     * one tile removed from the chosen position.
+     */
+    @SuppressWarnings("serial")
+    private class Branch extends RecursiveTask<Long> {
+        private final long[] snapshot;
+        private final int cell, tile;
+
+        Branch(long[] snapshot, int cell, int tile) {
+            this.snapshot = snapshot;
+            this.cell = cell;
+            this.tile = tile;
+            tasks.incrementAndGet();
+        }
+
+        protected Long compute() {
+            List<Branch> forked = new ArrayList<Branch>();
+            long solutions = search(forked);
+            //the grid of this thread isn't needed anymore, so joining may run other branches on it
+            for(Branch b:forked)
+                solutions += b.join();
+            return solutions;
+        }
+
+        /**
+         * Searches the subtree with the Gridstate of the current thread.
+         * @param  forked list the tasks handed to the pool are added to
+         * @return        count of solutions found by this thread
+         */
+        private long search(List<Branch> forked) {
+            Worker w = worker();
+            Gridstate g = w.grid;
+            g.restore(snapshot);
+            if(cell >= 0)
+                g.removeTile(cell, tile);
+
+            long solutions = 0;
+            int depth = 0;
+            while(!stop){
+                boolean failed = g.collapse();
+                if(!failed){
+                    int c = w.selector.selectCell(w.random);
+                    if(c < 0){
+                        solutions++;
+                        if(countAll){
+                            solution.set(g.getDomains().clone());
+                        } else if(solution.compareAndSet(null, g.getDomains().clone())){
+                            stop = true;
+                        }
+                        failed = true;
+                    } else {
+                        int t = g.sampleTile(c, w.random);
+                        if(4 * depth + 4 > w.levels.length){
+                            int[] newLevels = new int[w.levels.length * 2];
+                            System.arraycopy(w.levels, 0, newLevels, 0, w.levels.length);
+                            w.levels = newLevels;
+                        }
+                        int split = 0;
+                        if(ForkJoinTask.getSurplusQueuedTaskCount() < SURPLUS){
+                            Branch b = new Branch(g.getDomains().clone(), c, t);
+                            b.fork();
+                            forked.add(b);
+                            split = 1;
+                        }
+                        w.levels[4 * depth] = g.trailMark();
+                        w.levels[4 * depth + 1] = c;
+                        w.levels[4 * depth + 2] = t;
+                        w.levels[4 * depth + 3] = split;
+                        depth++;
+                        g.collapseCell(c, t);
+                        continue;
+                    }
+                }
+
+                //goes up until a level whose other branch wasn't handed away
+                while(failed){
+                    if(depth == 0)
+                        return solutions;
+                    depth--;
+                    g.undoTrail(w.levels[4 * depth]);
+                    if(w.levels[4 * depth + 3] == 0){
+                        g.removeTile(w.levels[4 * depth + 1], w.levels[4 * depth + 2]);
+                        failed = false;
+                    }
+                }
+            }
+            return solutions;
+        }
+    }
+}
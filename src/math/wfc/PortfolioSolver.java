@@ -0,0 +1,192 @@
+package math.wfc;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several independent searches on copies of the same grid in parallel and keeps
+ * the first one that finishes. The runtime of a single search depends a lot on the
+ * random choices, racing differently seeded searches cuts off the slow runs.
+ * The copies share the Tileset and the rules of the grid, every copy has its own
+ * domains and rule state.
+ */
+public class PortfolioSolver {
+    private final Gridstate grid;
+    private int runs = Runtime.getRuntime().availableProcessors();
+    private Executor executor;
+    private CellSelector[] selectors;
+    private SolverMetrics metrics;
+
+    //handler of the run that finished first
+    private WFC_Handler winner;
+    private int winnerIndex = -1;
+
+    /**
+     * Constructor for a PortfolioSolver on an empty grid.
+     * @param  w       width of the grid
+     * @param  h       height of the grid
+     * @param  tileset tileset to fill the grid with
+     */
+    public PortfolioSolver(int w, int h, Tile[] tileset) {
+        this(new Gridstate(w, h, tileset));
+    }
+
+    /**
+     * Constructor for a PortfolioSolver starting from a given grid, for example with some
+     * positions already collapsed. The grid itself is not changed.
+     * @param  grid the grid every run starts from
+     */
+    public PortfolioSolver(Gridstate grid) {
+        this.grid = grid;
+    }
+
+    /**
+     * Sets the count of searches that are started, the count of processors by default.
+     * With CellSelectors set there can't be more runs than selectors.
+     * @param runs count of searches
+     */
+    public void setRuns(int runs) {
+        if(runs < 1)
+            throw new IllegalArgumentException("At least one run is needed");
+        if(selectors != null && runs > selectors.length)
+            throw new IllegalArgumentException("Every run needs its own CellSelector, " + runs + " runs but "
+                + selectors.length + " selectors");
+        this.runs = runs;
+    }
+
+    /**
+     * Sets the executor running the searches. Without one a thread pool with one
+     * thread per run is created for every call of solve() and shut down afterwards.
+     * @param executor the executor to use
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the strategies choosing the positions of the random choices and starts one
+     * run per selector, run i uses selectors[i]. A null entry uses the default of
+     * WFC_Handler. A CellSelector keeps state and the runs are on different threads,
+     * so no selector may be given twice.
+     * @param selectors the strategies to use, one per run, or null for the default in every run
+     */
+    public void setCellSelectors(CellSelector... selectors) {
+        if(selectors != null){
+            if(selectors.length == 0)
+                throw new IllegalArgumentException("At least one run is needed");
+            for(int i = 0; i < selectors.length; i++)
+                for(int j = 0; j < i; j++)
+                    if(selectors[i] != null && selectors[i] == selectors[j])
+                        throw new IllegalArgumentException("Every run needs its own CellSelector, "
+                            + "the selectors of run " + j + " and " + i + " are the same");
+            runs = selectors.length;
+        }
+        this.selectors = selectors;
+    }
+
+    /**
+     * Sets the metrics all runs are added to, cancelled runs included.
+     * @param metrics the metrics or null to stop counting
+     */
+    public void setMetrics(SolverMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs the searches until the first one finishes the grid and cancels the others.
+     * Run i uses the seed seed + i.
+     * @param  seed the seed of the first run
+     * @return      true if a run finished the grid, false if all of them failed
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public boolean solve(long seed) throws InterruptedException {
+        winner = null;
+        winnerIndex = -1;
+
+        ExecutorService ownExecutor = null;
+        Executor executor = this.executor;
+        if(executor == null){
+            ownExecutor = Executors.newFixedThreadPool(runs);
+            executor = ownExecutor;
+        }
+
+        //the copies are made here, so the grid is only read by this thread
+        WFC_Handler[] handlers = new WFC_Handler[runs];
+        for(int i = 0; i < runs; i++){
+            handlers[i] = new WFC_Handler((Gridstate) grid.clone());
+            handlers[i].setSeed(seed + i);
+            handlers[i].setMetrics(metrics);
+            if(selectors != null)
+                handlers[i].setCellSelector(selectors[i]);
+        }
+
+        CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        try {
+            for(int i = 0; i < runs; i++)
+                futures.add(completion.submit(new Run(handlers[i], i)));
+            for(int i = 0; i < runs; i++){
+                int finished = completion.take().get();
+                if(finished >= 0){
+                    winner = handlers[finished];
+                    winnerIndex = finished;
+                    return true;
+                }
+            }
+            return false;
+        } catch(ExecutionException e) {
+            throw new IllegalStateException("A run failed", e.getCause());
+        } finally {
+            for(WFC_Handler h:handlers)
+                h.cancel();
+            for(Future<Integer> f:futures)
+                f.cancel(false);
+            if(ownExecutor != null)
+                ownExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Gets the handler of the run that finished first, its grid is the result.
+     * @return the handler or null if no run finished
+     */
+    public WFC_Handler getWinner() {
+        return winner;
+    }
+
+    /**
+     * Gets which run finished first, it used the seed passed to solve() plus this index.
+     * @return index of the run or -1 if no run finished
+     */
+    public int getWinnerIndex() {
+        return winnerIndex;
+    }
+
+    /**
+     * A single search of the portfolio.
+     */
+    private static class Run implements Callable<Integer> {
+        private final WFC_Handler handler;
+        private final int index;
+
+        Run(WFC_Handler handler, int index) {
+            this.handler = handler;
+            this.index = index;
+        }
+
+        /**
+         * Runs the search.
+         * @return the index of the run if it finished the grid, otherwise -1
+         */
+        public Integer call() {
+            return handler.wfc() ? index : -1;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package math.wfc;
+
+/**
+ * A Interface for the part of a rule that removes possibilities from other positions
+ * directly instead of being asked for every tile through Rule.getState().
+ * A Propagator belongs to a single Gridstate and is created by Rule.createPropagator().
+ */
+public interface Propagator {
+	/**
+	 * Called by Gridstate.collapse() after the domain of a position changed.
+	 * Possibilities are removed with Gridstate.restrict().
+	 * @param  grid the Gridstate the propagator belongs to
+	 * @param  cell index x + y * width of the changed position
+	 * @return      false if a position has no possibilities left
+	 */
+	boolean propagate(Gridstate grid, int cell);
+}
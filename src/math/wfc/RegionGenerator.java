@@ -0,0 +1,244 @@
+package math.wfc;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import math.wfc.rules.AdjacencyRule;
+import math.wfc.rules.Rule;
+
+/**
+ * Generates a large grid by splitting it into square regions that are solved on a thread
+ * pool. The regions are colored like a checkerboard. First all regions of one color are
+ * solved at the same time, they only touch at their corners. Then the regions of the other
+ * color are solved with the positions around them collapsed to the tiles of their finished
+ * neighbours. A region that can't be fitted between its neighbours is repaired by solving
+ * a larger window around it again, with only the border of the window kept.
+ * This only works for rules that look at the neighbouring positions like AdjacencyRule,
+ * rules counting tiles in whole rows or columns can't be split into regions. The
+ * constructor rejects every rule that depends on more than the four direct neighbours.
+ */
+public class RegionGenerator {
+    //count of seeds tried before a window is enlarged
+    private final static int ATTEMPTS = 4;
+
+    private final int width, height;
+    private final Tileset tileset;
+    private int regionSize = 64;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private long repairs;
+
+    /**
+     * Constructor for a RegionGenerator.
+     * @param  w       width of the grid
+     * @param  h       height of the grid
+     * @param  tileset tileset to fill the grid with
+     * @throws IllegalArgumentException if a rule of the tileset can't be split into regions
+     */
+    public RegionGenerator(int w, int h, Tile[] tileset) {
+        width = w;
+        height = h;
+        this.tileset = new Tileset(tileset);
+        checkRules();
+    }
+
+    /**
+     * Tests that every rule only depends on the four direct neighbours of a position, the
+     * regions and windows only share those with the positions around them. A rule is asked
+     * for the dependents of the middle of a small grid, which have to be next to it. A
+     * propagator may change any position, only the ones of AdjacencyRule are known to
+     * stay next to the changed position.
+     */
+    private void checkRules() {
+        Gridstate probe = new Gridstate(5, 5, tileset);
+        CellQueue queue = new CellQueue(5, 5, false);
+        for(Rule r:tileset.getRules()){
+            if(probe.getPropagator(r) != null && !(r instanceof AdjacencyRule))
+                throw new IllegalArgumentException(r.getClass().getSimpleName()
+                    + " propagates beyond the neighbouring positions and can't be split into regions");
+            r.addDependents(probe, probe.getCell(2, 2), queue);
+            for(int cell = queue.poll(); cell >= 0; cell = queue.poll()){
+                if(Math.abs(probe.getX(cell) - 2) + Math.abs(probe.getY(cell) - 2) > 1){
+                    queue.clear();
+                    throw new IllegalArgumentException(r.getClass().getSimpleName()
+                        + " depends on more than the neighbouring positions and can't be split into regions");
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the width and height of a region, 64 by default.
+     * @param size size of a region
+     */
+    public void setRegionSize(int size) {
+        if(size < 1)
+            throw new IllegalArgumentException("Regions need at least one position");
+        regionSize = size;
+    }
+
+    /**
+     * Sets the count of threads solving regions, the count of processors by default.
+     * @param threads count of threads
+     */
+    public void setThreads(int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("At least one thread is needed");
+        this.threads = threads;
+    }
+
+    /**
+     * Generates the grid.
+     * @param  seed seed of the grid, every region gets its own seed derived from it
+     * @return      index of the tile at (x, y) at [x + y * width]
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public int[] generate(long seed) throws InterruptedException {
+        repairs = 0;
+        int[] result = new int[width * height];
+        Arrays.fill(result, -1);
+        int regionsX = (width + regionSize - 1) / regionSize;
+        int regionsY = (height + regionSize - 1) / regionSize;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<int[]> failed = new ArrayList<int[]>();
+        try {
+            for(int color = 0; color < 2; color++){
+                List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+                for(int ry = 0; ry < regionsY; ry++)
+                    for(int rx = 0; rx < regionsX; rx++)
+                        if((rx + ry) % 2 == color)
+                            futures.add(executor.submit(new Region(result, rx, ry, seed)));
+                for(Future<int[]> f:futures){
+                    int[] region = f.get();
+                    if(region != null)
+                        failed.add(region);
+                }
+            }
+        } catch(ExecutionException e) {
+            throw new IllegalStateException("A region failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        //repairs overlap their neighbours, so they are done one after another
+        for(int[] region:failed)
+            repair(result, region[0], region[1], seed);
+        return result;
+    }
+
+    /**
+     * Gets how many regions had to be repaired by the last call of generate().
+     * @return count of repaired regions
+     */
+    public long getRepairs() {
+        return repairs;
+    }
+
+    /**
+     * Tests if a generated grid fulfills every rule of the tileset.
+     * @param  result the grid as returned by generate()
+     * @return        true if no rule is broken
+     */
+    public boolean isValid(int[] result) {
+        Gridstate grid = new Gridstate(width, height, tileset);
+        for(int cell = 0; cell < width * height; cell++){
+            if(result[cell] < 0)
+                return false;
+            grid.getPosition(cell % width, cell / width).collapseTo(result[cell]);
+        }
+        return !grid.collapse();
+    }
+
+    /**
+     * Solves a failed region again together with more and more of the positions around it.
+     * @param result the grid
+     * @param rx     x-Coordinate of the region
+     * @param ry     y-Coordinate of the region
+     * @param seed   seed of the grid
+     */
+    private void repair(int[] result, int rx, int ry, long seed) {
+        repairs++;
+        for(int margin = regionSize / 2 + 1; ; margin *= 2){
+            int x0 = Math.max(0, rx * regionSize - margin);
+            int y0 = Math.max(0, ry * regionSize - margin);
+            int x1 = Math.min(width, (rx + 1) * regionSize + margin);
+            int y1 = Math.min(height, (ry + 1) * regionSize + margin);
+            for(int y = y0; y < y1; y++)
+                for(int x = x0; x < x1; x++)
+                    result[x + y * width] = -1;
+            if(solve(result, x0, y0, x1 - x0, y1 - y0, seed ^ margin))
+                return;
+            if(x0 == 0 && y0 == 0 && x1 == width && y1 == height)
+                throw new IllegalStateException("The grid can't be generated");
+        }
+    }
+
+    /**
+     * Solves a window of the grid with the positions around it that are already
+     * set collapsed to their tiles, writes the result into the grid on success.
+     * @param  result the grid, -1 for positions that aren't set
+     * @param  x0     x-Coordinate of the window
+     * @param  y0     y-Coordinate of the window
+     * @param  w      width of the window
+     * @param  h      height of the window
+     * @param  seed   seed for the window
+     * @return        true if the window was solved
+     */
+    private boolean solve(int[] result, int x0, int y0, int w, int h, long seed) {
+        for(int attempt = 0; attempt < ATTEMPTS; attempt++){
+            Gridstate grid = new Gridstate(w + 2, h + 2, tileset);
+            for(int y = -1; y <= h; y++){
+                for(int x = -1; x <= w; x++){
+                    //the corners don't touch the window and may belong to regions solved at the same time
+                    boolean insideX = x >= 0 && x < w, insideY = y >= 0 && y < h;
+                    if(insideX == insideY)
+                        continue;
+                    int X = x0 + x, Y = y0 + y;
+                    if(X >= 0 && Y >= 0 && X < width && Y < height && result[X + Y * width] >= 0)
+                        grid.getPosition(x + 1, y + 1).collapseTo(result[X + Y * width]);
+                }
+            }
+            WFC_Handler handler = new WFC_Handler(grid);
+            handler.setSeed(seed * 31 + attempt);
+            if(handler.wfc()){
+                for(int y = 0; y < h; y++)
+                    for(int x = 0; x < w; x++)
+                        result[x0 + x + (y0 + y) * width] = grid.getPossibleTile(grid.getCell(x + 1, y + 1), 0);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The task solving a single region.
+     */
+    private class Region implements Callable<int[]> {
+        private final int[] result;
+        private final int rx, ry;
+        private final long seed;
+
+        Region(int[] result, int rx, int ry, long seed) {
+            this.result = result;
+            this.rx = rx;
+            this.ry = ry;
+            this.seed = seed;
+        }
+
+        /**
+         * Solves the region.
+         * @return null on success, otherwise the coordinates of the region
+         */
+        public int[] call() {
+            int x0 = rx * regionSize, y0 = ry * regionSize;
+            int w = Math.min(regionSize, width - x0), h = Math.min(regionSize, height - y0);
+            long regionSeed = seed * 0x9E3779B97F4A7C15L + rx * 31L + ry;
+            return solve(result, x0, y0, w, h, regionSeed) ? null : new int[] {rx, ry};
+        }
+    }
+}
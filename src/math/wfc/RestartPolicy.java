@@ -0,0 +1,110 @@
+package math.wfc;
+
+/**
+ * Decides when the trail mode of WFC_Handler starts its search again from the grid before
+ * the first choice. Every run of the search may backtrack a number of times, its budget,
+ * before it is given up and the next run starts with a different seed. The budgets grow
+ * from run to run, so a search that keeps restarting still finishes eventually, while a
+ * run stuck below a bad early choice is left after a few backtracks.
+ */
+public class RestartPolicy {
+    private final Schedule schedule;
+    private final long base;
+    private final double factor;
+    private final boolean keepNogoods;
+
+    /**
+     * Creates a policy with a Luby schedule that keeps the learned nogoods.
+     * @param  base backtracks of the shortest runs
+     * @return      the policy
+     */
+    public static RestartPolicy luby(long base) {
+        return new RestartPolicy(Schedule.LUBY, base, 2, true);
+    }
+
+    /**
+     * Creates a policy with a geometric schedule that keeps the learned nogoods.
+     * @param  base   backtracks of the first run
+     * @param  factor how much the budget grows from one run to the next
+     * @return        the policy
+     */
+    public static RestartPolicy geometric(long base, double factor) {
+        return new RestartPolicy(Schedule.GEOMETRIC, base, factor, true);
+    }
+
+    /**
+     * Constructor for a RestartPolicy with all possible parameters.
+     * @param  schedule    how the budget grows from one run to the next
+     * @param  base        backtracks of the first run
+     * @param  factor      how much the budget grows from one run to the next with
+     *                     Schedule.GEOMETRIC, ignored by Schedule.LUBY. With a factor
+     *                     of 1 a search that needs more backtracks may never finish
+     * @param  keepNogoods whether the nogoods learned by a run are kept for the next
+     *                     runs, only used if the handler learns nogoods
+     */
+    public RestartPolicy(Schedule schedule, long base, double factor, boolean keepNogoods) {
+        if(base < 1)
+            throw new IllegalArgumentException("Restart budget has to be at least 1: " + base);
+        if(schedule == Schedule.GEOMETRIC && !(factor >= 1))
+            throw new IllegalArgumentException("Restart factor has to be at least 1: " + factor);
+        this.schedule = schedule;
+        this.base = base;
+        this.factor = factor;
+        this.keepNogoods = keepNogoods;
+    }
+
+    /**
+     * Gets how often a run may backtrack before the search restarts.
+     * @param  run index of the run, 0 for the run before the first restart
+     * @return     count of backtracks
+     */
+    public long getBudget(int run) {
+        if(schedule == Schedule.LUBY){
+            long luby = lubyElement(run + 1);
+            return luby > Long.MAX_VALUE / base ? Long.MAX_VALUE : base * luby;
+        }
+        double budget = base * Math.pow(factor, run);
+        return budget >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) budget;
+    }
+
+    /**
+     * Tests if the learned nogoods are kept over a restart.
+     * @return the value set in the Constructor
+     */
+    public boolean keepsNogoods() {
+        return keepNogoods;
+    }
+
+    /**
+     * Gets an element of the Luby sequence 1, 1, 2, 1, 1, 2, 4, 1, 1, 2, 1, 1, 2, 4, 8, ...
+     * @param  i index of the element, starting with 1
+     * @return   the element
+     */
+    private static long lubyElement(long i) {
+        while(true){
+            //the sequence up to 2^k - 1 ends with 2^(k-1) and starts again after it
+            long end = 1;
+            while(end < i)
+                end = 2 * end + 1;
+            if(end == i)
+                return (end + 1) / 2;
+            i -= end / 2;
+        }
+    }
+
+    /**
+     * How the budget of the runs grows.
+     */
+    public enum Schedule {
+        /**
+         * The base times the Luby sequence 1, 1, 2, 1, 1, 2, 4, ... Many short runs
+         * and a few long ones, the expected time is within a logarithmic factor of
+         * the best fixed budget without knowing it.
+         */
+        LUBY,
+        /**
+         * The base times a constant factor to the power of the index of the run.
+         */
+        GEOMETRIC
+    }
+}
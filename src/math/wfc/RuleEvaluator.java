@@ -0,0 +1,86 @@
+package math.wfc;
+import math.wfc.rules.Rule;
+
+/**
+ * Evaluates the rules of a tileset for a position of a grid. Instead of asking every
+ * tile for its State, which asks all rules of the tile again and again, every distinct
+ * rule of the tileset is evaluated once for all possible tiles it belongs to through
+ * Rule.getStates(). The States are combined as bitsets the same way Tile.getState()
+ * combines them for a single tile, so the result is the same.
+ * Every grid has its own evaluator, because the bitsets are reused between positions.
+ */
+class RuleEvaluator {
+	private final Gridstate grid;
+	private final Rule[] rules;
+	private final long[] ruleTiles;
+	private final int words;
+	private final long[] domain, tiles, forbidden, forced, impossible;
+
+	/**
+	 * Constructor for a RuleEvaluator object.
+	 * @param grid the grid the rules are evaluated on
+	 */
+	RuleEvaluator(Gridstate grid){
+		this.grid = grid;
+		Tileset tileset = grid.getTileset();
+		rules = tileset.getRules();
+		ruleTiles = tileset.getRuleTiles();
+		words = tileset.words();
+		domain = new long[words];
+		tiles = new long[words];
+		forbidden = new long[words];
+		forced = new long[words];
+		impossible = new long[words];
+	}
+
+	/**
+	 * Collapses the possibilities of a position that isn't collapsed yet.
+	 * The lowest tile that is forced or forbidden decides like in
+	 * Superposition.collapsePossibilities(): a forbidden tile or a tile that is forced
+	 * and impossible at once removes every possibility, a forced tile is collapsed to.
+	 * Otherwise the impossible tiles are removed.
+	 * @param  cell index of the position
+	 * @return      Whether or not anything was collapsed
+	 */
+	boolean collapsePossibilities(int cell){
+		grid.getDomain(cell, domain);
+		for(int w = 0; w < words; w++){
+			forbidden[w] = 0;
+			forced[w] = 0;
+			impossible[w] = 0;
+		}
+		SolverMetrics.Counters counters = grid.counters;
+		for(int r = 0; r < rules.length; r++){
+			int count = 0;
+			for(int w = 0; w < words; w++){
+				tiles[w] = domain[w] & ruleTiles[r * words + w];
+				count += Long.bitCount(tiles[w]);
+			}
+			if(count == 0)
+				continue;
+			if(counters != null)
+				counters.evaluated(r, count);
+			rules[r].getStates(grid, cell, tiles, forbidden, forced, impossible);
+		}
+
+		boolean removed = false;
+		for(int w = 0; w < words; w++){
+			long deciding = forbidden[w] | forced[w];
+			if(deciding != 0){
+				long first = Long.lowestOneBit(deciding);
+				boolean clear = ((forbidden[w] | impossible[w]) & first) != 0;
+				for(int v = 0; v < words; v++)
+					tiles[v] = v == w && !clear ? first : 0;
+				grid.restrict(cell, tiles);
+				return true;
+			}
+			removed |= impossible[w] != 0;
+		}
+		if(!removed)
+			return false;
+		for(int w = 0; w < words; w++)
+			tiles[w] = ~impossible[w];
+		grid.restrict(cell, tiles);
+		return true;
+	}
+}
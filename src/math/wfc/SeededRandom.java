@@ -0,0 +1,48 @@
+package math.wfc;
+import java.util.Random;
+
+/**
+ * A Random that gives the same numbers as java.util.Random with the same seed,
+ * but whose state can be read and set again, so a search can be stopped and
+ * continued later with the same random choices.
+ */
+class SeededRandom extends Random {
+    private final static long serialVersionUID = 1L;
+
+    private final static long MULTIPLIER = 0x5DEECE66DL;
+    private final static long ADDEND = 0xBL;
+    private final static long MASK = (1L << 48) - 1;
+
+    private long state;
+
+    SeededRandom(long seed) {
+        super(seed);
+    }
+
+    public synchronized void setSeed(long seed) {
+        //also called by the constructor of Random
+        super.setSeed(seed);
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    /**
+     * Gets the current state of the generator.
+     * @return the state, only the lower 48 bits are used
+     */
+    long getState() {
+        return state;
+    }
+
+    /**
+     * Sets the state of the generator to a state returned by getState().
+     * @param state the state
+     */
+    void setState(long state) {
+        this.state = state & MASK;
+    }
+}
@@ -0,0 +1,89 @@
+package math.wfc;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event written for every run of WFC_Handler.wfc() while a recording
+ * with the event "math.wfc.Solve" enabled is running.
+ */
+@Name("math.wfc.Solve")
+@Label("WFC Solve")
+@Category("WFC")
+@Description("A run of WFC_Handler.wfc()")
+class SolveEvent extends Event {
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Solved")
+    boolean solved;
+
+    @Label("Decisions")
+    long decisions;
+
+    @Label("Backtracks")
+    long backtracks;
+
+    @Label("Skipped Levels")
+    long skippedLevels;
+
+    @Label("Learned Nogoods")
+    long learnedNogoods;
+
+    @Label("Restarts")
+    long restarts;
+
+    @Label("Max Depth")
+    long maxDepth;
+
+    @Label("Propagations")
+    long propagations;
+
+    @Label("Forced Collapses")
+    long forcedCollapses;
+
+    @Label("Rule Evaluations")
+    long ruleEvaluations;
+
+    @Label("Collapse Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long collapseTime;
+
+    @Label("Selection Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long selectionTime;
+
+    /**
+     * Copies the counters of a run into the event.
+     * @param grid   the grid of the run
+     * @param c      the counters of the run
+     * @param solved whether the run filled its grid
+     */
+    void set(Gridstate grid, SolverMetrics.Counters c, boolean solved) {
+        width = grid.getWidth();
+        height = grid.getHeight();
+        depth = grid.getDepth();
+        this.solved = solved;
+        decisions = c.decisions;
+        backtracks = c.backtracks;
+        skippedLevels = c.skippedLevels;
+        learnedNogoods = c.learnedNogoods;
+        restarts = c.restarts;
+        maxDepth = c.maxDepth;
+        propagations = c.propagations;
+        forcedCollapses = c.collapses - c.decisions;
+        for(long count:c.ruleEvaluations)
+            ruleEvaluations += count;
+        collapseTime = c.collapseTime;
+        selectionTime = c.selectionTime;
+    }
+}
@@ -0,0 +1,267 @@
+package math.wfc;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import math.wfc.rules.Rule;
+
+/**
+ * Counts what the searches of one or more WFC_Handlers did. A running search counts
+ * into plain fields of its own, they are only added to the shared counters when the
+ * run of wfc() ends, so the same SolverMetrics can be handed to handlers running on
+ * different threads and the counting costs close to nothing while searching.
+ * The getters always return the sum over all finished runs.
+ */
+public class SolverMetrics {
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder solved = new LongAdder();
+    private final LongAdder decisions = new LongAdder();
+    private final LongAdder backtracks = new LongAdder();
+    private final LongAdder skippedLevels = new LongAdder();
+    private final LongAdder learnedNogoods = new LongAdder();
+    private final LongAdder restarts = new LongAdder();
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private final LongAdder propagations = new LongAdder();
+    private final LongAdder propagatedCells = new LongAdder();
+    private final LongAdder collapses = new LongAdder();
+    private final LongAdder collapseTime = new LongAdder();
+    private final LongAdder selectionTime = new LongAdder();
+    private final ConcurrentHashMap<Class<? extends Rule>, LongAdder> ruleEvaluations =
+        new ConcurrentHashMap<Class<? extends Rule>, LongAdder>();
+
+    /**
+     * Gets the count of finished runs of wfc().
+     * @return count of runs
+     */
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    /**
+     * Gets the count of runs of wfc() that filled their grid.
+     * @return count of runs
+     */
+    public long getSolved() {
+        return solved.sum();
+    }
+
+    /**
+     * Gets the count of random choices.
+     * @return count of choices
+     */
+    public long getDecisions() {
+        return decisions.sum();
+    }
+
+    /**
+     * Gets how often a search went back to an earlier choice.
+     * @return count of backtracks
+     */
+    public long getBacktracks() {
+        return backtracks.sum();
+    }
+
+    /**
+     * Gets how many choices were jumped over by backtracks that went back further
+     * than the last choice, only done while the handler learns nogoods.
+     * @return count of levels
+     */
+    public long getSkippedLevels() {
+        return skippedLevels.sum();
+    }
+
+    /**
+     * Gets the count of nogoods learned from contradictions.
+     * @return count of nogoods
+     */
+    public long getLearnedNogoods() {
+        return learnedNogoods.sum();
+    }
+
+    /**
+     * Gets how often a search started again from the grid before the first choice.
+     * @return count of restarts
+     */
+    public long getRestarts() {
+        return restarts.sum();
+    }
+
+    /**
+     * Gets the largest count of choices that were made on top of each other.
+     * @return the deepest level reached by any run
+     */
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * Gets the count of calls of Gridstate.collapse().
+     * @return count of propagations
+     */
+    public long getPropagations() {
+        return propagations.sum();
+    }
+
+    /**
+     * Gets the count of changed positions handed to the rules by Gridstate.collapse().
+     * @return count of positions
+     */
+    public long getPropagatedCells() {
+        return propagatedCells.sum();
+    }
+
+    /**
+     * Gets the count of positions that were collapsed to a single tile by the rules,
+     * positions that were collapsed by a random choice aren't counted.
+     * @return count of positions
+     */
+    public long getForcedCollapses() {
+        return collapses.sum() - decisions.sum();
+    }
+
+    /**
+     * Gets the count of positions that were collapsed by a random choice, the same as getDecisions().
+     * @return count of positions
+     */
+    public long getChosenCollapses() {
+        return decisions.sum();
+    }
+
+    /**
+     * Gets the time spent in Gridstate.collapse().
+     * @return time in nanoseconds
+     */
+    public long getCollapseTime() {
+        return collapseTime.sum();
+    }
+
+    /**
+     * Gets the time spent choosing the position and tile of the random choices.
+     * @return time in nanoseconds
+     */
+    public long getSelectionTime() {
+        return selectionTime.sum();
+    }
+
+    /**
+     * Gets for how many tiles every class of rule was evaluated, either one by one
+     * through Rule.getState() or together through Rule.getStates().
+     * @return count of tiles by the simple name of the class of the rule
+     */
+    public Map<String, Long> getRuleEvaluations() {
+        TreeMap<String, Long> result = new TreeMap<String, Long>();
+        for(Map.Entry<Class<? extends Rule>, LongAdder> e:ruleEvaluations.entrySet())
+            result.merge(e.getKey().getSimpleName(), e.getValue().sum(), Long::sum);
+        return result;
+    }
+
+    /**
+     * Sets every counter back to 0.
+     */
+    public void reset() {
+        runs.reset();
+        solved.reset();
+        decisions.reset();
+        backtracks.reset();
+        skippedLevels.reset();
+        learnedNogoods.reset();
+        restarts.reset();
+        maxDepth.reset();
+        propagations.reset();
+        propagatedCells.reset();
+        collapses.reset();
+        collapseTime.reset();
+        selectionTime.reset();
+        ruleEvaluations.clear();
+    }
+
+    /**
+     * Converts the metrics to a single line of text.
+     * @return String representation
+     */
+    public String toString() {
+        return String.format("runs=%d solved=%d decisions=%d backtracks=%d skippedLevels=%d nogoods=%d"
+            + " restarts=%d maxDepth=%d propagations=%d propagatedCells=%d forced=%d collapseMs=%.2f"
+            + " selectionMs=%.2f ruleEvaluations=%s",
+            getRuns(), getSolved(), getDecisions(), getBacktracks(), getSkippedLevels(), getLearnedNogoods(),
+            getRestarts(), getMaxDepth(), getPropagations(), getPropagatedCells(), getForcedCollapses(),
+            getCollapseTime() / 1e6, getSelectionTime() / 1e6, getRuleEvaluations());
+    }
+
+    /**
+     * Adds the counters of a finished run.
+     * @param c      the counters of the run
+     * @param solved whether the run filled its grid
+     */
+    void add(Counters c, boolean solved) {
+        runs.increment();
+        if(solved)
+            this.solved.increment();
+        decisions.add(c.decisions);
+        backtracks.add(c.backtracks);
+        skippedLevels.add(c.skippedLevels);
+        learnedNogoods.add(c.learnedNogoods);
+        restarts.add(c.restarts);
+        maxDepth.accumulate(c.maxDepth);
+        propagations.add(c.propagations);
+        propagatedCells.add(c.propagatedCells);
+        collapses.add(c.collapses);
+        collapseTime.add(c.collapseTime);
+        selectionTime.add(c.selectionTime);
+        for(int i = 0; i < c.rules.length; i++)
+            if(c.ruleEvaluations[i] != 0)
+                ruleEvaluations.computeIfAbsent(c.rules[i].getClass(), k -> new LongAdder()).add(c.ruleEvaluations[i]);
+    }
+
+    /**
+     * The counters of a single run, only used by the thread running it. They are
+     * set on every grid the run works on and follow its domain changes to count
+     * the positions that collapsed.
+     */
+    static class Counters implements DomainListener {
+        final Rule[] rules;
+        final long[] ruleEvaluations;
+        long decisions, backtracks, maxDepth;
+        long skippedLevels, learnedNogoods, restarts;
+        long propagations, propagatedCells, collapses;
+        long collapseTime, selectionTime;
+
+        Counters(Tileset tileset) {
+            rules = tileset.getRules();
+            ruleEvaluations = new long[rules.length];
+        }
+
+        /**
+         * Counts a call of Rule.getState().
+         * @param r the rule that was evaluated
+         */
+        void evaluated(Rule r) {
+            //tilesets rarely have more than a few rules
+            for(int i = 0; i < rules.length; i++){
+                if(rules[i] == r){
+                    ruleEvaluations[i]++;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Counts the tiles a rule was evaluated for at once.
+         * @param rule  index of the rule in Tileset.getRules()
+         * @param tiles count of tiles
+         */
+        void evaluated(int rule, int tiles) {
+            ruleEvaluations[rule] += tiles;
+        }
+
+        public void domainChanged(Gridstate grid, int cell, int word, long before, long after) {
+            //undoing the trail only adds tiles back
+            if((after & ~before) != 0 || before == after)
+                return;
+            int count = grid.getPossibilityCount(cell);
+            if(count == 1 && count + Long.bitCount(before) - Long.bitCount(after) > 1)
+                collapses++;
+        }
+    }
+}
@@ -3,12 +3,17 @@ import math.wfc.rules.Rule;
 
 /**
  * A Class storing a single superposition of multiple tiles.
+ * The possible tiles are stored as a bitset where bit i stands for the
+ * tile at index i of the tileset. Superpositions returned by a Gridstate
+ * are views on the domain array of the grid, changes to them change the grid.
  */
 public class Superposition {
-	private final Tile[] tileset;
-	private final boolean[] possibleTiles;
-	private final int x, y;
-	private int possibilityCount;
+	private final Tileset tileset;
+	private final Gridstate owner;
+	private final long[] domains;
+	private final int words;
+	private int cell, offset;
+	private int x, y;
 
 	/**
 	 * Constructor for a Superposition object.
@@ -17,13 +22,18 @@ public class Superposition {
 	 * @param  tileset the possibilities for the Superposition
 	 */
 	public Superposition(int x, int y, Tile[] tileset) {
-		this.tileset = tileset;
-		this.x = x;
-		this.y = y;
-		possibilityCount = tileset.length;
-		possibleTiles = new boolean[tileset.length];
-		for(int i = 0; i < possibleTiles.length; i++)
-			possibleTiles[i] = true;
+		this(x, y, new Tileset(tileset));
+	}
+
+	/**
+	 * Constructor for a Superposition object with a shared Tileset.
+	 * @param  x       the x-coordinate of the Superposition
+	 * @param  y       the y-coordinate of the Superposition
+	 * @param  tileset the possibilities for the Superposition
+	 */
+	public Superposition(int x, int y, Tileset tileset) {
+		this(x, y, tileset, new long[tileset.words()]);
+		tileset.fill(domains, 0);
 	}
 
 	/**
@@ -36,18 +46,52 @@ public class Superposition {
 	 * @param  possibilities the possibilities
 	 */
 	public Superposition(int x, int y, Tile[] tileset, boolean[] possibilities) {
+		this(x, y, new Tileset(tileset));
+		if(tileset.length == possibilities.length){
+			for(int i = 0; i < possibilities.length; i++)
+				if(!possibilities[i])
+					domains[i >>> 6] &= ~(1L << i);
+		}
+	}
+
+	/**
+	 * Constructor for a Superposition that isn't part of a grid and owns its domain.
+	 * @param  x       the x-coordinate of the Superposition
+	 * @param  y       the y-coordinate of the Superposition
+	 * @param  tileset the possibilities for the Superposition
+	 * @param  domain  the domain of the Superposition
+	 */
+	private Superposition(int x, int y, Tileset tileset, long[] domain) {
 		this.tileset = tileset;
 		this.x = x;
 		this.y = y;
-		possibilityCount = tileset.length;
-		possibleTiles = new boolean[tileset.length];
-		if(tileset.length == possibilities.length){
-			for(int i = 0; i < possibleTiles.length; i++)
-				possibleTiles[i] = possibilities[i];
-		} else {
-			for(int i = 0; i < possibleTiles.length; i++)
-				possibleTiles[i] = true;
-		}
+		owner = null;
+		domains = domain;
+		words = tileset.words();
+	}
+
+	/**
+	 * Constructor for a view on a position of a grid.
+	 * @param  grid the grid the position belongs to
+	 * @param  cell index x + y * width of the position
+	 */
+	Superposition(Gridstate grid, int cell) {
+		tileset = grid.getTileset();
+		owner = grid;
+		domains = grid.getDomains();
+		words = tileset.words();
+		moveTo(cell);
+	}
+
+	/**
+	 * Moves a view to another position of its grid.
+	 * @param cell index x + y * width of the position
+	 */
+	void moveTo(int cell){
+		this.cell = cell;
+		offset = cell * words;
+		x = owner.getX(cell);
+		y = owner.getY(cell);
 	}
 
 	/**
@@ -58,27 +102,34 @@ public class Superposition {
 	public boolean collapsePossibilities(Gridstate grid) {
 		if(isCollapsed())
 			return false;
+		if(owner == grid)
+			return grid.getEvaluator().collapsePossibilities(cell);
 		boolean collapsed = false;
-		for(int i = 0; i < possibleTiles.length; i++)
-			if(possibleTiles[i]) {
-				Rule.STATE s = tileset[i].getState(grid, x, y);
+		for(int w = 0; w < words; w++){
+			long word = domains[offset + w];
+			long remaining = word;
+			while(word != 0){
+				int i = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				Rule.STATE s = tileset.get(i).getState(grid, x, y);
 				switch(s){
 				case FORCED:
 					collapseTo(i);
-					collapsed = true;
-					break;
+					return true;
 				case IMPOSSIBLE:
-					possibleTiles[i] = false;
+					remaining &= ~(1L << i);
 					collapsed = true;
-					possibilityCount--;
 					break;
 				case FORBIDDEN:
-					possibilityCount = 0;
+					clear();
 					return true;
 				default:
 					break;
 				}
 			}
+			if(remaining != domains[offset + w])
+				setWord(w, remaining);
+		}
 		return collapsed;
 	}
 
@@ -89,18 +140,24 @@ public class Superposition {
 	 * @param possibility The index of the State to collapse to
 	 */
 	public void collapseToFromPossible(int possibility){
-		int countPossibilities = 0;
-		possibilityCount = 0;
-		for(int i = 0; i < possibleTiles.length; i++){
-			if(possibleTiles[i]){
-				if(countPossibilities != possibility){
-					possibleTiles[i] = false;
-				} else {
-					possibilityCount++;
+		int tile = -1;
+		if(possibility >= 0){
+			for(int w = 0; w < words && tile < 0; w++){
+				long word = domains[offset + w];
+				int count = Long.bitCount(word);
+				if(possibility < count){
+					for(int i = 0; i < possibility; i++)
+						word &= word - 1;
+					tile = (w << 6) + Long.numberOfTrailingZeros(word);
 				}
-				countPossibilities++;
+				possibility -= count;
 			}
 		}
+		if(tile >= 0){
+			collapseTo(tile);
+		} else {
+			clear();
+		}
 	}
 
 	/**
@@ -108,14 +165,10 @@ public class Superposition {
 	 * @param possibility The index of the State to collapse to
 	 */
 	public void collapseTo(int possibility){
-		possibilityCount = 0;
-		for(int i = 0; i < possibleTiles.length; i++){
-			if(i == possibility){
-				possibleTiles[i] = true;
-				possibilityCount++;
-			} else {
-				possibleTiles[i] = false;
-			}
+		for(int w = 0; w < words; w++){
+			long value = w == possibility >>> 6 ? 1L << possibility : 0;
+			if(domains[offset + w] != value)
+				setWord(w, value);
 		}
 	}
 
@@ -124,7 +177,10 @@ public class Superposition {
 	 * @return Count of possibilities remaining
 	 */
 	public int getPossibilityCount(){
-		return possibilityCount;
+		int count = 0;
+		for(int w = offset; w < offset + words; w++)
+			count += Long.bitCount(domains[w]);
+		return count;
 	}
 
 	/**
@@ -132,15 +188,18 @@ public class Superposition {
 	 * @return Whether or not the Position is fully collapsed
 	 */
 	public boolean isCollapsed(){
-		return possibilityCount == 1;
+		return getPossibilityCount() == 1;
 	}
 
 	/**
 	 * Overwrites the clone function inherited from Object.
+	 * The clone isn't part of a grid anymore.
 	 * @return Clone of the current Superposition
 	 */
 	public Object clone(){
-		return new Superposition(x, y, tileset, possibleTiles);
+		long[] domain = new long[words];
+		copyTo(domain, 0);
+		return new Superposition(x, y, tileset, domain);
 	}
 
 	/**
@@ -149,10 +208,36 @@ public class Superposition {
 	 * @return   true if it is still possible
 	 */
 	public boolean tilePossible(Tile t){
-		for(int i = 0; i < possibleTiles.length; i++)
-			if(t == tileset[i])
-				return possibleTiles[i];
-		return false;
+		int i = tileset.indexOf(t);
+		if(i < 0)
+			return false;
+		return tilePossible(i);
+	}
+
+	/**
+	 * Tests whether the tile with a given index is still possible at this position.
+	 * @param  i The index of the tile inside the tileset
+	 * @return   true if it is still possible
+	 */
+	public boolean tilePossible(int i){
+		return (domains[offset + (i >>> 6)] & (1L << i)) != 0;
+	}
+
+	/**
+	 * Getter Function for the tileset of the Superposition.
+	 * @return the possibilities the Superposition was created with
+	 */
+	Tileset getTileset(){
+		return tileset;
+	}
+
+	/**
+	 * Copies the domain of the Superposition into an array.
+	 * @param target the array to copy to
+	 * @param start  the index of the first word in the array
+	 */
+	void copyTo(long[] target, int start){
+		System.arraycopy(domains, offset, target, start, words);
 	}
 
 	/**
@@ -162,10 +247,31 @@ public class Superposition {
 	public Tile getTile(){
 		if(!isCollapsed())
 			return null;
-		for(int i = 0; i < possibleTiles.length; i++){
-			if(possibleTiles[i])
-				return tileset[i];
-		}
+		for(int w = 0; w < words; w++)
+			if(domains[offset + w] != 0)
+				return tileset.get((w << 6) + Long.numberOfTrailingZeros(domains[offset + w]));
 		return null;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Removes every possibility.
+	 */
+	private void clear(){
+		for(int w = 0; w < words; w++)
+			if(domains[offset + w] != 0)
+				setWord(w, 0);
+	}
+
+	/**
+	 * Sets one word of the domain, through the grid if the Superposition is part of one.
+	 * @param w     index of the word
+	 * @param value new value of the word
+	 */
+	private void setWord(int w, long value){
+		if(owner == null){
+			domains[offset + w] = value;
+		} else {
+			owner.setWord(cell, w, value);
+		}
+	}
+}
@@ -7,13 +7,16 @@ import math.wfc.rules.Rule;
 public class Tile {
 	private final int id;
 	private Rule[] rules;
+	//relative frequency of the tile when a random choice is made
+	private final double weight;
+	//index inside the first Tileset the tile was added to
+	private int index = -1;
 	/**
 	 * Default Constructer that initializes a Tile without rules.
 	 * @param  id the id of the Tile
 	 */
 	public Tile(int id) {
-		this.id = id;
-		rules = new Rule[0];
+		this(id, new Rule[0], 1);
 	}
 
 	/**
@@ -22,14 +25,28 @@ public class Tile {
 	 * @param  rules the rules to add to the Tile
 	 */
 	public Tile(int id, Rule[] rules) {
+		this(id, rules, 1);
+	}
+
+	/**
+	 * Constructer that takes a list of rules and a weight for the given Tile.
+	 * @param  id     the id of the Tile
+	 * @param  rules  the rules to add to the Tile
+	 * @param  weight the relative frequency of the Tile, has to be greater than 0
+	 */
+	public Tile(int id, Rule[] rules, double weight) {
+		if(!(weight > 0))
+			throw new IllegalArgumentException("Tile weight has to be greater than 0: " + weight);
 		this.rules = new Rule[rules.length];
 		this.id = id;
+		this.weight = weight;
 		for(int i = 0; i < rules.length; i++)
 			this.rules[i] = rules[i];
 	}
 
 	/**
-	 * Function to see if all Rules for this tile are fullfilles at a certain position
+	 * Function to see if all Rules for this tile are fullfilles at a certain position.
+	 * A tile that is forced by one rule but impossible by another one is forbidden.
 	 * @param  grid current gridstate
 	 * @param  x    x-coordinate of Superposition
 	 * @param  y    y-coordinate of Superposition
@@ -37,20 +54,72 @@ public class Tile {
 	 */
 	public Rule.STATE getState(Gridstate grid, int x, int y) {
 		boolean possible = true;
+		boolean forced = false;
+		SolverMetrics.Counters counters = grid.counters;
 		for(Rule r:rules){
+			if(counters != null)
+				counters.evaluated(r);
 			Rule.STATE s = r.getState(grid, x, y, this);
-			if(s == Rule.STATE.FORBIDDEN || s == Rule.STATE.FORCED)
+			if(s == Rule.STATE.FORBIDDEN)
 				return s;
+			if(s == Rule.STATE.FORCED)
+				forced = true;
 			if(s == Rule.STATE.IMPOSSIBLE)
 				possible = false;
 		}
-		if(possible){
+		if(forced){
+			return possible ? Rule.STATE.FORCED : Rule.STATE.FORBIDDEN;
+		} else if(possible){
 			return Rule.STATE.POSSIBLE;
 		} else {
 			return Rule.STATE.IMPOSSIBLE;
 		}
 	}
 
+	/**
+	 * Getter Function for the rules of the tile.
+	 * @return the rules that were set in the Constructor
+	 */
+	Rule[] getRules(){
+		return rules;
+	}
+
+	/**
+	 * Function to see if a rule was set for this tile.
+	 * @param  r the rule
+	 * @return   true if the rule is one of the rules of the tile
+	 */
+	public boolean hasRule(Rule r){
+		for(Rule rule:rules)
+			if(rule == r)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Getter Function for the index of the tile inside its Tileset.
+	 * @return the index or -1 if the tile isn't part of a Tileset
+	 */
+	int getIndex(){
+		return index;
+	}
+
+	/**
+	 * Setter Function for the index of the tile inside its Tileset.
+	 * @param index the index of the tile
+	 */
+	void setIndex(int index){
+		this.index = index;
+	}
+
+	/**
+	 * Getter Function for the weight of the tile.
+	 * @return relative frequency of the tile that was set in the Constructor
+	 */
+	public double getWeight(){
+		return weight;
+	}
+
 	/**
 	 * Getter Function for the id of the tile.
 	 * @return id of the tile that was set in the Constructor
@@ -0,0 +1,258 @@
+package math.wfc;
+import java.util.ArrayList;
+import java.util.Random;
+import math.wfc.rules.Rule;
+
+/**
+ * A Class storing the tiles a grid can be filled with. Every tile gets an index
+ * inside the tileset that is used as its bit in the domain of a Superposition.
+ */
+public class Tileset {
+	//draws from the alias table before the weights of a domain are summed up
+	private final static int MAX_ALIAS_ATTEMPTS = 8;
+
+	private final Tile[] tiles;
+	private final Rule[] rules;
+	private final int words;
+	//ruleTiles[r * words + w] is word w of the tiles that have rule r
+	private final long[] ruleTiles;
+
+	//weights of the tiles, weight * log(weight) for the entropy and
+	//the alias table for sampling a tile proportional to its weight
+	private final double[] weights;
+	private final double[] weightLogWeights;
+	private final double[] aliasProbability;
+	private final int[] alias;
+	private final boolean uniformWeights;
+
+	/**
+	 * Constructor for a Tileset object.
+	 * @param  tiles the tiles of the tileset
+	 */
+	public Tileset(Tile[] tiles){
+		this.tiles = new Tile[tiles.length];
+		for(int i = 0; i < tiles.length; i++){
+			this.tiles[i] = tiles[i];
+			//a tile keeps the index of the first tileset it was added to
+			if(tiles[i].getIndex() < 0)
+				tiles[i].setIndex(i);
+		}
+		words = (tiles.length + 63) >>> 6;
+		rules = collectRules(tiles);
+		ruleTiles = new long[rules.length * words];
+		for(int r = 0; r < rules.length; r++)
+			for(int i = 0; i < tiles.length; i++)
+				for(Rule other:tiles[i].getRules())
+					if(other == rules[r])
+						ruleTiles[r * words + (i >>> 6)] |= 1L << i;
+
+		weights = new double[tiles.length];
+		weightLogWeights = new double[tiles.length];
+		boolean uniform = true;
+		for(int i = 0; i < tiles.length; i++){
+			weights[i] = tiles[i].getWeight();
+			weightLogWeights[i] = weights[i] * Math.log(weights[i]);
+			uniform &= weights[i] == weights[0];
+		}
+		uniformWeights = uniform;
+		aliasProbability = new double[tiles.length];
+		alias = new int[tiles.length];
+		buildAliasTable();
+	}
+
+	/**
+	 * Getter Function for the amount of tiles.
+	 * @return count of tiles in the tileset
+	 */
+	public int size(){
+		return tiles.length;
+	}
+
+	/**
+	 * Gets the tile at a certain index.
+	 * @param  i the index of the tile
+	 * @return   the tile at that index
+	 */
+	public Tile get(int i){
+		return tiles[i];
+	}
+
+	/**
+	 * Gets the index of a tile in O(1) if the tile was first added to this tileset,
+	 * otherwise the tileset is searched.
+	 * @param  t the tile to search for
+	 * @return   the index of the tile or -1 if it isn't part of the tileset
+	 */
+	public int indexOf(Tile t){
+		int i = t.getIndex();
+		if(i >= 0 && i < tiles.length && tiles[i] == t)
+			return i;
+		for(i = 0; i < tiles.length; i++)
+			if(tiles[i] == t)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Getter Function for the weight of a tile.
+	 * @param  i the index of the tile
+	 * @return   the weight of the tile
+	 */
+	public double getWeight(int i){
+		return weights[i];
+	}
+
+	/**
+	 * Gets weight * log(weight) of a tile, used to calculate the entropy of a domain.
+	 * @param  i the index of the tile
+	 * @return   weight * log(weight) of the tile
+	 */
+	public double getWeightLogWeight(int i){
+		return weightLogWeights[i];
+	}
+
+	/**
+	 * Tests if all tiles have the same weight.
+	 * @return true if every tile is equally likely
+	 */
+	public boolean hasUniformWeights(){
+		return uniformWeights;
+	}
+
+	/**
+	 * Chooses a random tile out of a domain with a probability proportional to its weight.
+	 * Tiles are drawn from the alias table of the whole tileset until one is part of the
+	 * domain. If that takes too long the weights of the domain are summed up instead.
+	 * @param  domains array holding the domain
+	 * @param  offset  index of the first word of the domain
+	 * @param  rand    random generator to use
+	 * @return         index of the chosen tile or -1 if the domain is empty
+	 */
+	int sample(long[] domains, int offset, Random rand){
+		for(int attempt = 0; attempt < MAX_ALIAS_ATTEMPTS; attempt++){
+			int i = rand.nextInt(tiles.length);
+			if(rand.nextDouble() >= aliasProbability[i])
+				i = alias[i];
+			if((domains[offset + (i >>> 6)] & (1L << i)) != 0)
+				return i;
+		}
+
+		double total = 0;
+		for(int w = 0; w < words; w++)
+			for(long word = domains[offset + w]; word != 0; word &= word - 1)
+				total += weights[(w << 6) + Long.numberOfTrailingZeros(word)];
+		double r = rand.nextDouble() * total;
+		int last = -1;
+		for(int w = 0; w < words; w++){
+			for(long word = domains[offset + w]; word != 0; word &= word - 1){
+				last = (w << 6) + Long.numberOfTrailingZeros(word);
+				r -= weights[last];
+				if(r < 0)
+					return last;
+			}
+		}
+		//only reached through rounding errors
+		return last;
+	}
+
+	/**
+	 * Getter Function for the amount of long words needed to store a domain.
+	 * @return count of 64-bit words per domain
+	 */
+	int words(){
+		return words;
+	}
+
+	/**
+	 * Makes every tile possible in a domain.
+	 * @param domains array holding the domain
+	 * @param offset  index of the first word of the domain
+	 */
+	void fill(long[] domains, int offset){
+		for(int w = 0; w < words; w++){
+			int bits = Math.min(64, tiles.length - (w << 6));
+			domains[offset + w] = bits == 64 ? -1L : (1L << bits) - 1;
+		}
+	}
+
+	/**
+	 * Getter Function for the distinct rules of all tiles.
+	 * @return every rule of the tileset exactly once
+	 */
+	Rule[] getRules(){
+		return rules;
+	}
+
+	/**
+	 * Gets the tiles every rule of getRules() belongs to.
+	 * @return word w of the tiles of rule r at index r * words + w
+	 */
+	long[] getRuleTiles(){
+		return ruleTiles;
+	}
+
+	/**
+	 * Builds the alias table of the weights with Vose's method.
+	 */
+	private void buildAliasTable(){
+		int n = tiles.length;
+		double total = 0;
+		for(double w:weights)
+			total += w;
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0, largeCount = 0;
+		for(int i = 0; i < n; i++){
+			scaled[i] = weights[i] * n / total;
+			if(scaled[i] < 1){
+				small[smallCount++] = i;
+			} else {
+				large[largeCount++] = i;
+			}
+		}
+		while(smallCount > 0 && largeCount > 0){
+			int s = small[--smallCount];
+			int l = large[--largeCount];
+			aliasProbability[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] += scaled[s] - 1;
+			if(scaled[l] < 1){
+				small[smallCount++] = l;
+			} else {
+				large[largeCount++] = l;
+			}
+		}
+		while(largeCount > 0)
+			aliasProbability[large[--largeCount]] = 1;
+		while(smallCount > 0)
+			aliasProbability[small[--smallCount]] = 1;
+	}
+
+	/**
+	 * Collects all distinct rules of a tileset.
+	 * @param  tiles the tiles to collect the rules from
+	 * @return       every rule of the tiles exactly once
+	 */
+	private static Rule[] collectRules(Tile[] tiles){
+		ArrayList<Rule> list = new ArrayList<Rule>();
+		for(Tile t:tiles)
+			for(Rule r:t.getRules())
+				if(!containsRule(list, r))
+					list.add(r);
+		return list.toArray(new Rule[list.size()]);
+	}
+
+	/**
+	 * Tests if a list contains the exact same rule object.
+	 * @param  list the list to search
+	 * @param  r    the rule to search for
+	 * @return      true if the rule is in the list
+	 */
+	private static boolean containsRule(ArrayList<Rule> list, Rule r){
+		for(Rule other:list)
+			if(other == r)
+				return true;
+		return false;
+	}
+}
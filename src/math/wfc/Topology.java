@@ -0,0 +1,208 @@
+package math.wfc;
+import java.util.Arrays;
+import math.wfc.rules.Direction;
+
+/**
+ * The neighbourhood of every position of a grid, computed once for its size and border
+ * behaviour so rules can walk positions by their index without any bounds checks.
+ * The neighbour of every position in every Direction is stored in a table, positions
+ * outside of a bounded grid are -1 like the border in Gridstate.getCell(). The rows,
+ * columns and blocks of positions are built the first time they are asked for.
+ * The arrays returned by the getters are shared and must not be changed.
+ * Grids copied from another grid share its Topology.
+ */
+public final class Topology {
+    private final static Direction[] DIRECTIONS = Direction.values();
+
+    private final int width, height, depth;
+    private final boolean looping;
+
+    //neighbours[cell * DIRECTIONS.length + d] is the position in direction d of cell
+    private final int[] neighbours;
+
+    //rows[y + z * height] and columns[x + z * width], built when they are first used
+    private volatile int[][] rows, columns;
+
+    //the blocks of every block size that was asked for
+    private volatile Blocks[] blocks = new Blocks[0];
+
+    /**
+     * Constructor for the Topology of a grid.
+     * @param  width   width of the grid
+     * @param  height  height of the grid
+     * @param  depth   count of layers of the grid
+     * @param  looping whether positions outside the grid wrap around
+     */
+    Topology(int width, int height, int depth, boolean looping) {
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.looping = looping;
+        int cells = width * height * depth;
+        neighbours = new int[cells * DIRECTIONS.length];
+        int cell = 0;
+        for(int z = 0; z < depth; z++)
+            for(int y = 0; y < height; y++)
+                for(int x = 0; x < width; x++, cell++)
+                    for(Direction d:DIRECTIONS)
+                        neighbours[cell * DIRECTIONS.length + d.ordinal()] =
+                            getCell(x + d.getDx(), y + d.getDy(), z + d.getDz());
+    }
+
+    /**
+     * Gets the index of the position at a certain coordinate, positions outside the
+     * grid are wrapped around if the grid is looping.
+     * @param  x x-Coordinate of the position
+     * @param  y y-Coordinate of the position
+     * @param  z layer of the position
+     * @return   x + (y + z * height) * width inside the grid or -1 for the border
+     */
+    int getCell(int x, int y, int z) {
+        if(x < 0 || y < 0 || z < 0 || x >= width || y >= height || z >= depth){
+            if(!looping)
+                return -1;
+            x = wrap(x, width);
+            y = wrap(y, height);
+            z = wrap(z, depth);
+        }
+        return x + (y + z * height) * width;
+    }
+
+    /**
+     * Gets the neighbour of a position.
+     * @param  cell      index of the position
+     * @param  direction ordinal of the Direction of the neighbour
+     * @return           index of the neighbour or -1 for the border
+     */
+    public int getNeighbour(int cell, int direction) {
+        return neighbours[cell * DIRECTIONS.length + direction];
+    }
+
+    /**
+     * Gets the positions of the row of a position from left to right.
+     * @param  cell index of the position
+     * @return      indices of the positions of the row
+     */
+    public int[] getRow(int cell) {
+        int[][] r = rows;
+        if(r == null){
+            r = new int[height * depth][width];
+            for(int row = 0; row < r.length; row++)
+                for(int x = 0; x < width; x++)
+                    r[row][x] = x + row * width;
+            rows = r;
+        }
+        return r[cell / width];
+    }
+
+    /**
+     * Gets the positions of the column of a position from top to bottom.
+     * @param  cell index of the position
+     * @return      indices of the positions of the column
+     */
+    public int[] getColumn(int cell) {
+        int[][] c = columns;
+        if(c == null){
+            c = new int[width * depth][height];
+            for(int column = 0; column < c.length; column++)
+                for(int y = 0; y < height; y++)
+                    c[column][y] = column % width + (y + column / width * height) * width;
+            columns = c;
+        }
+        return c[cell % width + cell / (width * height) * width];
+    }
+
+    /**
+     * Gets the positions of the block of a position. The grid is divided into blocks
+     * of blockWidth x blockHeight positions starting at (0, 0) in every layer, the blocks
+     * at the right and the bottom are cut off or wrapped around like any position outside
+     * the grid. The positions are ordered column by column.
+     * @param  cell        index of the position
+     * @param  blockWidth  width of the blocks
+     * @param  blockHeight height of the blocks
+     * @return             indices of the positions of the block
+     */
+    public int[] getBlock(int cell, int blockWidth, int blockHeight) {
+        Blocks b = null;
+        for(Blocks other:blocks)
+            if(other.blockWidth == blockWidth && other.blockHeight == blockHeight)
+                b = other;
+        if(b == null)
+            b = addBlocks(blockWidth, blockHeight);
+        return b.members[b.block[cell]];
+    }
+
+    /**
+     * Builds the blocks of a block size and keeps them for later calls.
+     * @param  blockWidth  width of the blocks
+     * @param  blockHeight height of the blocks
+     * @return             the blocks
+     */
+    private synchronized Blocks addBlocks(int blockWidth, int blockHeight) {
+        for(Blocks other:blocks)
+            if(other.blockWidth == blockWidth && other.blockHeight == blockHeight)
+                return other;
+        Blocks b = new Blocks(blockWidth, blockHeight);
+        Blocks[] newBlocks = new Blocks[blocks.length + 1];
+        System.arraycopy(blocks, 0, newBlocks, 0, blocks.length);
+        newBlocks[blocks.length] = b;
+        blocks = newBlocks;
+        return b;
+    }
+
+    /**
+     * Wraps a coordinate into the grid without a division if it is at most one size outside.
+     * @param  v    the coordinate
+     * @param  size the size of the grid along the axis of the coordinate
+     * @return      the coordinate inside the grid
+     */
+    static int wrap(int v, int size) {
+        if(v < 0){
+            v += size;
+        } else if(v >= size){
+            v -= size;
+        }
+        return v >= 0 && v < size ? v : Math.floorMod(v, size);
+    }
+
+    /**
+     * The blocks of one block size.
+     */
+    private class Blocks {
+        final int blockWidth, blockHeight;
+        //block[cell] is the index of the block of a position in members
+        final int[] block;
+        final int[][] members;
+
+        Blocks(int blockWidth, int blockHeight) {
+            this.blockWidth = blockWidth;
+            this.blockHeight = blockHeight;
+            int blocksPerRow = (width + blockWidth - 1) / blockWidth;
+            int blocksPerLayer = blocksPerRow * ((height + blockHeight - 1) / blockHeight);
+            block = new int[width * height * depth];
+            members = new int[blocksPerLayer * depth][];
+            boolean[] added = new boolean[block.length];
+            int[] buffer = new int[blockWidth * blockHeight];
+            for(int i = 0; i < members.length; i++){
+                int x0 = i % blocksPerLayer % blocksPerRow * blockWidth;
+                int y0 = i % blocksPerLayer / blocksPerRow * blockHeight;
+                int z = i / blocksPerLayer;
+                int count = 0;
+                for(int x = x0; x < x0 + blockWidth; x++){
+                    for(int y = y0; y < y0 + blockHeight; y++){
+                        int cell = getCell(x, y, z);
+                        if(cell < 0 || added[cell])
+                            continue;
+                        added[cell] = true;
+                        buffer[count++] = cell;
+                        if(x < width && y < height)
+                            block[cell] = i;
+                    }
+                }
+                members[i] = Arrays.copyOf(buffer, count);
+                for(int k = 0; k < count; k++)
+                    added[members[i][k]] = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package math.wfc;
+
+/**
+ * An undo log for the domains of a Gridstate. Every changed word is recorded
+ * with its old value, so the grid can be reset to any earlier mark without
+ * keeping copies of the whole grid.
+ */
+class Trail {
+	private int[] positions;
+	private long[] values;
+	private int size;
+
+	/**
+	 * Constructor for an empty Trail.
+	 */
+	Trail(){
+		positions = new int[64];
+		values = new long[64];
+	}
+
+	/**
+	 * Records the old value of a word of the domain array.
+	 * @param position index of the word in the domain array
+	 * @param value    value of the word before the change
+	 */
+	void record(int position, long value){
+		if(size == positions.length){
+			int[] newPositions = new int[size * 2];
+			long[] newValues = new long[size * 2];
+			System.arraycopy(positions, 0, newPositions, 0, size);
+			System.arraycopy(values, 0, newValues, 0, size);
+			positions = newPositions;
+			values = newValues;
+		}
+		positions[size] = position;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * Gets the current length of the trail, used as a mark to undo to.
+	 * @return count of recorded changes
+	 */
+	int size(){
+		return size;
+	}
+
+	/**
+	 * Gets the position of a recorded change.
+	 * @param  i index of the change
+	 * @return   index of the word in the domain array
+	 */
+	int getPosition(int i){
+		return positions[i];
+	}
+
+	/**
+	 * Gets the old value of a recorded change.
+	 * @param  i index of the change
+	 * @return   value of the word before the change
+	 */
+	long getValue(int i){
+		return values[i];
+	}
+
+	/**
+	 * Removes the last recorded change.
+	 */
+	void pop(){
+		size--;
+	}
+
+	/**
+	 * Removes all recorded changes.
+	 */
+	void clear(){
+		size = 0;
+	}
+}
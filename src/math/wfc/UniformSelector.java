@@ -0,0 +1,39 @@
+package math.wfc;
+import java.util.Random;
+
+/**
+ * A CellSelector that chooses a position with a probability proportional to its count
+ * of possibilities. Together with a uniform choice of the tile this picks uniformly
+ * out of all possibilities of the positions that haven't collapsed, like
+ * Gridstate.makeRandomChoice(). Every selection scans the whole grid.
+ */
+public class UniformSelector implements CellSelector {
+	private Gridstate grid;
+
+	public void init(Gridstate grid, Random rand){
+		this.grid = grid;
+	}
+
+	public void domainChanged(Gridstate grid, int cell, int word, long before, long after){
+	}
+
+	public int selectCell(Random rand){
+		int cells = grid.getCellCount();
+		int totalPossibilities = 0;
+		for(int cell = 0; cell < cells; cell++)
+			if(!grid.isCollapsed(cell))
+				totalPossibilities += grid.getPossibilityCount(cell);
+		if(totalPossibilities == 0)
+			return -1;
+
+		int chosenPossibility = rand.nextInt(totalPossibilities);
+		for(int cell = 0; cell < cells; cell++){
+			if(!grid.isCollapsed(cell)){
+				chosenPossibility -= grid.getPossibilityCount(cell);
+				if(chosenPossibility < 0)
+					return cell;
+			}
+		}
+		return -1;
+	}
+}
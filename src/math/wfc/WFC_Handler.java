@@ -1,4 +1,14 @@
 package math.wfc;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Stack;
 import java.util.Random;
 
@@ -6,26 +16,197 @@ import java.util.Random;
  * Class that handles the main Wave function collapse operations.
  */
 public class WFC_Handler {
+    //"WFCS" and the version of the snapshot format, version 1 had no count of layers
+    private final static int SNAPSHOT_MAGIC = 0x57464353;
+    private final static int SNAPSHOT_VERSION = 2;
+    //count of trail entries read at once, a corrupt trail size doesn't allocate more than is read
+    private final static int SNAPSHOT_CHUNK = 1 << 16;
+
     private Gridstate currentGrid;
     private Stack<Gridstate> history;
-    private Random random;
+    private SeededRandom random;
+    private long seed;
+    private Backtracking backtracking = Backtracking.TRAIL;
+    private CellSelector selector;
+
+    //decision stack of the trail mode, every level stores the trail mark
+    //before the decision, the position and the tile that was chosen
+    private int[] levels = new int[3 * 16];
+    private int depth;
+    private long backtracks;
+
+    //nogoods learned from contradictions by the trail mode, null while nothing is learned
+    private NogoodStore nogoods;
+    private int nogoodCapacity;
+    //copy of the grid before the first choice the choices are made on again to find
+    //the one a contradiction goes back to, built at the first contradiction
+    private Gridstate replay;
+    private NogoodStore.Watcher replayWatcher;
+    //decision stack of the replay grid, laid out like levels
+    private int[] replayLevels = new int[3 * 16];
+    private int replayDepth;
+    //the choice that is removed by the running backjump
+    private int conflictCell, conflictTile;
+
+    //restarts of the trail mode, null to never restart
+    private RestartPolicy restartPolicy;
+    //count of restarts of the search and value of backtracks at the last one
+    private int restarts;
+    private long restartBacktracks;
+
+    //set from other threads to stop a running search
+    private volatile boolean cancelled;
+
+    //file the trail mode writes a snapshot to every checkpointInterval choices
+    private Path checkpointFile;
+    private long checkpointInterval;
+    //the first snapshot is written before the first choice
+    private long choicesSinceCheckpoint = Long.MAX_VALUE;
+
+    //metrics the runs are added to and the counters of the running search
+    private SolverMetrics metrics;
+    private SolverMetrics.Counters counters;
+
+    //publishes the progress of the search, null if nobody follows it
+    private CollapseFeed feed;
 
     /**
-     * Constructor for a WFC Handler
+     * Constructor for a WFC Handler with a random seed, getSeed() returns
+     * the seed so the run can be repeated.
      * @param  w       width of grid
      * @param  h       height of grid
      * @param  tileset tileset to fill the grid with
      */
     public WFC_Handler(int w, int h, Tile[] tileset) {
-        currentGrid = new Gridstate(w, h, tileset);
-        history = new Stack<Gridstate>();
-        random = new Random();
+        this(new Gridstate(w, h, tileset), new Random().nextLong());
+    }
+
+    /**
+     * Constructor for a WFC Handler. Two handlers with the same grid and seed
+     * make the same choices.
+     * @param  w       width of grid
+     * @param  h       height of grid
+     * @param  tileset tileset to fill the grid with
+     * @param  seed    seed of the random choices
+     */
+    public WFC_Handler(int w, int h, Tile[] tileset, long seed) {
+        this(new Gridstate(w, h, tileset), seed);
     }
 
     public WFC_Handler(Gridstate g) {
+        this(g, new Random().nextLong());
+    }
+
+    /**
+     * Constructor for a WFC Handler working on an existing grid.
+     * @param  g    the grid to fill
+     * @param  seed seed of the random choices
+     */
+    public WFC_Handler(Gridstate g, long seed) {
         currentGrid = g;
         history = new Stack<Gridstate>();
-        random = new Random();
+        setSeed(seed);
+    }
+
+    /**
+     * Sets the seed of the random generator making the choices.
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        random = new SeededRandom(seed);
+    }
+
+    /**
+     * Starts a new search on the grid of the handler, used after the grid was reset
+     * for the next job. The decision stack and the random generator are reused.
+     * @param seed the seed of the new search
+     */
+    void reset(long seed) {
+        this.seed = seed;
+        random.setSeed(seed);
+        depth = 0;
+        dropReplay();
+        if(nogoods != null)
+            nogoods.clear();
+        restarts = 0;
+        restartBacktracks = backtracks;
+    }
+
+    /**
+     * Gets the seed the random generator was last set to.
+     * @return the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets how the handler goes back after a contradiction.
+     * @param backtracking the backtracking mode, TRAIL by default
+     */
+    public void setBacktracking(Backtracking backtracking) {
+        this.backtracking = backtracking;
+    }
+
+    /**
+     * Makes the trail mode learn from contradictions. The choices a contradiction goes
+     * back to are made again on a copy of the grid until the last choice fails, the
+     * search then jumps back over every choice after that, and the failing combination
+     * of choices is kept as a nogood that removes the failed tile whenever the other
+     * choices of it are made again. Only the nogoods used last are kept. Changes the
+     * choices made for a seed, by default nothing is learned.
+     * @param capacity the most nogoods that are kept, 0 to go back to the last choice
+     *                 without learning
+     */
+    public void setNogoodCapacity(int capacity) {
+        if(capacity < 0)
+            throw new IllegalArgumentException("Nogood capacity can't be negative: " + capacity);
+        dropReplay();
+        nogoodCapacity = capacity;
+        nogoods = null;
+    }
+
+    /**
+     * Makes the trail mode start again from the grid before the first choice once
+     * a run of the search used up its budget of backtracks. Every restart sets the
+     * random generator to a new seed derived from getSeed() and the count of restarts,
+     * so the search stays repeatable, and starts the selector again, so ties between
+     * positions are broken differently. Tiles removed before the first choice stay
+     * removed. A run continued with readSnapshot() starts the schedule again.
+     * @param policy the policy or null to never restart, the default
+     */
+    public void setRestartPolicy(RestartPolicy policy) {
+        restartPolicy = policy;
+        restarts = 0;
+        restartBacktracks = backtracks;
+    }
+
+    /**
+     * Sets the strategy choosing the position of the next random choice.
+     * Only used with Backtracking.TRAIL, the default is a MinimumEntropySelector
+     * for tilesets with equal weights and a WeightedEntropySelector otherwise.
+     * @param selector the strategy to use
+     */
+    public void setCellSelector(CellSelector selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * Sets the metrics every run of wfc() is added to. The same metrics can
+     * be shared by handlers running on different threads.
+     * @param metrics the metrics or null to stop counting
+     */
+    public void setMetrics(SolverMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the feed the progress of the runs of wfc() is published to.
+     * @param feed the feed or null to stop publishing
+     */
+    public void setCollapseFeed(CollapseFeed feed) {
+        this.feed = feed;
     }
 
     /**
@@ -33,30 +214,596 @@ public class WFC_Handler {
      * @return  true if the algorithm terminted successfully otherwise false
      */
     public boolean wfc() {
-        while(true){
-            if(currentGrid.collapse()){
+        SolveEvent event = new SolveEvent();
+        if(metrics == null && !event.isEnabled())
+            return backtracking == Backtracking.TRAIL ? wfcTrail() : wfcClone();
+
+        counters = new SolverMetrics.Counters(currentGrid.getTileset());
+        count(currentGrid);
+        event.begin();
+        boolean solved = false;
+        try {
+            solved = backtracking == Backtracking.TRAIL ? wfcTrail() : wfcClone();
+            return solved;
+        } finally {
+            event.end();
+            currentGrid.removeListener(counters);
+            currentGrid.counters = null;
+            if(event.shouldCommit()){
+                event.set(currentGrid, counters, solved);
+                event.commit();
+            }
+            if(metrics != null)
+                metrics.add(counters, solved);
+            counters = null;
+        }
+    }
+
+    /**
+     * Runs Wave function collapse and keeps a copy of the grid for every choice.
+     * @return  true if the algorithm terminted successfully, false if the grid can't be finished or the search was cancelled
+     */
+    private boolean wfcClone() {
+        SolverMetrics.Counters counters = this.counters;
+        if(feed != null)
+            feed.start(currentGrid);
+        while(!cancelled){
+            long start = counters != null ? System.nanoTime() : 0;
+            boolean failed = currentGrid.collapse();
+            if(counters != null)
+                counters.collapseTime += System.nanoTime() - start;
+            if(failed){
                 if(history.empty())
                     return false;
                 currentGrid = history.pop();
+                if(counters != null)
+                    counters.backtracks++;
             } else {
-                if(currentGrid.isFinished())
+                if(currentGrid.isFinished()){
+                    if(feed != null)
+                        feed.publishRows(currentGrid, true);
                     return true;
+                }
             }
             //make random choice and push current to history, if there is no choice left go back up
+            start = counters != null ? System.nanoTime() : 0;
             Gridstate newState = currentGrid.makeRandomChoice(random);
             while(newState == null){
                 if(history.empty())
                     return false;
                 currentGrid = history.pop();
+                if(counters != null)
+                    counters.backtracks++;
                 newState = currentGrid.makeRandomChoice(random);
             }
             history.push(currentGrid);
             currentGrid = newState;
+            if(counters != null){
+                counters.selectionTime += System.nanoTime() - start;
+                counters.decisions++;
+                //the choice was made before the counters followed the new grid
+                counters.collapses++;
+                counters.maxDepth = Math.max(counters.maxDepth, history.size());
+                count(currentGrid);
+            }
         }
+        return false;
     }
 
     /**
-     * A function to get the finished Grid.
+     * Lets the counters of the current run follow a grid.
+     * @param grid the grid
+     */
+    private void count(Gridstate grid) {
+        if(grid.counters == counters)
+            return;
+        if(grid.counters != null)
+            grid.removeListener(grid.counters);
+        grid.counters = counters;
+        grid.addListener(counters);
+    }
+
+    /**
+     * Runs Wave function collapse on a single grid and undoes the changes
+     * recorded in its trail on a contradiction. A failed choice of a tile is
+     * removed from its position one level further up, so no choice is tried twice.
+     * The decision stack is kept between runs, a run that was stopped or
+     * loaded with readSnapshot() continues where it stopped.
+     * @return  true if the algorithm terminted successfully, false if the grid can't be finished or the search was cancelled
+     */
+    private boolean wfcTrail() {
+        CellSelector selector = this.selector;
+        if(selector == null){
+            if(currentGrid.getTileset().hasUniformWeights()){
+                selector = new MinimumEntropySelector();
+            } else {
+                selector = new WeightedEntropySelector();
+            }
+        }
+        selector.init(currentGrid, random);
+        currentGrid.addListener(selector);
+        CollapseFeed feed = this.feed;
+        if(feed != null){
+            feed.start(currentGrid);
+            currentGrid.addListener(feed);
+        }
+        if(nogoodCapacity > 0 && nogoods == null)
+            nogoods = new NogoodStore(currentGrid.getCellCount(), nogoodCapacity);
+        NogoodStore.Watcher watcher = nogoods != null ? nogoods.watch(currentGrid) : null;
+        try {
+            SolverMetrics.Counters counters = this.counters;
+            while(!cancelled){
+                long start = counters != null ? System.nanoTime() : 0;
+                while(propagate(currentGrid, watcher)){
+                    if(depth == 0)
+                        return false;
+                    backtracks++;
+                    if(counters != null)
+                        counters.backtracks++;
+                    if(watcher != null){
+                        backjump(watcher);
+                    } else {
+                        depth--;
+                        currentGrid.undoTrail(levels[3 * depth]);
+                        currentGrid.removeTile(levels[3 * depth + 1], levels[3 * depth + 2]);
+                    }
+                }
+                if(restartPolicy != null && depth > 0
+                        && backtracks - restartBacktracks >= restartPolicy.getBudget(restarts)){
+                    restart(selector, watcher);
+                    continue;
+                }
+                if(counters != null){
+                    long now = System.nanoTime();
+                    counters.collapseTime += now - start;
+                    start = now;
+                }
+                //without a choice to go back to the collapsed positions are final
+                if(feed != null)
+                    feed.publishRows(currentGrid, depth == 0);
+                if(checkpointFile != null && choicesSinceCheckpoint >= checkpointInterval){
+                    checkpoint(selector);
+                    if(counters != null)
+                        start = System.nanoTime();
+                }
+
+                int cell = selector.selectCell(random);
+                if(cell < 0){
+                    if(feed != null)
+                        feed.publishRows(currentGrid, true);
+                    return true;
+                }
+                int tile = currentGrid.sampleTile(cell, random);
+                if(counters != null){
+                    counters.selectionTime += System.nanoTime() - start;
+                    counters.decisions++;
+                    counters.maxDepth = Math.max(counters.maxDepth, depth + 1);
+                }
+
+                //changes before the first choice never have to be undone
+                currentGrid.startTrail();
+                if(3 * depth + 3 > levels.length){
+                    int[] newLevels = new int[levels.length * 2];
+                    System.arraycopy(levels, 0, newLevels, 0, levels.length);
+                    levels = newLevels;
+                }
+                levels[3 * depth] = currentGrid.trailMark();
+                levels[3 * depth + 1] = cell;
+                levels[3 * depth + 2] = tile;
+                depth++;
+                choicesSinceCheckpoint++;
+                currentGrid.collapseCell(cell, tile);
+            }
+            return false;
+        } finally {
+            currentGrid.removeListener(selector);
+            if(feed != null)
+                currentGrid.removeListener(feed);
+            if(watcher != null)
+                nogoods.unwatch(watcher);
+        }
+    }
+
+    /**
+     * Undoes every choice and starts the next run of the search with a new seed.
+     * @param selector the selector of the search
+     * @param watcher  the watcher of the nogoods on the current grid or null
+     */
+    private void restart(CellSelector selector, NogoodStore.Watcher watcher) {
+        depth = 0;
+        currentGrid.undoTrail(levels[0]);
+        restarts++;
+        restartBacktracks = backtracks;
+        if(counters != null)
+            counters.restarts++;
+        if(watcher != null){
+            watcher.clear();
+            if(!restartPolicy.keepsNogoods()){
+                dropReplay();
+                nogoods.clear();
+            }
+        }
+        random.setSeed(seed + restarts * 0x9E3779B97F4A7C15L);
+        selector.init(currentGrid, random);
+    }
+
+    /**
+     * Propagates the changes of a grid with Gridstate.collapse() and the nogoods
+     * until neither of them changes anything anymore.
+     * @param  grid    the grid
+     * @param  watcher the watcher of the nogoods on the grid or null
+     * @return         true if the grid can't be finished, like Gridstate.collapse()
+     */
+    private static boolean propagate(Gridstate grid, NogoodStore.Watcher watcher) {
+        while(true){
+            if(grid.collapse()){
+                if(watcher != null)
+                    watcher.clear();
+                return true;
+            }
+            if(watcher == null || !watcher.hasPending())
+                return false;
+            if(!watcher.propagate())
+                return true;
+        }
+    }
+
+    /**
+     * Goes back after a contradiction of the current choices. The culprit, the last
+     * choice the failed tile can't be chosen after, is searched on the replay grid.
+     * The choices up to the culprit and the failed tile are learned as a nogood, every
+     * choice after the culprit is undone and the failed tile is removed at its position.
+     * @param watcher the watcher of the nogoods on the current grid
+     */
+    private void backjump(NogoodStore.Watcher watcher) {
+        int d = depth;
+        conflictCell = levels[3 * d - 2];
+        conflictTile = levels[3 * d - 1];
+        int k = d > 1 ? culprit(d) : 0;
+        if(counters != null){
+            counters.skippedLevels += d - 1 - k;
+            if(k > 0)
+                counters.learnedNogoods++;
+        }
+        depth = k;
+        currentGrid.undoTrail(levels[3 * k]);
+        watcher.clear();
+        currentGrid.removeTile(conflictCell, conflictTile);
+        //a failed tile without choices before it is removed for good
+        if(k > 0){
+            int[] cells = new int[k + 1], tiles = new int[k + 1];
+            for(int i = 0; i < k; i++){
+                cells[i] = levels[3 * i + 1];
+                tiles[i] = levels[3 * i + 2];
+            }
+            cells[k] = conflictCell;
+            tiles[k] = conflictTile;
+            nogoods.add(cells, tiles, k + 1);
+        } else if(replay != null){
+            replayUndo(replayDepth);
+            //a contradiction here is found again on the current grid
+            replay.removeTile(conflictCell, conflictTile);
+            propagate(replay, replayWatcher);
+        }
+    }
+
+    /**
+     * Finds the fewest choices from the bottom of the decision stack after which the
+     * conflict tile fails on the replay grid. The replay grid keeps the choices it has
+     * in common with the decision stack between calls, so going up or down a few levels
+     * only needs a few propagations. Without propagating the removed tiles of earlier
+     * backtracks the replay grid can know less than the current grid, if the tile can't
+     * be shown to fail the search goes back to the last choice.
+     * @param  d count of choices on the decision stack, the last one is the conflict
+     * @return   count of choices to keep
+     */
+    private int culprit(int d) {
+        if(replay == null){
+            replay = currentGrid.copyAt(levels[0]);
+            replay.startTrail();
+            replayWatcher = nogoods.watch(replay);
+            replayDepth = 0;
+        }
+        int common = 0;
+        while(common < replayDepth && common < d - 1 && replayLevels[3 * common + 1] == levels[3 * common + 1]
+                && replayLevels[3 * common + 2] == levels[3 * common + 2])
+            common++;
+        replayUndo(replayDepth - common);
+        if(fails(conflictCell, conflictTile)){
+            while(replayDepth > 0){
+                replayUndo(1);
+                if(!fails(conflictCell, conflictTile))
+                    return replayDepth + 1;
+            }
+            return 0;
+        }
+        for(int j = common; j < d - 1; j++){
+            int cell = levels[3 * j + 1], tile = levels[3 * j + 2];
+            if(!replayApply(cell, tile)){
+                //the choice fails on its own, it is the one to remove
+                conflictCell = cell;
+                conflictTile = tile;
+                return j;
+            }
+            if(fails(conflictCell, conflictTile))
+                return j + 1;
+        }
+        return d - 1;
+    }
+
+    /**
+     * Stops using the replay grid, it is built again from the current grid at the next contradiction.
+     */
+    private void dropReplay() {
+        if(replay == null)
+            return;
+        nogoods.unwatch(replayWatcher);
+        replay = null;
+        replayWatcher = null;
+    }
+
+    /**
+     * Makes a choice on the replay grid and propagates it.
+     * @param  cell the position
+     * @param  tile the tile
+     * @return      false if the choice fails, it is undone then
+     */
+    private boolean replayApply(int cell, int tile) {
+        if(3 * replayDepth + 3 > replayLevels.length){
+            int[] newLevels = new int[replayLevels.length * 2];
+            System.arraycopy(replayLevels, 0, newLevels, 0, replayLevels.length);
+            replayLevels = newLevels;
+        }
+        if(!replay.tilePossible(cell, tile))
+            return false;
+        replayLevels[3 * replayDepth] = replay.trailMark();
+        replayLevels[3 * replayDepth + 1] = cell;
+        replayLevels[3 * replayDepth + 2] = tile;
+        replayDepth++;
+        replay.collapseCell(cell, tile);
+        if(propagate(replay, replayWatcher)){
+            replayUndo(1);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Undoes the last choices on the replay grid.
+     * @param n count of choices
+     */
+    private void replayUndo(int n) {
+        if(n == 0)
+            return;
+        replayDepth -= n;
+        replay.undoTrail(replayLevels[3 * replayDepth]);
+        replayWatcher.clear();
+    }
+
+    /**
+     * Tests if a choice fails on the replay grid without keeping it.
+     * @param  cell the position
+     * @param  tile the tile
+     * @return      true if the tile isn't possible or propagating it fails
+     */
+    private boolean fails(int cell, int tile) {
+        if(!replay.tilePossible(cell, tile))
+            return true;
+        int mark = replay.trailMark();
+        replay.collapseCell(cell, tile);
+        boolean failed = propagate(replay, replayWatcher);
+        replay.undoTrail(mark);
+        replayWatcher.clear();
+        return failed;
+    }
+
+    /**
+     * Makes the trail mode write a snapshot with writeSnapshot() to a file every few choices.
+     * The snapshot is written to a temporary file next to it first and then moved, so the
+     * file always holds a complete snapshot. A run that was stopped can be continued by
+     * calling readSnapshot() with the file on a handler with the same grid and wfc().
+     * Writing a snapshot starts the selector of the search again, so the continued
+     * run only makes the same choices as the stopped one with the same interval.
+     * @param file     the file, null to stop writing snapshots
+     * @param interval count of choices between two snapshots
+     */
+    public void setCheckpoint(Path file, long interval) {
+        if(interval < 1)
+            throw new IllegalArgumentException("The interval has to be at least one choice");
+        checkpointFile = file;
+        checkpointInterval = interval;
+    }
+
+    /**
+     * Writes a snapshot to the checkpoint file.
+     * @param selector the selector of the running search
+     */
+    private void checkpoint(CellSelector selector) {
+        Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try {
+            try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeSnapshot(channel);
+            }
+            Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            throw new UncheckedIOException("Snapshot couldn't be written to " + checkpointFile, e);
+        }
+        choicesSinceCheckpoint = 0;
+        //a resumed run builds its selector from the snapshot, doing the same
+        //here makes both runs choose the same positions
+        selector.init(currentGrid, random);
+    }
+
+    /**
+     * Writes the state of the trail mode to a channel: the domains of the grid, the
+     * decision stack, the trail and the state of the random generator. All numbers
+     * are written big-endian after a header with the size of the grid and tileset.
+     * @param  channel the channel to write to
+     * @throws IOException if writing fails
+     */
+    public void writeSnapshot(WritableByteChannel channel) throws IOException {
+        if(backtracking != Backtracking.TRAIL)
+            throw new IllegalStateException("Snapshots need Backtracking.TRAIL");
+        long[] domains = currentGrid.getDomains();
+        Trail trail = currentGrid.getTrail();
+        int trailSize = trail == null ? -1 : trail.size();
+        ByteBuffer buffer = ByteBuffer.allocate(52 + 12 * depth + 12 * Math.max(trailSize, 0) + 8 * domains.length);
+        buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION);
+        buffer.putInt(currentGrid.getWidth()).putInt(currentGrid.getHeight()).putInt(currentGrid.getDepth());
+        buffer.putInt(currentGrid.getTileset().size()).putInt(currentGrid.getWords());
+        buffer.putInt(depth).putInt(trailSize);
+        buffer.putLong(random.getState()).putLong(backtracks);
+        buffer.asIntBuffer().put(levels, 0, 3 * depth);
+        buffer.position(buffer.position() + 12 * depth);
+        for(int i = 0; i < trailSize; i++)
+            buffer.putInt(trail.getPosition(i));
+        for(int i = 0; i < trailSize; i++)
+            buffer.putLong(trail.getValue(i));
+        buffer.asLongBuffer().put(domains);
+        buffer.rewind();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Reads a snapshot written by writeSnapshot() and sets the grid, the decision stack
+     * and the random generator to it. The grid has to have the same size and tileset
+     * as the grid of the snapshot, the next call of wfc() continues the search.
+     * @param  channel the channel to read from
+     * @throws IOException if reading fails or the snapshot doesn't fit to the grid
+     */
+    public void readSnapshot(ReadableByteChannel channel) throws IOException {
+        if(backtracking != Backtracking.TRAIL)
+            throw new IllegalStateException("Snapshots need Backtracking.TRAIL");
+        ByteBuffer header = read(channel, 8);
+        if(header.getInt() != SNAPSHOT_MAGIC)
+            throw new IOException("Not a snapshot");
+        int version = header.getInt();
+        if(version != 1 && version != SNAPSHOT_VERSION)
+            throw new IOException("Not a snapshot of this version");
+        header = read(channel, version == 1 ? 40 : 44);
+        if(header.getInt() != currentGrid.getWidth() || header.getInt() != currentGrid.getHeight()
+                || (version == 1 ? 1 : header.getInt()) != currentGrid.getDepth()
+                || header.getInt() != currentGrid.getTileset().size() || header.getInt() != currentGrid.getWords())
+            throw new IOException("The snapshot doesn't fit to the grid");
+        int newDepth = header.getInt();
+        int trailSize = header.getInt();
+        long randomState = header.getLong();
+        long newBacktracks = header.getLong();
+        long[] domains = new long[currentGrid.getDomains().length];
+        int cells = currentGrid.getCellCount();
+        //every decision collapses another position and needs the trail to be undone
+        if(newDepth < 0 || newDepth > cells || trailSize < -1 || newDepth > 0 && trailSize < 0
+                || 12L * newDepth + 12L * Math.max(trailSize, 0) + 8L * domains.length > Integer.MAX_VALUE)
+            throw new IOException("Corrupt snapshot");
+
+        int[] newLevels = new int[Math.max(levels.length, 3 * newDepth)];
+        read(channel, 12 * newDepth).asIntBuffer().get(newLevels, 0, 3 * newDepth);
+        for(int i = 0; i < newDepth; i++){
+            int mark = newLevels[3 * i], cell = newLevels[3 * i + 1], tile = newLevels[3 * i + 2];
+            if(mark < (i == 0 ? 0 : newLevels[3 * i - 3]) || mark > trailSize || cell < 0 || cell >= cells
+                    || tile < 0 || tile >= currentGrid.getTileset().size())
+                throw new IOException("Corrupt snapshot");
+        }
+        int[] positions = readPositions(channel, Math.max(trailSize, 0), domains.length);
+        long[] values = new long[positions.length];
+        for(int i = 0; i < values.length; i += SNAPSHOT_CHUNK){
+            int n = Math.min(values.length - i, SNAPSHOT_CHUNK);
+            read(channel, 8 * n).asLongBuffer().get(values, i, n);
+        }
+        read(channel, 8 * domains.length).asLongBuffer().get(domains);
+
+        currentGrid.restore(domains);
+        Trail trail = currentGrid.getTrail();
+        if(trailSize >= 0){
+            currentGrid.startTrail();
+            trail = currentGrid.getTrail();
+        }
+        if(trail != null){
+            trail.clear();
+            for(int i = 0; i < positions.length; i++)
+                trail.record(positions[i], values[i]);
+        }
+        levels = newLevels;
+        depth = newDepth;
+        dropReplay();
+        backtracks = newBacktracks;
+        restarts = 0;
+        restartBacktracks = newBacktracks;
+        random.setState(randomState);
+        choicesSinceCheckpoint = 0;
+    }
+
+    /**
+     * Reads the positions of the trail of a snapshot in parts of SNAPSHOT_CHUNK entries.
+     * @param  channel the channel
+     * @param  count   count of positions
+     * @param  bound   length of the domain array, every position has to be below it
+     * @return         the positions
+     * @throws IOException if the channel ends before or a position is out of range
+     */
+    private static int[] readPositions(ReadableByteChannel channel, int count, int bound) throws IOException {
+        int[] positions = new int[Math.min(count, SNAPSHOT_CHUNK)];
+        for(int i = 0; i < count; ){
+            int n = Math.min(count - i, SNAPSHOT_CHUNK);
+            ByteBuffer buffer = read(channel, 4 * n);
+            if(i + n > positions.length){
+                int[] newPositions = new int[Math.min(count, 2 * positions.length)];
+                System.arraycopy(positions, 0, newPositions, 0, i);
+                positions = newPositions;
+            }
+            for(int end = i + n; i < end; i++){
+                positions[i] = buffer.getInt();
+                if(positions[i] < 0 || positions[i] >= bound)
+                    throw new IOException("Corrupt snapshot");
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Reads a fixed count of bytes from a channel.
+     * @param  channel the channel
+     * @param  size    count of bytes
+     * @return         buffer with the bytes, ready to be read
+     * @throws IOException if the channel ends before
+     */
+    private static ByteBuffer read(ReadableByteChannel channel, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while(buffer.hasRemaining())
+            if(channel.read(buffer) < 0)
+                throw new IOException("Snapshot ended after " + buffer.position() + " of " + size + " bytes");
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Stops a running or the next run of wfc(), it returns false as soon as it notices.
+     * Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Tests if the search was cancelled with cancel().
+     * @return true if it was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Gets how often the trail mode went back to an earlier choice.
+     * @return count of backtracks over all runs of wfc()
+     */
+    public long getBacktracks() {
+        return backtracks;
+    }
+
+    /**
+     * A function to get the finished Grid, only the first layer of a grid with layers.
      * @return Grid of tiles
      */
     public Tile[][] getGrid(){
@@ -77,6 +824,26 @@ public class WFC_Handler {
      * Prints the current Grid.
      */
     public void printGrid(){
-        System.out.println(currentGrid);
+        try {
+            currentGrid.write(System.out);
+        } catch(IOException e) {
+            //PrintStream doesn't throw
+        }
+        System.out.println();
+    }
+
+    /**
+     * Enum used to choose how the handler goes back after a contradiction.
+     */
+    public enum Backtracking {
+        /**
+         * Every choice is made on a copy of the whole grid that is kept in a history.
+         */
+        CLONE,
+        /**
+         * Every choice is made on the same grid, only the changed words of the domains
+         * are recorded and restored on a contradiction.
+         */
+        TRAIL;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,150 @@
+package math.wfc;
+import java.util.Random;
+
+/**
+ * A CellSelector that chooses the position with the lowest Shannon entropy of the
+ * weights of its remaining tiles, like the original Wave function collapse. The sums
+ * of the weights are updated with every domain change and the positions with more
+ * than one possibility are kept in a binary heap ordered by entropy, so a selection
+ * takes O(1) and an update O(log n). Ties are broken by a small random noise per position.
+ */
+public class WeightedEntropySelector implements CellSelector {
+	//noise is small enough to only break ties
+	private final static double NOISE = 1e-6;
+
+	private Tileset tileset;
+	private int[] count;
+	private double[] weightSum;
+	private double[] weightLogWeightSum;
+	private double[] noise;
+
+	//min-heap of the positions with more than one possibility
+	private int[] heap;
+	private int[] heapPosition;
+	private double[] entropy;
+	private int heapSize;
+
+	public void init(Gridstate grid, Random rand){
+		tileset = grid.getTileset();
+		int cells = grid.getCellCount();
+		count = new int[cells];
+		weightSum = new double[cells];
+		weightLogWeightSum = new double[cells];
+		noise = new double[cells];
+		heap = new int[cells];
+		heapPosition = new int[cells];
+		entropy = new double[cells];
+		heapSize = 0;
+		long[] domains = grid.getDomains();
+		int words = tileset.words();
+		for(int cell = 0; cell < cells; cell++){
+			noise[cell] = NOISE * rand.nextDouble();
+			heapPosition[cell] = -1;
+			for(int w = 0; w < words; w++)
+				domainChanged(grid, cell, w, 0, domains[cell * words + w]);
+		}
+	}
+
+	public void domainChanged(Gridstate grid, int cell, int word, long before, long after){
+		for(long removed = before & ~after; removed != 0; removed &= removed - 1){
+			int i = (word << 6) + Long.numberOfTrailingZeros(removed);
+			count[cell]--;
+			weightSum[cell] -= tileset.getWeight(i);
+			weightLogWeightSum[cell] -= tileset.getWeightLogWeight(i);
+		}
+		for(long added = after & ~before; added != 0; added &= added - 1){
+			int i = (word << 6) + Long.numberOfTrailingZeros(added);
+			count[cell]++;
+			weightSum[cell] += tileset.getWeight(i);
+			weightLogWeightSum[cell] += tileset.getWeightLogWeight(i);
+		}
+		update(cell);
+	}
+
+	public int selectCell(Random rand){
+		return heapSize == 0 ? -1 : heap[0];
+	}
+
+	/**
+	 * Inserts, moves or removes a position in the heap after its domain changed.
+	 * @param cell index of the position
+	 */
+	private void update(int cell){
+		if(count[cell] <= 1){
+			if(heapPosition[cell] >= 0)
+				remove(cell);
+			return;
+		}
+		double e = Math.log(weightSum[cell]) - weightLogWeightSum[cell] / weightSum[cell] + noise[cell];
+		if(heapPosition[cell] < 0){
+			entropy[cell] = e;
+			heap[heapSize] = cell;
+			heapPosition[cell] = heapSize;
+			heapSize++;
+			siftUp(heapPosition[cell]);
+		} else if(e < entropy[cell]){
+			entropy[cell] = e;
+			siftUp(heapPosition[cell]);
+		} else {
+			entropy[cell] = e;
+			siftDown(heapPosition[cell]);
+		}
+	}
+
+	/**
+	 * Removes a position from the heap.
+	 * @param cell index of the position
+	 */
+	private void remove(int cell){
+		int i = heapPosition[cell];
+		heapSize--;
+		heapPosition[cell] = -1;
+		if(i == heapSize)
+			return;
+		int last = heap[heapSize];
+		heap[i] = last;
+		heapPosition[last] = i;
+		siftUp(i);
+		siftDown(heapPosition[last]);
+	}
+
+	/**
+	 * Moves an element of the heap up until its parent has a lower entropy.
+	 * @param i index inside the heap
+	 */
+	private void siftUp(int i){
+		int cell = heap[i];
+		while(i > 0){
+			int parent = (i - 1) >>> 1;
+			if(entropy[heap[parent]] <= entropy[cell])
+				break;
+			heap[i] = heap[parent];
+			heapPosition[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = cell;
+		heapPosition[cell] = i;
+	}
+
+	/**
+	 * Moves an element of the heap down until its children have a higher entropy.
+	 * @param i index inside the heap
+	 */
+	private void siftDown(int i){
+		int cell = heap[i];
+		while(true){
+			int child = 2 * i + 1;
+			if(child >= heapSize)
+				break;
+			if(child + 1 < heapSize && entropy[heap[child + 1]] < entropy[heap[child]])
+				child++;
+			if(entropy[heap[child]] >= entropy[cell])
+				break;
+			heap[i] = heap[child];
+			heapPosition[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = cell;
+		heapPosition[cell] = i;
+	}
+}
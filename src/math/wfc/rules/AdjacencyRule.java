@@ -0,0 +1,420 @@
+package math.wfc.rules;
+import math.wfc.Gridstate;
+import math.wfc.Tile;
+import math.wfc.Tileset;
+import math.wfc.Topology;
+import math.wfc.CellQueue;
+import math.wfc.Propagator;
+import math.wfc.DomainListener;
+import java.util.ArrayList;
+
+/**
+ * A Rule that only allows certain tiles next to each other, like the tiled model of
+ * Wave function collapse. The same AdjacencyRule object should be added to every tile
+ * of the tileset. For every tileset it is used with, the allowed neighbours are compiled
+ * into one bitmask per tile and direction, so a neighbour is propagated by combining the
+ * masks of its possible tiles. For large tilesets the rule can instead keep count of the
+ * supporting tiles of every tile at every position, see Propagation.
+ * On grids with layers the rule also checks the neighbours ABOVE and BELOW,
+ * tiles that aren't allowed next to anything in these directions can't be placed.
+ */
+public class AdjacencyRule extends Rule {
+	private final static Direction[] DIRECTIONS = Direction.values();
+
+	private final ArrayList<Tile> from = new ArrayList<Tile>();
+	private final ArrayList<Direction> directions = new ArrayList<Direction>();
+	private final ArrayList<Tile> to = new ArrayList<Tile>();
+
+	//compiled masks for the last tileset the rule was used with
+	private volatile Table table;
+
+	private Propagation propagation = Propagation.MASKS;
+
+	/**
+	 * Allows a tile to be placed next to another one. The opposite placement,
+	 * a next to b in the opposite direction, is allowed as well.
+	 * @param  a the first tile
+	 * @param  d the direction from a to b
+	 * @param  b the tile that may be placed next to a
+	 * @return   this rule, so calls can be chained
+	 */
+	public AdjacencyRule allow(Tile a, Direction d, Tile b){
+		from.add(a);
+		directions.add(d);
+		to.add(b);
+		table = null;
+		return this;
+	}
+
+	/**
+	 * Adds every rotation and mirrored version of the placements of this rule,
+	 * generated with rotate() and mirrorX(). Tiles keep referencing the same rule.
+	 * @return this rule, so calls can be chained
+	 */
+	public AdjacencyRule addSymmetry(){
+		AdjacencyRule rotated = this;
+		AdjacencyRule variants = new AdjacencyRule();
+		for(int i = 0; i < 4; i++){
+			variants.addAll(rotated);
+			variants.addAll(rotated.mirrorX());
+			rotated = rotated.rotate();
+		}
+		addAll(variants);
+		return this;
+	}
+
+	public STATE getState(Gridstate grid, int x, int y, Tile t){
+		Table table = getTable(grid.getTileset());
+		int i = grid.getTileset().indexOf(t);
+		if(i < 0)
+			return STATE.POSSIBLE;
+		int offset = i * table.words;
+		int cell = grid.getCell(x, y);
+		Topology topology = grid.getTopology();
+		for(int d = 0; d < 2 * grid.getDimensions(); d++)
+			if(!grid.intersects(topology.getNeighbour(cell, d), table.masks[d], offset))
+				return STATE.IMPOSSIBLE;
+		return STATE.POSSIBLE;
+	}
+
+	/**
+	 * Looks up the table and every neighbour only once for all tiles.
+	 */
+	public void getStates(Gridstate grid, int cell, long[] tiles, long[] forbidden, long[] forced, long[] impossible){
+		Table table = getTable(grid.getTileset());
+		Topology topology = grid.getTopology();
+		for(int d = 0; d < 2 * grid.getDimensions(); d++){
+			int neighbour = topology.getNeighbour(cell, d);
+			long[] masks = table.masks[d];
+			for(int w = 0; w < tiles.length; w++){
+				//tiles that are impossible already don't have to be checked again
+				for(long word = tiles[w] & ~impossible[w]; word != 0; word &= word - 1){
+					int i = (w << 6) + Long.numberOfTrailingZeros(word);
+					if(!grid.intersects(neighbour, masks, i * table.words))
+						impossible[w] |= 1L << i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Neighbours are handled by the propagator of the rule, so no position
+	 * has to be checked with getState() again, except without a propagator.
+	 */
+	public void addDependents(Gridstate grid, int x, int y, CellQueue queue){
+		addDependents(grid, grid.getCell(x, y), queue);
+	}
+
+	public void addDependents(Gridstate grid, int cell, CellQueue queue){
+		if(propagation != Propagation.STATE)
+			return;
+		Topology topology = grid.getTopology();
+		for(int d = 0; d < 2 * grid.getDimensions(); d++){
+			int neighbour = topology.getNeighbour(cell, d);
+			if(neighbour >= 0)
+				queue.addCell(neighbour);
+		}
+	}
+
+	public boolean supportsLayers(){
+		return true;
+	}
+
+	/**
+	 * Sets how the neighbours of a changed position are updated.
+	 * Only affects Gridstates created afterwards.
+	 * @param  propagation the propagation to use, MASKS by default
+	 * @return             this rule, so calls can be chained
+	 */
+	public AdjacencyRule setPropagation(Propagation propagation){
+		this.propagation = propagation;
+		return this;
+	}
+
+	public Propagator createPropagator(Gridstate grid){
+		if(propagation == Propagation.STATE)
+			return null;
+		if(propagation == Propagation.SUPPORT)
+			return new SupportPropagator(getTable(grid.getTileset()), grid);
+		return new MaskPropagator(getTable(grid.getTileset()), grid.getDimensions());
+	}
+
+	public AdjacencyRule rotate(){
+		AdjacencyRule rotated = new AdjacencyRule();
+		for(int i = 0; i < from.size(); i++)
+			rotated.allow(from.get(i), directions.get(i).rotate(), to.get(i));
+		return rotated;
+	}
+
+	public AdjacencyRule mirrorX(){
+		AdjacencyRule mirrored = new AdjacencyRule();
+		for(int i = 0; i < from.size(); i++)
+			mirrored.allow(from.get(i), directions.get(i).mirrorX(), to.get(i));
+		return mirrored;
+	}
+
+	public AdjacencyRule mirrorY(){
+		AdjacencyRule mirrored = new AdjacencyRule();
+		for(int i = 0; i < from.size(); i++)
+			mirrored.allow(from.get(i), directions.get(i).mirrorY(), to.get(i));
+		return mirrored;
+	}
+
+	/**
+	 * Adds every placement of another rule to this one.
+	 * @param other the rule to copy the placements from
+	 */
+	private void addAll(AdjacencyRule other){
+		for(int i = 0; i < other.from.size(); i++)
+			allow(other.from.get(i), other.directions.get(i), other.to.get(i));
+	}
+
+	/**
+	 * Gets the masks compiled for a tileset, compiles them if the rule
+	 * was last used with a different tileset.
+	 * @param  tileset the tileset of the grid
+	 * @return         the compiled masks
+	 */
+	private Table getTable(Tileset tileset){
+		Table t = table;
+		if(t == null || t.tileset != tileset){
+			t = new Table(tileset);
+			table = t;
+		}
+		return t;
+	}
+
+	/**
+	 * The allowed neighbours of every tile compiled for a tileset.
+	 * masks[d][i * words + w] is word w of the tiles allowed in direction d of tile i,
+	 * lists[d][i] are the indices of the same tiles.
+	 */
+	private class Table {
+		final Tileset tileset;
+		final int words;
+		final long[][] masks;
+		final int[][][] lists;
+
+		Table(Tileset tileset){
+			this.tileset = tileset;
+			words = (tileset.size() + 63) >>> 6;
+			masks = new long[DIRECTIONS.length][tileset.size() * words];
+			for(int i = 0; i < from.size(); i++){
+				int a = tileset.indexOf(from.get(i));
+				int b = tileset.indexOf(to.get(i));
+				if(a < 0 || b < 0)
+					continue;
+				Direction d = directions.get(i);
+				masks[d.ordinal()][a * words + (b >>> 6)] |= 1L << b;
+				masks[d.opposite().ordinal()][b * words + (a >>> 6)] |= 1L << a;
+			}
+			lists = new int[DIRECTIONS.length][tileset.size()][];
+			for(int d = 0; d < DIRECTIONS.length; d++){
+				for(int i = 0; i < tileset.size(); i++){
+					int count = 0;
+					for(int w = 0; w < words; w++)
+						count += Long.bitCount(masks[d][i * words + w]);
+					lists[d][i] = new int[count];
+					count = 0;
+					for(int w = 0; w < words; w++)
+						for(long mask = masks[d][i * words + w]; mask != 0; mask &= mask - 1)
+							lists[d][i][count++] = (w << 6) + Long.numberOfTrailingZeros(mask);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Propagator restricting the neighbours of a changed position to the
+	 * union of the masks of the tiles still possible at that position.
+	 */
+	private static class MaskPropagator implements Propagator {
+		private final Table table;
+		private final int directions;
+		private final long[] supported;
+
+		MaskPropagator(Table table, int dimensions){
+			this.table = table;
+			directions = 2 * dimensions;
+			supported = new long[table.words];
+		}
+
+		public boolean propagate(Gridstate grid, int cell){
+			Topology topology = grid.getTopology();
+			for(int d = 0; d < directions; d++){
+				int neighbour = topology.getNeighbour(cell, d);
+				if(neighbour < 0)
+					continue;
+				grid.unionOfMasks(cell, table.masks[d], supported);
+				if(!grid.restrict(neighbour, supported))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Propagator keeping count of the supporting tiles of every tile at every position
+	 * for each direction, like AC-4. A tile is supported from a direction by the tiles
+	 * of the neighbour in that direction that may be placed next to it. Removing a tile
+	 * only decrements the counts of the tiles it supported at its neighbours, a
+	 * tile whose count reaches zero is removed in turn. The counts follow every domain
+	 * change as a DomainListener, so they are restored when the trail is undone.
+	 */
+	private static class SupportPropagator implements Propagator, DomainListener {
+		private final Table table;
+		private final Gridstate grid;
+		private final int tiles;
+		private final int directions;
+		private final Topology topology;
+
+		//support[(cell * directions + d) * tiles + t] is the count of tiles at the neighbour
+		//in direction d of cell that may be placed next to tile t
+		private final int[] support;
+
+		//indices into support that reached zero and weren't handled yet
+		private int[] pending = new int[64];
+		private int pendingSize;
+
+		//tiles to remove from every position in the current round of propagate()
+		private final long[] removals;
+		private final boolean[] removing;
+		private final int[] touched;
+		private int touchedSize;
+		private final long[] allowed;
+
+		SupportPropagator(Table table, Gridstate grid){
+			this.table = table;
+			this.grid = grid;
+			tiles = table.tileset.size();
+			directions = 2 * grid.getDimensions();
+			topology = grid.getTopology();
+			int cells = grid.getCellCount();
+			support = new int[cells * directions * tiles];
+			removals = new long[cells * table.words];
+			removing = new boolean[cells];
+			touched = new int[cells];
+			allowed = new long[table.words];
+			long[] supporting = new long[table.words];
+			for(int cell = 0; cell < cells; cell++){
+				for(int d = 0; d < directions; d++){
+					int neighbour = topology.getNeighbour(cell, d);
+					if(neighbour >= 0)
+						grid.getDomain(neighbour, supporting);
+					for(int t = 0; t < tiles; t++){
+						int i = (cell * directions + d) * tiles + t;
+						//the border never changes, so a supported tile only needs a count of one
+						if(neighbour < 0){
+							support[i] = grid.intersects(-1, table.masks[d], t * table.words) ? 1 : 0;
+						} else {
+							for(int w = 0; w < table.words; w++)
+								support[i] += Long.bitCount(supporting[w] & table.masks[d][t * table.words + w]);
+						}
+						if(support[i] == 0 && grid.tilePossible(cell, t))
+							push(i);
+					}
+				}
+			}
+			grid.addListener(this);
+		}
+
+		public void domainChanged(Gridstate grid, int cell, int word, long before, long after){
+			for(long removed = before & ~after; removed != 0; removed &= removed - 1)
+				change(cell, (word << 6) + Long.numberOfTrailingZeros(removed), -1);
+			for(long added = after & ~before; added != 0; added &= added - 1)
+				change(cell, (word << 6) + Long.numberOfTrailingZeros(added), 1);
+		}
+
+		public boolean propagate(Gridstate grid, int cell){
+			while(pendingSize > 0){
+				//collects the unsupported tiles of every position first,
+				//so each position changes once per round
+				while(pendingSize > 0){
+					int i = pending[--pendingSize];
+					int t = i % tiles;
+					int supported = i / tiles / directions;
+					//the count may have been restored by undoing the trail since
+					if(support[i] != 0 || !grid.tilePossible(supported, t))
+						continue;
+					if(!removing[supported]){
+						removing[supported] = true;
+						touched[touchedSize++] = supported;
+					}
+					removals[supported * table.words + (t >>> 6)] |= 1L << t;
+				}
+				boolean failed = false;
+				for(int k = 0; k < touchedSize; k++){
+					int supported = touched[k];
+					for(int w = 0; w < table.words; w++){
+						allowed[w] = ~removals[supported * table.words + w];
+						removals[supported * table.words + w] = 0;
+					}
+					removing[supported] = false;
+					failed = failed || !grid.restrict(supported, allowed);
+				}
+				touchedSize = 0;
+				if(failed){
+					pendingSize = 0;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Changes the counts of the tiles supported by a tile at a position.
+		 * @param cell  index of the position of the supporting tile
+		 * @param t     index of the supporting tile
+		 * @param delta 1 if the tile was added, -1 if it was removed
+		 */
+		private void change(int cell, int t, int delta){
+			for(int d = 0; d < directions; d++){
+				int neighbour = topology.getNeighbour(cell, d);
+				if(neighbour < 0)
+					continue;
+				//the tile supports the neighbour from the opposite direction
+				int base = (neighbour * directions + DIRECTIONS[d].opposite().ordinal()) * tiles;
+				for(int u:table.lists[d][t]){
+					support[base + u] += delta;
+					if(support[base + u] == 0 && grid.tilePossible(neighbour, u))
+						push(base + u);
+				}
+			}
+		}
+
+		/**
+		 * Adds an index of a count that reached zero to the pending ones.
+		 * @param i index into support
+		 */
+		private void push(int i){
+			if(pendingSize == pending.length){
+				int[] newPending = new int[pending.length * 2];
+				System.arraycopy(pending, 0, newPending, 0, pendingSize);
+				pending = newPending;
+			}
+			pending[pendingSize++] = i;
+		}
+	}
+
+	/**
+	 * Enum used to choose how an AdjacencyRule updates the neighbours of a changed position.
+	 */
+	public enum Propagation {
+		/**
+		 * The neighbours are restricted to the union of the masks of the tiles that
+		 * are still possible, which takes O(tiles * tiles / 64) per neighbour.
+		 */
+		MASKS,
+		/**
+		 * Every position keeps count of the supporting tiles of each tile, removing
+		 * a tile only touches the tiles it supported at its neighbours.
+		 * Needs one int per tile and direction at every position, 6 * tiles on a grid with layers.
+		 */
+		SUPPORT,
+		/**
+		 * No propagator, the neighbours are checked again with getState()
+		 * for every remaining tile like the counting rules.
+		 */
+		STATE
+	}
+}
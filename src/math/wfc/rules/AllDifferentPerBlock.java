@@ -0,0 +1,27 @@
+package math.wfc.rules;
+import math.wfc.Gridstate;
+
+/**
+ * A rule that forbids a tile to appear more than once inside each width x height area of the grid.
+ */
+public class AllDifferentPerBlock extends AllDifferentRule {
+	private final int blockWidth, blockHeight;
+
+	/**
+	 * Constructer for a Rule that forbids a tile to appear more than once in a block.
+	 * @param  w width of the blocks
+	 * @param  h height of the blocks
+	 */
+	public AllDifferentPerBlock(int w, int h){
+		blockWidth = w;
+		blockHeight = h;
+	}
+
+	protected int[] getMembers(Gridstate grid, int cell){
+		return grid.getTopology().getBlock(cell, blockWidth, blockHeight);
+	}
+
+	public Rule rotate(){
+		return new AllDifferentPerBlock(blockHeight, blockWidth);
+	}
+}
@@ -0,0 +1,15 @@
+package math.wfc.rules;
+import math.wfc.Gridstate;
+
+/**
+ * A rule that forbids a tile to appear more than once in each column of a grid.
+ */
+public class AllDifferentPerColumn extends AllDifferentRule {
+	protected int[] getMembers(Gridstate grid, int cell){
+		return grid.getTopology().getColumn(cell);
+	}
+
+	public Rule rotate(){
+		return new AllDifferentPerRow();
+	}
+}
@@ -0,0 +1,41 @@
+package math.wfc.rules;
+import math.wfc.Gridstate;
+import java.util.Arrays;
+
+/**
+ * A rule that forbids a tile to appear more than once in each group of an arbitrary
+ * division of the grid, like the cages of a Killer Sudoku or the diagonals of an X-Sudoku.
+ * The groups are given as a map with the index of the group of every position, every
+ * layer of a grid is divided the same way.
+ */
+public class AllDifferentPerGroup extends AllDifferentRule {
+	private final int[][] groups;
+
+	/**
+	 * Constructer for a Rule that forbids a tile to appear more than once in a group.
+	 * @param  groups index of the group of every position as groups[x][y],
+	 *                a negative index means the position doesn't belong to a group
+	 */
+	public AllDifferentPerGroup(int[][] groups){
+		this.groups = new int[groups.length][];
+		for(int x = 0; x < groups.length; x++)
+			this.groups[x] = groups[x].clone();
+	}
+
+	protected int[] getMembers(Gridstate grid, int cell){
+		if(groups.length != grid.getWidth() || groups[0].length != grid.getHeight())
+			throw new IllegalArgumentException("Group map of size " + groups.length + "x" + groups[0].length +
+				" doesn't fit a grid of size " + grid.getWidth() + "x" + grid.getHeight());
+		int group = groups[grid.getX(cell)][grid.getY(cell)];
+		if(group < 0)
+			return null;
+		int z = grid.getZ(cell);
+		int count = 0;
+		int[] members = new int[grid.getWidth() * grid.getHeight()];
+		for(int y = 0; y < grid.getHeight(); y++)
+			for(int x = 0; x < grid.getWidth(); x++)
+				if(groups[x][y] == group)
+					members[count++] = grid.getCell(x, y, z);
+		return Arrays.copyOf(members, count);
+	}
+}
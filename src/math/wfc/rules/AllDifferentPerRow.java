@@ -0,0 +1,15 @@
+package math.wfc.rules;
+import math.wfc.Gridstate;
+
+/**
+ * A rule that forbids a tile to appear more than once in each row of a grid.
+ */
+public class AllDifferentPerRow extends AllDifferentRule {
+	protected int[] getMembers(Gridstate grid, int cell){
+		return grid.getTopology().getRow(cell);
+	}
+
+	public Rule rotate(){
+		return new AllDifferentPerColumn();
+	}
+}
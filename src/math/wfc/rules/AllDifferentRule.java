@@ -0,0 +1,383 @@
+package math.wfc.rules;
+import math.wfc.Gridstate;
+import math.wfc.Tile;
+import math.wfc.Tileset;
+import math.wfc.CellQueue;
+import math.wfc.Propagator;
+import math.wfc.DomainListener;
+import java.util.Arrays;
+
+/**
+ * A Rule that forbids two positions of a group, like a row, a column or a block, to
+ * have the same tile. With as many tiles as positions in a group it means the same
+ * as a FixedAmountRule with an amount of 1, but it removes a lot more possibilities:
+ * the propagator keeps a matching of the positions of every group to different tiles
+ * and removes every tile from a position that isn't part of any such matching
+ * (Regin's filtering of the all-different constraint). This finds naked and hidden
+ * pairs, triples and so on, not only single tiles that are impossible or forced.
+ * Tiles without the rule may appear any number of times in a group, positions where
+ * such a tile is still possible are left out of the matching.
+ * On a grid with layers every layer has its own groups.
+ */
+public abstract class AllDifferentRule extends Rule {
+	/**
+	 * Gets the positions of the group a position belongs to.
+	 * @param  grid the Gridstate of the position
+	 * @param  cell index of the position
+	 * @return      indices of all positions of the group including the position itself,
+	 *              null if the position doesn't belong to a group
+	 */
+	protected abstract int[] getMembers(Gridstate grid, int cell);
+
+	public STATE getState(Gridstate grid, int x, int y, Tile t){
+		Matching matching = (Matching) grid.getPropagator(this);
+		int cell = grid.getCell(x, y);
+		int g = matching.groupOf[cell];
+		if(g < 0)
+			return STATE.POSSIBLE;
+		int tile = grid.getTileset().indexOf(t);
+		for(int member:matching.groups[g])
+			if(member != cell && grid.isCollapsed(member) && grid.tilePossible(member, tile))
+				return STATE.IMPOSSIBLE;
+		return STATE.POSSIBLE;
+	}
+
+	/**
+	 * Every tile another position of the group has collapsed to is impossible.
+	 */
+	public void getStates(Gridstate grid, int cell, long[] tiles, long[] forbidden, long[] forced, long[] impossible){
+		Matching matching = (Matching) grid.getPropagator(this);
+		int g = matching.groupOf[cell];
+		if(g < 0)
+			return;
+		for(int member:matching.groups[g]){
+			if(member == cell || !grid.isCollapsed(member))
+				continue;
+			int tile = grid.getPossibleTile(member, 0);
+			impossible[tile >>> 6] |= tiles[tile >>> 6] & (1L << tile);
+		}
+	}
+
+	/**
+	 * The groups are handled by the propagator of the rule, so no position
+	 * has to be checked with getState() again.
+	 */
+	public void addDependents(Gridstate grid, int x, int y, CellQueue queue){
+	}
+
+	public void addDependents(Gridstate grid, int cell, CellQueue queue){
+	}
+
+	public boolean supportsLayers(){
+		return true;
+	}
+
+	public Propagator createPropagator(Gridstate grid){
+		return new Matching(grid);
+	}
+
+	/**
+	 * Propagator filtering the domains of a group whenever one of its positions changed.
+	 * The tiles of collapsed positions are removed from the other positions first. The
+	 * remaining positions whose domains only contain tiles with the rule are matched to
+	 * different tiles with augmenting paths, starting from the matching found last time.
+	 * A tile can stay at a position if it is matched to it, if it lies on a cycle of
+	 * alternating edges through the position or if an alternating path from a tile no
+	 * position is matched to reaches it. Every other tile is removed. If not every
+	 * position can be matched the group can't be finished.
+	 * The cycles are found as the strongly connected components of a graph of the
+	 * positions, where a position points to every other position its matched tile is
+	 * possible at.
+	 * A group is only filtered again after one of its domains was changed by something
+	 * else than the filtering itself, which includes undoing changes on backtracking.
+	 */
+	private class Matching implements Propagator, DomainListener {
+		private final int words;
+		private final int[][] groups;
+		//index of the group of every position or -1
+		private final int[] groupOf;
+		private final boolean[] dirty;
+		//tile every position was matched to the last time its group was filtered
+		private final int[] mate;
+		//the tiles with this rule
+		private final long[] ruleTiles;
+		private int filtering = -1;
+
+		//state of the group that is filtered, positions are numbered by their index in the group
+		private int size, groupWords;
+		private final int[] positions;
+		private final long[] domains;
+		private final int[] matched;
+		private final int[] matchedTo;
+		private final int[] seen;
+		private int stamp;
+		//holders[tile * groupWords + k] is word k of the positions the tile is possible at
+		//without being matched to them
+		private final long[] holders;
+		private final long[] reached;
+		private final int[] queue;
+		//Tarjan's algorithm over the positions
+		private final int[] index, low, component, stack;
+		private final boolean[] onStack;
+		private int counter, stackSize;
+		//componentTiles[c * words + w] is word w of the tiles matched inside component c
+		private final long[] componentTiles;
+		private final long[] allowed, taken;
+
+		Matching(Gridstate grid){
+			Tileset tileset = grid.getTileset();
+			int tiles = tileset.size();
+			words = grid.getWords();
+			ruleTiles = new long[words];
+			for(int t = 0; t < tiles; t++)
+				if(tileset.get(t).hasRule(AllDifferentRule.this))
+					ruleTiles[t >>> 6] |= 1L << t;
+
+			int cells = grid.getCellCount();
+			groupOf = new int[cells];
+			Arrays.fill(groupOf, -2);
+			int[][] found = new int[cells][];
+			int count = 0, maxSize = 0;
+			for(int cell = 0; cell < cells; cell++){
+				if(groupOf[cell] != -2)
+					continue;
+				int[] members = getMembers(grid, cell);
+				if(members == null){
+					groupOf[cell] = -1;
+					continue;
+				}
+				for(int member:members)
+					if(groupOf[member] == -2)
+						groupOf[member] = count;
+				found[count++] = members;
+				maxSize = Math.max(maxSize, members.length);
+			}
+			groups = Arrays.copyOf(found, count);
+			dirty = new boolean[count];
+			Arrays.fill(dirty, true);
+			mate = new int[cells];
+			Arrays.fill(mate, -1);
+
+			positions = new int[maxSize];
+			domains = new long[maxSize * words];
+			matched = new int[maxSize];
+			matchedTo = new int[tiles];
+			seen = new int[tiles];
+			holders = new long[tiles * ((maxSize + 63) >>> 6)];
+			reached = new long[words];
+			queue = new int[tiles];
+			index = new int[maxSize];
+			low = new int[maxSize];
+			component = new int[maxSize];
+			stack = new int[maxSize];
+			onStack = new boolean[maxSize];
+			componentTiles = new long[maxSize * words];
+			allowed = new long[words];
+			taken = new long[words];
+			grid.addListener(this);
+		}
+
+		public void domainChanged(Gridstate grid, int cell, int word, long before, long after){
+			int g = groupOf[cell];
+			if(g >= 0 && g != filtering)
+				dirty[g] = true;
+		}
+
+		public boolean propagate(Gridstate grid, int cell){
+			int g = groupOf[cell];
+			if(g < 0 || !dirty[g])
+				return true;
+			dirty[g] = false;
+			filtering = g;
+			boolean result = filter(grid, groups[g]);
+			filtering = -1;
+			return result;
+		}
+
+		/**
+		 * Removes every tile from the positions of a group that can't be part of a matching.
+		 * @param  grid    the Gridstate
+		 * @param  members the positions of the group
+		 * @return         false if the positions can't all get different tiles
+		 */
+		private boolean filter(Gridstate grid, int[] members){
+			Arrays.fill(taken, 0);
+			for(int cell:members){
+				if(!grid.isCollapsed(cell))
+					continue;
+				int tile = grid.getPossibleTile(cell, 0);
+				long bit = ruleTiles[tile >>> 6] & (1L << tile);
+				if((taken[tile >>> 6] & bit) != 0)
+					return false;
+				taken[tile >>> 6] |= bit;
+			}
+			//positions where a tile without the rule is possible are left out of the matching
+			size = 0;
+			for(int cell:members){
+				if(grid.isCollapsed(cell))
+					continue;
+				grid.getDomain(cell, allowed);
+				boolean removed = false, free = false;
+				for(int w = 0; w < words; w++){
+					removed |= (allowed[w] & taken[w]) != 0;
+					allowed[w] &= ~taken[w];
+					free |= (allowed[w] & ~ruleTiles[w]) != 0;
+				}
+				if(removed && !grid.restrict(cell, allowed))
+					return false;
+				if(free)
+					continue;
+				System.arraycopy(allowed, 0, domains, size * words, words);
+				positions[size++] = cell;
+			}
+			if(size == 0)
+				return true;
+			return match() && removeUnmatchable(grid);
+		}
+
+		/**
+		 * Matches every position of the filtered group to a different tile, keeping
+		 * the pairs of the last matching that are still possible.
+		 * @return false if there is no such matching
+		 */
+		private boolean match(){
+			Arrays.fill(matchedTo, -1);
+			for(int i = 0; i < size; i++){
+				int tile = mate[positions[i]];
+				if(tile >= 0 && matchedTo[tile] < 0 && (domains[i * words + (tile >>> 6)] & (1L << tile)) != 0){
+					matched[i] = tile;
+					matchedTo[tile] = i;
+				} else {
+					matched[i] = -1;
+				}
+			}
+			for(int i = 0; i < size; i++){
+				if(matched[i] >= 0)
+					continue;
+				stamp++;
+				if(!augment(i))
+					return false;
+			}
+			for(int i = 0; i < size; i++)
+				mate[positions[i]] = matched[i];
+			return true;
+		}
+
+		/**
+		 * Searches an augmenting path from an unmatched position with a depth first search.
+		 * @param  i index of the position inside the group
+		 * @return   true if the position was matched
+		 */
+		private boolean augment(int i){
+			for(int w = 0; w < words; w++){
+				for(long word = domains[i * words + w]; word != 0; word &= word - 1){
+					int tile = (w << 6) + Long.numberOfTrailingZeros(word);
+					if(seen[tile] == stamp)
+						continue;
+					seen[tile] = stamp;
+					if(matchedTo[tile] < 0 || augment(matchedTo[tile])){
+						matched[i] = tile;
+						matchedTo[tile] = i;
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Removes the tiles from the positions of the filtered group that aren't part of any matching.
+		 * @param  grid the Gridstate
+		 * @return      false if a position has no possibilities left
+		 */
+		private boolean removeUnmatchable(Gridstate grid){
+			groupWords = (size + 63) >>> 6;
+			Arrays.fill(holders, 0, matchedTo.length * groupWords, 0);
+			Arrays.fill(reached, 0);
+			for(int i = 0; i < size; i++){
+				for(int w = 0; w < words; w++){
+					long word = domains[i * words + w];
+					reached[w] |= word;
+					for(; word != 0; word &= word - 1){
+						int tile = (w << 6) + Long.numberOfTrailingZeros(word);
+						if(tile != matched[i])
+							holders[tile * groupWords + (i >>> 6)] |= 1L << i;
+					}
+				}
+			}
+
+			//tiles reachable on alternating paths from unmatched tiles
+			int head = 0, tail = 0;
+			for(int i = 0; i < size; i++)
+				reached[matched[i] >>> 6] &= ~(1L << matched[i]);
+			for(int w = 0; w < words; w++)
+				for(long word = reached[w]; word != 0; word &= word - 1)
+					queue[tail++] = (w << 6) + Long.numberOfTrailingZeros(word);
+			while(head < tail){
+				int tile = queue[head++];
+				for(int k = 0; k < groupWords; k++){
+					for(long word = holders[tile * groupWords + k]; word != 0; word &= word - 1){
+						int next = matched[(k << 6) + Long.numberOfTrailingZeros(word)];
+						if((reached[next >>> 6] & (1L << next)) == 0){
+							reached[next >>> 6] |= 1L << next;
+							queue[tail++] = next;
+						}
+					}
+				}
+			}
+
+			//tiles matched on a cycle through a position
+			Arrays.fill(index, 0, size, -1);
+			Arrays.fill(componentTiles, 0, size * words, 0);
+			counter = 0;
+			stackSize = 0;
+			for(int i = 0; i < size; i++)
+				if(index[i] < 0)
+					connect(i);
+			for(int i = 0; i < size; i++)
+				componentTiles[component[i] * words + (matched[i] >>> 6)] |= 1L << matched[i];
+
+			for(int i = 0; i < size; i++){
+				boolean removed = false;
+				for(int w = 0; w < words; w++){
+					long domain = domains[i * words + w];
+					allowed[w] = domain & (reached[w] | componentTiles[component[i] * words + w]);
+					removed |= allowed[w] != domain;
+				}
+				if(removed && !grid.restrict(positions[i], allowed))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Tarjan's algorithm for the strongly connected components of the positions.
+		 * @param i index of the position inside the group
+		 */
+		private void connect(int i){
+			index[i] = low[i] = counter++;
+			stack[stackSize++] = i;
+			onStack[i] = true;
+			int base = matched[i] * groupWords;
+			for(int k = 0; k < groupWords; k++){
+				for(long word = holders[base + k]; word != 0; word &= word - 1){
+					int next = (k << 6) + Long.numberOfTrailingZeros(word);
+					if(index[next] < 0){
+						connect(next);
+						low[i] = Math.min(low[i], low[next]);
+					} else if(onStack[next]){
+						low[i] = Math.min(low[i], index[next]);
+					}
+				}
+			}
+			if(low[i] == index[i]){
+				int other;
+				do {
+					other = stack[--stackSize];
+					onStack[other] = false;
+					component[other] = i;
+				} while(other != i);
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package math.wfc.rules;
+
+/**
+ * Enum for the directions to a neighbouring position in the grid.
+ * The y-axis points down, so UP is the position at y - 1. The last two
+ * directions lead to the next layer of a grid with a depth, ABOVE is the
+ * position at z + 1. A grid with dimensions n uses the first 2 * n directions.
+ */
+public enum Direction {
+	LEFT(-1, 0, 0),
+	UP(0, -1, 0),
+	RIGHT(1, 0, 0),
+	DOWN(0, 1, 0),
+	BELOW(0, 0, -1),
+	ABOVE(0, 0, 1);
+
+	private final int dx, dy, dz;
+
+	Direction(int dx, int dy, int dz){
+		this.dx = dx;
+		this.dy = dy;
+		this.dz = dz;
+	}
+
+	/**
+	 * Getter Function for the x-offset of the direction.
+	 * @return x-offset to the neighbouring position
+	 */
+	public int getDx(){
+		return dx;
+	}
+
+	/**
+	 * Getter Function for the y-offset of the direction.
+	 * @return y-offset to the neighbouring position
+	 */
+	public int getDy(){
+		return dy;
+	}
+
+	/**
+	 * Getter Function for the z-offset of the direction.
+	 * @return z-offset to the neighbouring position
+	 */
+	public int getDz(){
+		return dz;
+	}
+
+	/**
+	 * Gets the direction pointing the other way.
+	 * @return the opposite direction
+	 */
+	public Direction opposite(){
+		if(dz != 0)
+			return dz < 0 ? ABOVE : BELOW;
+		return values()[(ordinal() + 2) % 4];
+	}
+
+	/**
+	 * Gets the direction rotated clockwise around the z-axis.
+	 * @return the rotated direction
+	 */
+	public Direction rotate(){
+		if(dz != 0)
+			return this;
+		return values()[(ordinal() + 1) % 4];
+	}
+
+	/**
+	 * Gets the direction with a mirrored x-offset, so LEFT and RIGHT are swapped.
+	 * @return the mirrored direction
+	 */
+	public Direction mirrorX(){
+		return dx == 0 ? this : opposite();
+	}
+
+	/**
+	 * Gets the direction with a mirrored y-offset, so UP and DOWN are swapped.
+	 * @return the mirrored direction
+	 */
+	public Direction mirrorY(){
+		return dy == 0 ? this : opposite();
+	}
+}
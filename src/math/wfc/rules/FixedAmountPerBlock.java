@@ -1,13 +1,11 @@
 package math.wfc.rules;
 import math.wfc.Gridstate;
-import math.wfc.Tile;
-import math.wfc.Superposition;
+import math.wfc.CellQueue;
 
 /**
  * A Rule that forces a certain amount of tiles to be inside each width x height area of the grid.
  */
-public class FixedAmountPerBlock extends Rule {
-	private final int amount;
+public class FixedAmountPerBlock extends FixedAmountRule {
 	private final int blockWidth, blockHeight;
 
 	/**
@@ -15,49 +13,39 @@ public class FixedAmountPerBlock extends Rule {
 	 * @param  a The amount of tiles in each row
 	 */
 	public FixedAmountPerBlock(int a, int w, int h){
-		amount = a;
+		super(a);
 		blockWidth = w;
 		blockHeight = h;
 	}
 
-	public STATE getState(Gridstate grid, int x, int y, Tile t){
-		countResult c = countBlock(grid, x, y, t);
-		if(c.collapsedCount > amount || c.collapsedCount + c.possibleCount < amount-1)
-			return STATE.FORBIDDEN;
-		if(c.collapsedCount == amount)
-			return STATE.IMPOSSIBLE;
-		if(c.collapsedCount + c.possibleCount == amount-1)
-			return STATE.FORCED;
-		return STATE.POSSIBLE;
+	protected int getGroup(Gridstate grid, int x, int y){
+		return x / blockWidth + y / blockHeight * blocksPerRow(grid);
+	}
+
+	protected int getGroupCount(Gridstate grid){
+		return blocksPerRow(grid) * ((grid.getHeight() + blockHeight - 1) / blockHeight);
 	}
 
 	/**
-	 * Counts the amount of a given tile in a row of the grid igonring the position the rule is calculated for
-	 * @param  grid the current Gridstate
-	 * @param  x    the x coordinate of the position to test for
-	 * @param  y    the y coordinate of the position to test for
-	 * @param  t    the tile to test for at that position
-	 * @return      countResult object holding the amount of possible and collapsed Superpositions
+	 * Gets the count of blocks next to each other in a grid, a block at the border may be cut off.
+	 * @param  grid the Gridstate
+	 * @return      count of blocks per row of blocks
 	 */
-	private countResult countBlock(Gridstate grid, int x, int y, Tile t){
-		countResult counter = new countResult();
-		int blockX = x / blockWidth;
-		int blockY = y / blockHeight;
-		for(int X = blockX * blockWidth; X < (blockX + 1) * blockWidth; X++){
-			for(int Y = blockY * blockHeight; Y < (blockY + 1) * blockHeight; Y++){
-				if(!(x == X && y == Y)){
-					Superposition s = grid.getPosition(X, Y);
-					if(s.tilePossible(t)){
-						if(s.isCollapsed()){
-							counter.collapsedCount++;
-						} else {
-							counter.possibleCount++;
-						}
-					}
-				}
-			}
-		}
-		return counter;
+	private int blocksPerRow(Gridstate grid){
+		return (grid.getWidth() + blockWidth - 1) / blockWidth;
+	}
+
+	public void addDependents(Gridstate grid, int x, int y, CellQueue queue){
+		addDependents(grid, grid.getCell(x, y), queue);
+	}
+
+	public void addDependents(Gridstate grid, int cell, CellQueue queue){
+		for(int c:grid.getTopology().getBlock(cell, blockWidth, blockHeight))
+			queue.addCell(c);
+	}
+
+	public boolean supportsLayers(){
+		return true;
 	}
 
 	public Rule rotate(){
@@ -71,19 +59,4 @@ public class FixedAmountPerBlock extends Rule {
 	public Rule mirrorY(){
 		return new FixedAmountPerBlock(amount, blockWidth, blockHeight);
 	}
-
-	private class countResult{
-		public int possibleCount;
-		public int collapsedCount;
-
-		countResult(){
-			possibleCount = 0;
-			collapsedCount = 0;
-		}
-
-		countResult(int pc, int cc){
-			possibleCount = pc;
-			collapsedCount = cc;
-		}
-	}
 }
\ No newline at end of file
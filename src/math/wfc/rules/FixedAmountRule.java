@@ -0,0 +1,179 @@
+package math.wfc.rules;
+import math.wfc.Gridstate;
+import math.wfc.Tile;
+import math.wfc.Propagator;
+import math.wfc.DomainListener;
+
+/**
+ * A Rule that forces a certain amount of every tile to be in each group of positions,
+ * like a row, a column or a block. For every grid the rule keeps count of the positions
+ * collapsed to each tile and the positions where each tile is still possible in every group.
+ * The counts follow every domain change, including the ones undone on backtracking,
+ * so getState() doesn't have to look at the other positions of the group.
+ * On a grid with layers every layer has its own groups.
+ */
+public abstract class FixedAmountRule extends Rule {
+	protected final int amount;
+
+	/**
+	 * Constructer for a Rule that forces a certain count of every tile to be in each group.
+	 * @param  a The amount of tiles in each group
+	 */
+	protected FixedAmountRule(int a){
+		amount = a;
+	}
+
+	/**
+	 * Gets the group a position belongs to.
+	 * @param  grid the Gridstate of the position
+	 * @param  x    the x coordinate of the position
+	 * @param  y    the y coordinate of the position
+	 * @return      index of the group, between 0 and getGroupCount() - 1
+	 */
+	protected abstract int getGroup(Gridstate grid, int x, int y);
+
+	/**
+	 * Gets the count of groups of a grid.
+	 * @param  grid the Gridstate
+	 * @return      count of groups
+	 */
+	protected abstract int getGroupCount(Gridstate grid);
+
+	public STATE getState(Gridstate grid, int x, int y, Tile t){
+		Counter counter = (Counter) grid.getPropagator(this);
+		int cell = grid.getCell(x, y);
+		int tile = grid.getTileset().indexOf(t);
+		int i = counter.group[cell] * counter.tiles + tile;
+		int collapsedCount = counter.collapsed[i];
+		int possibleCount = counter.possible[i];
+		//ignores the position the rule is calculated for
+		if(grid.tilePossible(cell, tile)){
+			if(counter.count[cell] == 1){
+				collapsedCount--;
+			} else {
+				possibleCount--;
+			}
+		}
+		return state(collapsedCount, possibleCount);
+	}
+
+	/**
+	 * Looks up the group and the count of possibilities of the position only once for all tiles.
+	 */
+	public void getStates(Gridstate grid, int cell, long[] tiles, long[] forbidden, long[] forced, long[] impossible){
+		Counter counter = (Counter) grid.getPropagator(this);
+		int base = counter.group[cell] * counter.tiles;
+		//every tile is possible at the position, which is ignored
+		int ownCollapsed = counter.count[cell] == 1 ? 1 : 0;
+		int ownPossible = 1 - ownCollapsed;
+		for(int w = 0; w < tiles.length; w++){
+			for(long word = tiles[w]; word != 0; word &= word - 1){
+				int tile = (w << 6) + Long.numberOfTrailingZeros(word);
+				switch(state(counter.collapsed[base + tile] - ownCollapsed, counter.possible[base + tile] - ownPossible)){
+				case FORBIDDEN:
+					forbidden[w] |= 1L << tile;
+					break;
+				case FORCED:
+					forced[w] |= 1L << tile;
+					break;
+				case IMPOSSIBLE:
+					impossible[w] |= 1L << tile;
+					break;
+				default:
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the State of a tile from the counts of the other positions of its group.
+	 * @param  collapsedCount count of the other positions collapsed to the tile
+	 * @param  possibleCount  count of the other positions where the tile is still possible
+	 * @return                the State of the tile
+	 */
+	private STATE state(int collapsedCount, int possibleCount){
+		if(collapsedCount > amount || collapsedCount + possibleCount < amount-1)
+			return STATE.FORBIDDEN;
+		if(collapsedCount == amount)
+			return STATE.IMPOSSIBLE;
+		if(collapsedCount + possibleCount == amount-1)
+			return STATE.FORCED;
+		return STATE.POSSIBLE;
+	}
+
+	public Propagator createPropagator(Gridstate grid){
+		return new Counter(grid);
+	}
+
+	/**
+	 * The counts of a rule for a single grid. It doesn't remove possibilities itself,
+	 * the counts are read by getState().
+	 */
+	private class Counter implements Propagator, DomainListener {
+		private final int tiles;
+		private final int[] group;
+		//count of possibilities of every position
+		private final int[] count;
+		//collapsed[g * tiles + t] is the count of positions in group g collapsed to tile t,
+		//possible[g * tiles + t] the count of positions that haven't collapsed where t is possible
+		private final int[] collapsed;
+		private final int[] possible;
+		private final long[] domain;
+
+		Counter(Gridstate grid){
+			tiles = grid.getTileset().size();
+			int cells = grid.getCellCount();
+			int groups = getGroupCount(grid);
+			group = new int[cells];
+			count = new int[cells];
+			collapsed = new int[groups * grid.getDepth() * tiles];
+			possible = new int[collapsed.length];
+			domain = new long[grid.getWords()];
+			for(int cell = 0; cell < cells; cell++){
+				group[cell] = getGroup(grid, grid.getX(cell), grid.getY(cell)) + grid.getZ(cell) * groups;
+				count[cell] = grid.getPossibilityCount(cell);
+				grid.getDomain(cell, domain);
+				add(cell, 1);
+			}
+			grid.addListener(this);
+		}
+
+		public boolean propagate(Gridstate grid, int cell){
+			return true;
+		}
+
+		public void domainChanged(Gridstate grid, int cell, int word, long before, long after){
+			int newCount = count[cell] + Long.bitCount(after) - Long.bitCount(before);
+			if(count[cell] != 1 && newCount != 1){
+				//only the changed tiles are updated while the position hasn't collapsed
+				int base = group[cell] * tiles + (word << 6);
+				for(long removed = before & ~after; removed != 0; removed &= removed - 1)
+					possible[base + Long.numberOfTrailingZeros(removed)]--;
+				for(long added = after & ~before; added != 0; added &= added - 1)
+					possible[base + Long.numberOfTrailingZeros(added)]++;
+				count[cell] = newCount;
+				return;
+			}
+			grid.getDomain(cell, domain);
+			domain[word] = before;
+			add(cell, -1);
+			domain[word] = after;
+			count[cell] = newCount;
+			add(cell, 1);
+		}
+
+		/**
+		 * Adds or removes a position with the domain in the domain field to the counts of its group.
+		 * @param cell  index of the position
+		 * @param delta 1 to add the position, -1 to remove it
+		 */
+		private void add(int cell, int delta){
+			int base = group[cell] * tiles;
+			int[] counts = count[cell] == 1 ? collapsed : possible;
+			for(int w = 0; w < domain.length; w++)
+				for(long word = domain[w]; word != 0; word &= word - 1)
+					counts[base + (w << 6) + Long.numberOfTrailingZeros(word)] += delta;
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package math.wfc.rules;
 import math.wfc.Gridstate;
 import math.wfc.Tile;
+import math.wfc.CellQueue;
+import math.wfc.Propagator;
 
 /**
  * A Interface for functions on a rule.
@@ -16,6 +18,88 @@ public abstract class Rule {
 	 */
 	public abstract STATE getState(Gridstate grid, int x, int y, Tile t);
 
+	/**
+	 * A function to evaluate the rule for several tiles at one position at once, used by
+	 * Superposition.collapsePossibilities(). The tiles whose State is FORBIDDEN, FORCED or
+	 * IMPOSSIBLE are added to the bitsets, which have the layout of the domains of the grid.
+	 * The default calls getState() for every tile, rules that look at the same positions
+	 * for every tile should override it, so that work is only done once per position.
+	 * @param grid       the current Gridstate
+	 * @param cell       index of the position as returned by Gridstate.getCell()
+	 * @param tiles      the tiles to evaluate, all of them are possible at the position
+	 * @param forbidden  the tiles that are FORBIDDEN are added to it
+	 * @param forced     the tiles that are FORCED are added to it
+	 * @param impossible the tiles that are IMPOSSIBLE are added to it
+	 */
+	public void getStates(Gridstate grid, int cell, long[] tiles, long[] forbidden, long[] forced, long[] impossible){
+		int x = grid.getX(cell);
+		int y = grid.getY(cell);
+		for(int w = 0; w < tiles.length; w++){
+			for(long word = tiles[w]; word != 0; word &= word - 1){
+				int i = (w << 6) + Long.numberOfTrailingZeros(word);
+				switch(getState(grid, x, y, grid.getTileset().get(i))){
+				case FORBIDDEN:
+					forbidden[w] |= 1L << i;
+					break;
+				case FORCED:
+					forced[w] |= 1L << i;
+					break;
+				case IMPOSSIBLE:
+					impossible[w] |= 1L << i;
+					break;
+				default:
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A function that adds every position whose State for this rule could change
+	 * when the Superposition at (x, y) changes to the queue. The default adds the
+	 * whole grid, rules should override it with the positions they actually look at.
+	 * @param grid  the current Gridstate
+	 * @param x     the x coordinate of the position that changed
+	 * @param y     the y coordinate of the position that changed
+	 * @param queue the queue to add the dependent positions to
+	 */
+	public void addDependents(Gridstate grid, int x, int y, CellQueue queue){
+		queue.addAll();
+	}
+
+	/**
+	 * Like addDependents(grid, x, y, queue) for a position given by its index, this is
+	 * the function used by the Gridstate. The default calls the one with coordinates,
+	 * rules that support layers have to override it.
+	 * @param grid  the current Gridstate
+	 * @param cell  index of the position that changed
+	 * @param queue the queue to add the dependent positions to
+	 */
+	public void addDependents(Gridstate grid, int cell, CellQueue queue){
+		addDependents(grid, grid.getX(cell), grid.getY(cell), queue);
+	}
+
+	/**
+	 * A function to tell if the rule works on grids with more than one layer. Such a rule
+	 * has to override getStates() and addDependents() with the index of the position,
+	 * because getState() only knows the coordinates inside a layer.
+	 * @return true if the rule can be used on grids with layers, false by default
+	 */
+	public boolean supportsLayers(){
+		return false;
+	}
+
+	/**
+	 * A function that creates the Propagator of this rule for a grid. A propagator
+	 * removes possibilities from the positions around a changed position directly.
+	 * The default has no propagator and only uses getState().
+	 * @param  grid the Gridstate the propagator will belong to
+	 * @return      the Propagator or null
+	 */
+	public Propagator createPropagator(Gridstate grid){
+		return null;
+	}
+
 	/**
 	 * A function that rotates the rule clockwise.
 	 * @return A rotated version of the rule